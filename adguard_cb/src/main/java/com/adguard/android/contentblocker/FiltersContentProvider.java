@@ -19,30 +19,175 @@ package com.adguard.android.contentblocker;
 import android.content.ContentProvider;
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.net.Uri;
 import android.os.ParcelFileDescriptor;
 
 import androidx.annotation.NonNull;
 
+import com.adguard.android.contentblocker.service.compiler.CompileProfile;
+import com.adguard.android.contentblocker.service.compiler.SnapshotMetadata;
+import com.adguard.android.contentblocker.service.compiler.SnapshotStore;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Serves the compiled filters to the browsers.
+ * <p>
+ * The provider is called on a binder thread of the browser, so it never compiles the filters itself.
+ * If there is no snapshot for the browser, the snapshot of the generic profile is served while
+ * the filters are compiled in the background. Only if there are no snapshots at all,
+ * the provider waits for the compilation for a limited time.
+ * <p>
+ * {@link #query} returns a single row with the metadata of the snapshot, so the browser
+ * can check if the filters have changed before reading them.
+ * If the browser passes the generation it has with the {@link #PARAM_SINCE} parameter,
+ * {@link #openFile} returns only the added and removed rules, when the history goes that far back.
+ * Generations are counted for every profile separately, so the generic snapshot served
+ * in place of a missing one is reported with {@link #NO_GENERATION} and never gets a delta.
+ */
 public class FiltersContentProvider extends ContentProvider {
 
-    private static final String FILTERS_FILE_PATH = "/filters.txt";
+    private static final Logger LOG = LoggerFactory.getLogger(FiltersContentProvider.class);
+
+    private static final long MAX_COMPILE_WAIT_MILLIS = 3000;
+
+    public static final String COLUMN_HASH = "hash";
+    public static final String COLUMN_RULE_COUNT = "rule_count";
+    public static final String COLUMN_SIZE = "size";
+    public static final String COLUMN_GENERATION = "generation";
+    public static final String COLUMN_PROFILE = "profile";
 
-    private String filtersPath;
+    /**
+     * Generation reported for the snapshot of another profile, the browser must not pass it with {@link #PARAM_SINCE}
+     */
+    public static final long NO_GENERATION = 0;
+
+    /**
+     * URI parameter with the generation the browser already has
+     */
+    public static final String PARAM_SINCE = "since";
+
+    private static final String[] DEFAULT_PROJECTION = {COLUMN_HASH, COLUMN_RULE_COUNT, COLUMN_SIZE, COLUMN_GENERATION, COLUMN_PROFILE};
+
+    /**
+     * Compilations scheduled for the missing snapshots, see {@link #getFallbackSnapshotFile(CompileProfile)}
+     */
+    private final Map<CompileProfile, CountDownLatch> fallbackCompilations = new EnumMap<>(CompileProfile.class);
 
     @Override
     public ParcelFileDescriptor openFile(@NonNull Uri uri, @NonNull String mode) throws FileNotFoundException {
-        File filterFile = new File(filtersPath);
-        if (!filterFile.exists()) {
-            ServiceLocator.getInstance(getContext()).getFilterService().applyNewSettings();
+        CompileProfile profile = getProfile(uri);
+        SnapshotStore snapshotStore = getSnapshotStore(profile);
+
+        long sinceGeneration = NumberUtils.toLong(uri.getQueryParameter(PARAM_SINCE), -1);
+        if (sinceGeneration >= 0) {
+            ParcelFileDescriptor delta = openDelta(snapshotStore, sinceGeneration);
+            if (delta != null) {
+                return delta;
+            }
+            LOG.info("There is no {} delta since {}, serving the full snapshot", profile, sinceGeneration);
+        }
+
+        File filterFile = snapshotStore.getSnapshotFile();
+        if (filterFile == null) {
+            filterFile = getFallbackSnapshotFile(profile);
+            if (filterFile == null) {
+                throw new FileNotFoundException(profile.getFileName());
+            }
+        } else {
+            synchronized (fallbackCompilations) {
+                fallbackCompilations.remove(profile);
+            }
         }
 
         return ParcelFileDescriptor.open(filterFile, ParcelFileDescriptor.MODE_READ_ONLY);
     }
 
+    /**
+     * Opens the rules changed since the specified generation.
+     * The delta is written to a temporary file which is deleted right after it is opened.
+     *
+     * @param snapshotStore   Snapshot store
+     * @param sinceGeneration Generation the browser has
+     * @return Delta or null if it is not available
+     */
+    private ParcelFileDescriptor openDelta(SnapshotStore snapshotStore, long sinceGeneration) {
+        File deltaFile = null;
+        try {
+            deltaFile = File.createTempFile("delta", ".txt", getContext().getCacheDir());
+            if (!snapshotStore.writeDelta(sinceGeneration, deltaFile)) {
+                return null;
+            }
+            return ParcelFileDescriptor.open(deltaFile, ParcelFileDescriptor.MODE_READ_ONLY);
+        } catch (IOException ex) {
+            LOG.warn("Cannot open delta since {}:\r\n", sinceGeneration, ex);
+            return null;
+        } finally {
+            FileUtils.deleteQuietly(deltaFile);
+        }
+    }
+
+    /**
+     * Starts compiling the missing snapshot in the background and gets a file to serve meanwhile.
+     * The browsers are notified when the compilation is finished, so they request the new snapshot.
+     *
+     * @param profile Requested profile
+     * @return Generic snapshot, the requested snapshot if it has been compiled in time, or null
+     */
+    private File getFallbackSnapshotFile(CompileProfile profile) {
+        CountDownLatch compiled = scheduleFallbackCompilation(profile);
+
+        File filterFile = getSnapshotStore(CompileProfile.GENERIC).getSnapshotFile();
+        if (filterFile != null) {
+            return filterFile;
+        }
+
+        try {
+            if (!compiled.await(MAX_COMPILE_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                LOG.warn("{} snapshot has not been compiled in {} ms", profile, MAX_COMPILE_WAIT_MILLIS);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        return getSnapshotStore(profile).getSnapshotFile();
+    }
+
+    /**
+     * Schedules the compilation of the missing snapshot only once until the snapshot appears.
+     * Otherwise a compilation that has failed to produce the snapshot would notify the browsers,
+     * and their requests would schedule the next one over and over again.
+     *
+     * @param profile Requested profile
+     * @return Latch released when the scheduled compilation is finished
+     */
+    private CountDownLatch scheduleFallbackCompilation(CompileProfile profile) {
+        synchronized (fallbackCompilations) {
+            CountDownLatch compiled = fallbackCompilations.get(profile);
+            if (compiled != null) {
+                LOG.info("There is no {} snapshot, its compilation has already been scheduled", profile);
+                return compiled;
+            }
+
+            LOG.info("There is no {} snapshot, compiling it in the background", profile);
+            compiled = new CountDownLatch(1);
+            fallbackCompilations.put(profile, compiled);
+            ServiceLocator.getInstance(getContext()).getFilterService().scheduleApplyNewSettings(compiled::countDown);
+            return compiled;
+        }
+    }
+
     @Override
     public String getType(@NonNull Uri uri) {
         return "text/plain";
@@ -50,13 +195,85 @@ public class FiltersContentProvider extends ContentProvider {
 
     @Override
     public boolean onCreate() {
-        filtersPath = getContext().getFilesDir().getAbsolutePath() + FILTERS_FILE_PATH;
         return true;
     }
 
+    /**
+     * Gets the store shared with the filter service, so that the deltas are never merged while a snapshot is published
+     *
+     * @param profile Browser profile
+     * @return Snapshot store
+     */
+    private SnapshotStore getSnapshotStore(CompileProfile profile) {
+        return ServiceLocator.getInstance(getContext()).getFilterService().getSnapshotStore(profile);
+    }
+
+    /**
+     * Selects the filters file for the browser.
+     * The profile can be requested explicitly with the last URI segment, otherwise it depends on the calling browser.
+     *
+     * @param uri Requested URI
+     * @return Compile profile
+     */
+    private CompileProfile getProfile(Uri uri) {
+        CompileProfile profile = CompileProfile.fromName(uri.getLastPathSegment());
+        if (profile == null) {
+            profile = CompileProfile.fromPackage(getCallingPackage());
+        }
+        LOG.info("Serving {} filters for {}", profile, getCallingPackage());
+        return profile;
+    }
+
     @Override
     public Cursor query(@NonNull Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
-        throw new UnsupportedOperationException("Not implemented");
+        if (projection == null) {
+            projection = DEFAULT_PROJECTION;
+        }
+
+        MatrixCursor cursor = new MatrixCursor(projection, 1);
+        CompileProfile requestedProfile = getProfile(uri);
+        CompileProfile profile = requestedProfile;
+        SnapshotMetadata metadata = getSnapshotStore(profile).getMetadata();
+        if (metadata == null && profile != CompileProfile.GENERIC) {
+            // The same fallback as in openFile
+            profile = CompileProfile.GENERIC;
+            metadata = getSnapshotStore(profile).getMetadata();
+        }
+        if (metadata == null) {
+            return cursor;
+        }
+
+        boolean fallback = profile != requestedProfile;
+        Object[] row = new Object[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            row[i] = getColumnValue(metadata, profile, fallback, projection[i]);
+        }
+        cursor.addRow(row);
+        return cursor;
+    }
+
+    /**
+     * @param metadata Metadata of the served snapshot
+     * @param profile  Profile of the served snapshot
+     * @param fallback true if the snapshot is served in place of the requested one
+     * @param column   Column name
+     * @return Column value
+     */
+    private static Object getColumnValue(SnapshotMetadata metadata, CompileProfile profile, boolean fallback, String column) {
+        switch (column) {
+            case COLUMN_HASH:
+                return metadata.getHash();
+            case COLUMN_RULE_COUNT:
+                return metadata.getRuleCount();
+            case COLUMN_SIZE:
+                return metadata.getSize();
+            case COLUMN_GENERATION:
+                return fallback ? NO_GENERATION : metadata.getGeneration();
+            case COLUMN_PROFILE:
+                return profile.getName();
+            default:
+                throw new IllegalArgumentException("Unknown column " + column);
+        }
     }
 
     @Override
@@ -18,9 +18,18 @@ package com.adguard.android.contentblocker;
 
 import com.adguard.android.contentblocker.api.HttpServiceClient;
 import com.adguard.android.contentblocker.commons.AppLink;
+import com.adguard.android.contentblocker.commons.ProductVersion;
+import com.adguard.android.contentblocker.commons.io.IoUtils;
+import com.adguard.android.contentblocker.commons.rules.FilterChecksum;
+import com.adguard.android.contentblocker.commons.rules.FilterPatch;
+import com.adguard.android.contentblocker.commons.web.ConditionalResponse;
 import com.adguard.android.contentblocker.commons.web.UrlUtils;
+import com.adguard.android.contentblocker.db.FilterRuleDao;
+import com.adguard.android.contentblocker.db.HttpCacheDao;
 import com.adguard.android.contentblocker.model.FilterList;
+import com.adguard.android.contentblocker.model.HttpCacheEntry;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.time.DateUtils;
 import org.codehaus.jackson.annotate.JsonAutoDetect;
@@ -29,7 +38,18 @@ import org.codehaus.jackson.map.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.HashSet;
@@ -46,46 +66,222 @@ public class ServiceApiClient extends HttpServiceClient {
 
     private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
 
+    /**
+     * Limits the chain of patches, a filter that far behind is downloaded in full
+     */
+    private static final int MAX_PATCHES = 20;
+
+    private static final String ENCODING = "UTF-8";
+    private static final String LINE_FEED = "\n";
+
     static {
         OBJECT_MAPPER.setVisibility(JsonMethod.FIELD, JsonAutoDetect.Visibility.ANY);
     }
 
     /**
-     * Downloads filter rules
+     * Downloads filter rules.
+     * The rules are decoded and passed to the writer as they are received, so the list is never kept in memory.
+     * The text of the lists which support patches is passed to the writer as well, see {@link FilterPatch}.
      *
-     * @param filterId Filter id
-     * @return List of rules
+     * @param filterId     Filter id
+     * @param httpCacheDao Cache of the response validators
+     * @param conditional  If true, the rules are downloaded only if they have been modified since the cached response
+     * @param writer       Writer to pass the trimmed non-empty rules to
+     * @return false if the rules have not been modified
      */
-    public static List<String> downloadFilterRules(int filterId) throws IOException {
-        String downloadUrl = AppLink.FilterApi.getFilterUrl();
-        downloadUrl = downloadUrl.replace("{0}", UrlUtils.urlEncode(Integer.toString(filterId)));
+    public static boolean downloadFilterRules(int filterId, HttpCacheDao httpCacheDao, boolean conditional, FilterRuleDao.FilterRulesWriter writer) throws IOException {
+        String downloadUrl = getFilterUrl(filterId);
 
         LOG.info("Sending request to {}", downloadUrl);
-        String response = downloadString(downloadUrl);
+        HttpCacheEntry cacheEntry = conditional ? httpCacheDao.selectEntry(downloadUrl) : null;
+        RuleLinesReader reader = new RuleLinesReader(writer);
+        ConditionalResponse conditionalResponse = download(downloadUrl, cacheEntry, reader);
+        if (conditionalResponse.isNotModified()) {
+            LOG.info("Filter {} has not been modified", filterId);
+            return false;
+        }
 
-        LOG.debug("Response length is {}", response.length());
-        String[] rules = StringUtils.split(response, "\r\n");
-        List<String> filterRules = new ArrayList<>();
-        for (String line : rules) {
-            String rule = StringUtils.trim(line);
-            if (!StringUtils.isEmpty(rule)) {
-                filterRules.add(rule);
+        if (reader.count == 0) {
+            LOG.error("Response for {} is empty", downloadUrl);
+            throw new IOException("Response is empty.");
+        }
+        LOG.debug("Received {} rules", reader.count);
+
+        // The rules are not committed yet, a corrupted or truncated list is rejected and the old rules are kept
+        reader.checksum.verify(downloadUrl);
+
+        updateCacheEntry(httpCacheDao, downloadUrl, conditionalResponse, null);
+        return true;
+    }
+
+    /**
+     * Updates filter rules with the patches, see {@link FilterPatch}.
+     * The patches are applied one after another while the list points to the next one,
+     * each one is applied to a temporary file, so the list is never kept in memory.
+     * Nothing is passed to the writer unless the patched list is complete.
+     *
+     * @param filterId        Filter id
+     * @param patchBase       Filter list as it has been downloaded, see {@link FilterRuleDao#openPatchBase(int)}
+     * @param tempDir         Directory for the temporary files
+     * @param expectedVersion Version the filter must be updated to
+     * @param writer          Writer to pass the rules and the text of the patched list to
+     * @return false if the filter cannot be updated with patches
+     * @throws IOException If the patched list cannot be written
+     */
+    public static boolean downloadPatchedFilterRules(int filterId, InputStream patchBase, File tempDir, ProductVersion expectedVersion,
+                                                     FilterRuleDao.FilterRulesWriter writer) throws IOException {
+        return downloadPatchedFilterRules(getFilterUrl(filterId), patchBase, tempDir, expectedVersion, writer);
+    }
+
+    static boolean downloadPatchedFilterRules(String filterUrl, InputStream patchBase, File tempDir, ProductVersion expectedVersion,
+                                              FilterRuleDao.FilterRulesWriter writer) throws IOException {
+        File listFile = null;
+        File patchedFile = null;
+        try {
+            listFile = File.createTempFile("list", ".txt", tempDir);
+            patchedFile = File.createTempFile("patched", ".txt", tempDir);
+            try {
+                FileUtils.copyInputStreamToFile(patchBase, listFile);
+            } catch (IOException ex) {
+                LOG.warn("Cannot read the patch base of {}:\r\n", filterUrl, ex);
+                return false;
             }
+
+            int patchCount = 0;
+            String diffPath;
+            while (patchCount < MAX_PATCHES && (diffPath = readHeader(listFile, FilterPatch.DIFF_PATH_HEADER)) != null) {
+                String name = StringUtils.trimToNull(StringUtils.substringAfter(diffPath, "#"));
+                String patchUrl;
+                try {
+                    patchUrl = new URL(new URL(filterUrl), StringUtils.substringBefore(diffPath, "#")).toString();
+                } catch (MalformedURLException ex) {
+                    LOG.warn("Invalid diff path {} of {}", diffPath, filterUrl);
+                    return false;
+                }
+
+                String response;
+                try {
+                    LOG.info("Sending request to {}", patchUrl);
+                    response = downloadString(patchUrl);
+                } catch (IOException ex) {
+                    // The patch is created only when the list is changed
+                    LOG.info("There is no patch {} for {}", patchUrl, filterUrl);
+                    break;
+                }
+
+                try {
+                    FilterPatch patch = FilterPatch.parse(response, name);
+                    if (!applyPatch(patch, listFile, patchedFile)) {
+                        LOG.warn("Checksum mismatch after applying {} to {}", patchUrl, filterUrl);
+                        return false;
+                    }
+                } catch (IllegalArgumentException ex) {
+                    LOG.warn("Cannot apply {} to {}: {}", patchUrl, filterUrl, ex.getMessage());
+                    return false;
+                }
+                File file = listFile;
+                listFile = patchedFile;
+                patchedFile = file;
+                patchCount++;
+            }
+
+            if (patchCount == 0) {
+                return false;
+            }
+
+            String version = readHeader(listFile, FilterPatch.VERSION_HEADER);
+            if (version == null || new ProductVersion(version).compareTo(expectedVersion) < 0) {
+                LOG.info("{} has been patched to version {} instead of {}", filterUrl, version, expectedVersion);
+                return false;
+            }
+
+            LOG.info("{} has been updated to version {} with {} patches", filterUrl, version, patchCount);
+            // The patched list is read the same way as a downloaded one, so it is kept for the next patch as well
+            RuleLinesReader reader = new RuleLinesReader(writer);
+            InputStream inputStream = new FileInputStream(listFile);
+            try {
+                reader.onResponse(inputStream);
+            } finally {
+                IoUtils.closeQuietly(inputStream);
+            }
+            reader.checksum.verify(filterUrl);
+            return true;
+        } finally {
+            FileUtils.deleteQuietly(listFile);
+            FileUtils.deleteQuietly(patchedFile);
+        }
+    }
+
+    /**
+     * Applies the patch to the list file
+     *
+     * @param patch       Patch
+     * @param listFile    Current list
+     * @param patchedFile File to write the patched list to
+     * @return true if the patched list matches the checksum of the patch
+     */
+    private static boolean applyPatch(FilterPatch patch, File listFile, File patchedFile) throws IOException {
+        InputStream inputStream = null;
+        OutputStream outputStream = null;
+        try {
+            inputStream = new FileInputStream(listFile);
+            outputStream = new BufferedOutputStream(new FileOutputStream(patchedFile));
+            boolean verified = patch.apply(inputStream, outputStream);
+            outputStream.flush();
+            return verified;
+        } finally {
+            IoUtils.closeQuietly(inputStream);
+            IoUtils.closeQuietly(outputStream);
         }
+    }
 
-        return filterRules;
+    private static String readHeader(File listFile, String header) throws IOException {
+        InputStream inputStream = new FileInputStream(listFile);
+        try {
+            return FilterPatch.getHeader(inputStream, header);
+        } finally {
+            IoUtils.closeQuietly(inputStream);
+        }
+    }
+
+    /**
+     * Gets the URL of the filter rules
+     *
+     * @param filterId Filter id
+     * @return Download url
+     */
+    public static String getFilterUrl(int filterId) {
+        String downloadUrl = AppLink.FilterApi.getFilterUrl();
+        return downloadUrl.replace("{0}", UrlUtils.urlEncode(Integer.toString(filterId)));
     }
 
     /**
      * Downloads filter versions.
+     * The response is kept in the cache, so that it is parsed again if the server responds with 304 Not Modified.
      *
-     * @param filters list
+     * @param filters      list
+     * @param httpCacheDao Cache of the response
      * @return filters list with downloaded versions
      */
-    public static List<FilterList> downloadFilterVersions(List<FilterList> filters) throws IOException {
+    public static List<FilterList> downloadFilterVersions(List<FilterList> filters, HttpCacheDao httpCacheDao) throws IOException {
         String downloadUrl = AppLink.FilterApi.getCheckFilterVersionsUrl();
         LOG.info("Sending request to {}", downloadUrl);
-        String response = downloadString(downloadUrl);
+        HttpCacheEntry cacheEntry = httpCacheDao.selectEntry(downloadUrl);
+        if (cacheEntry != null && cacheEntry.getContent() == null) {
+            cacheEntry = null;
+        }
+
+        ConditionalResponse conditionalResponse = downloadString(downloadUrl, cacheEntry);
+        String response;
+        if (conditionalResponse.isNotModified()) {
+            if (cacheEntry == null) {
+                throw new IOException("Unexpected 304 response for " + downloadUrl);
+            }
+            LOG.info("Filter versions have not been modified");
+            response = cacheEntry.getContent();
+        } else {
+            response = conditionalResponse.getBody();
+        }
         if (StringUtils.isBlank(response)) {
             return null;
         }
@@ -98,8 +294,14 @@ public class ServiceApiClient extends HttpServiceClient {
         Map map = readValue(response, Map.class);
         if (map == null || !map.containsKey("filters")) {
             LOG.error("Filters parse error! Response:\n{}", response);
+            if (conditionalResponse.isNotModified()) {
+                httpCacheDao.deleteEntry(downloadUrl);
+            }
             return null;
         }
+        if (!conditionalResponse.isNotModified()) {
+            updateCacheEntry(httpCacheDao, downloadUrl, conditionalResponse, response);
+        }
 
         ArrayList filterList = (ArrayList) map.get("filters");
         List<FilterList> result = new ArrayList<>(filters.size());
@@ -129,6 +331,127 @@ public class ServiceApiClient extends HttpServiceClient {
 
     }
 
+    /**
+     * Keeps the validators of the response, or drops the stale ones if the server has sent none
+     *
+     * @param httpCacheDao Cache
+     * @param url          Request URL
+     * @param response     Response
+     * @param content      Response body to keep or null
+     */
+    private static void updateCacheEntry(HttpCacheDao httpCacheDao, String url, ConditionalResponse response, String content) {
+        if (response.getEtag() == null && response.getLastModified() == null) {
+            httpCacheDao.deleteEntry(url);
+            return;
+        }
+
+        HttpCacheEntry cacheEntry = new HttpCacheEntry();
+        cacheEntry.setUrl(url);
+        cacheEntry.setEtag(response.getEtag());
+        cacheEntry.setLastModified(response.getLastModified());
+        cacheEntry.setContent(content);
+        httpCacheDao.updateEntry(cacheEntry);
+    }
+
+    /**
+     * Reads the response line by line and passes the trimmed non-empty lines to the writer.
+     * If the list supports patches, its text is passed to the writer as it is.
+     */
+    private static class RuleLinesReader implements UrlUtils.ResponseHandler {
+
+        private static final int READ_BUFFER_SIZE = 8192;
+
+        private final FilterRuleDao.FilterRulesWriter writer;
+        private final FilterChecksum checksum = new FilterChecksum();
+        private int count;
+
+        /**
+         * Lines kept until it is known if the list supports patches, null once it is known
+         */
+        private StringBuilder header = new StringBuilder();
+        private int headerLines;
+        private boolean patchable;
+
+        RuleLinesReader(FilterRuleDao.FilterRulesWriter writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public void onResponse(InputStream inputStream) throws IOException {
+            // Lines are split manually since the checksum depends on whether the last line is terminated
+            Reader reader = new InputStreamReader(inputStream, ENCODING);
+            char[] buffer = new char[READ_BUFFER_SIZE];
+            // Part of the line left from the previous buffer
+            StringBuilder line = new StringBuilder();
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                int start = 0;
+                for (int i = 0; i < read; i++) {
+                    if (buffer[i] != '\n') {
+                        continue;
+                    }
+                    if (line.length() == 0) {
+                        onLine(new String(buffer, start, i - start), true);
+                    } else {
+                        line.append(buffer, start, i - start);
+                        onLine(line.toString(), true);
+                        line.setLength(0);
+                    }
+                    start = i + 1;
+                }
+                line.append(buffer, start, read - start);
+            }
+            if (line.length() > 0) {
+                onLine(line.toString(), false);
+            }
+        }
+
+        /**
+         * @param rawLine    Line as it has been received, without the line feed
+         * @param terminated true if the line is followed by a line feed
+         */
+        private void onLine(String rawLine, boolean terminated) throws IOException {
+            // A slow download is cancelled by interrupting it, the socket read does not react to that
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Download is interrupted");
+            }
+            keepRawLine(rawLine, terminated);
+
+            String line = rawLine.indexOf('\r') < 0 ? rawLine : rawLine.replace("\r", "");
+            checksum.update(line, terminated);
+            String rule = StringUtils.trim(line);
+            if (!StringUtils.isEmpty(rule)) {
+                writer.onRuleText(rule);
+                count++;
+            }
+        }
+
+        private void keepRawLine(String rawLine, boolean terminated) throws IOException {
+            if (patchable) {
+                writer.onRawText(rawLine);
+                if (terminated) {
+                    writer.onRawText(LINE_FEED);
+                }
+                return;
+            }
+            if (header == null) {
+                return;
+            }
+
+            header.append(rawLine);
+            if (terminated) {
+                header.append(LINE_FEED);
+            }
+            if (rawLine.startsWith(FilterPatch.DIFF_PATH_HEADER)) {
+                patchable = true;
+                writer.onRawText(header.toString());
+                header = null;
+            } else if (++headerLines >= FilterPatch.MAX_HEADER_LINES) {
+                header = null;
+            }
+        }
+    }
+
     private static Map readValue(String src, Class<Map> valueType) {
         try {
             return OBJECT_MAPPER.readValue(src, valueType);
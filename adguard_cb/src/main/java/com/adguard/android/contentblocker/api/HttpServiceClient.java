@@ -16,7 +16,10 @@
  */
 package com.adguard.android.contentblocker.api;
 
+import com.adguard.android.contentblocker.commons.web.ConditionalResponse;
 import com.adguard.android.contentblocker.commons.web.UrlUtils;
+import com.adguard.android.contentblocker.model.HttpCacheEntry;
+
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -54,6 +57,54 @@ public class HttpServiceClient {
         return response;
     }
 
+    /**
+     * Downloads string from the specified url if it has been modified since the cached response.
+     *
+     * @param downloadUrl Download url
+     * @param cacheEntry  Cached validators or null to download unconditionally
+     * @return Response, its body is null if not modified
+     */
+    protected static ConditionalResponse downloadString(String downloadUrl, HttpCacheEntry cacheEntry) throws IOException {
+        String etag = cacheEntry == null ? null : cacheEntry.getEtag();
+        String lastModified = cacheEntry == null ? null : cacheEntry.getLastModified();
+        LOG.debug("Sending HTTP GET request to {}, ETag={}, Last-Modified={}", downloadUrl, etag, lastModified);
+
+        final ConditionalResponse response = UrlUtils.downloadString(new URL(downloadUrl), etag, lastModified, READ_TIMEOUT, CONNECTION_TIMEOUT);
+        if (response == null) {
+            throw new IOException("Cannot download " + downloadUrl);
+        }
+
+        if (response.isNotModified()) {
+            LOG.debug("{} has not been modified", downloadUrl);
+            return response;
+        }
+
+        if (StringUtils.isEmpty(response.getBody())) {
+            LOG.error("Response for {} is empty", downloadUrl);
+            throw new IOException("Response is empty.");
+        }
+
+        LOG.debug("Got response:{}", response.getBody());
+        return response;
+    }
+
+    /**
+     * Downloads the specified url if it has been modified since the cached response
+     * and passes the response body to the handler as it is received.
+     *
+     * @param downloadUrl Download url
+     * @param cacheEntry  Cached validators or null to download unconditionally
+     * @param handler     Handler of the response body
+     * @return Response without body
+     */
+    protected static ConditionalResponse download(String downloadUrl, HttpCacheEntry cacheEntry, UrlUtils.ResponseHandler handler) throws IOException {
+        String etag = cacheEntry == null ? null : cacheEntry.getEtag();
+        String lastModified = cacheEntry == null ? null : cacheEntry.getLastModified();
+        LOG.debug("Sending HTTP GET request to {}, ETag={}, Last-Modified={}", downloadUrl, etag, lastModified);
+
+        return UrlUtils.download(new URL(downloadUrl), etag, lastModified, READ_TIMEOUT, CONNECTION_TIMEOUT, handler);
+    }
+
     /**
      * Posts request with specified parameters to url.
      *
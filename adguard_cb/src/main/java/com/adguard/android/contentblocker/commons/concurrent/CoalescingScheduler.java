@@ -0,0 +1,140 @@
+/*
+ This file is part of AdGuard Content Blocker (https://github.com/AdguardTeam/ContentBlocker).
+ Copyright © 2018 AdGuard Content Blocker. All rights reserved.
+
+ AdGuard Content Blocker is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by the
+ Free Software Foundation, either version 3 of the License, or (at your option)
+ any later version.
+
+ AdGuard Content Blocker is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License along with
+ AdGuard Content Blocker.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.adguard.android.contentblocker.commons.concurrent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a task after a burst of requests has settled down.
+ * <p>
+ * Every request postpones the run by the debounce delay. Only one run is in progress
+ * at a time: requests that come in while the task is running are coalesced into a single
+ * follow-up run. Each callback is called after the first run that started after its request.
+ */
+public class CoalescingScheduler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CoalescingScheduler.class);
+
+    private final Object syncRoot = new Object();
+    private final DispatcherTask task;
+    private final long delayMillis;
+    private final ScheduledExecutorService scheduledExecutorService;
+    private final ExecutorService executorService;
+
+    private List<Runnable> pendingCallbacks = new ArrayList<>();
+    private ScheduledFuture<?> scheduledRun;
+    private boolean pending;
+    private boolean running;
+
+    /**
+     * Creates an instance of the scheduler backed by the shared executors
+     *
+     * @param task        Task to run
+     * @param delayMillis Debounce delay in milliseconds
+     */
+    public CoalescingScheduler(DispatcherTask task, long delayMillis) {
+        this(task, delayMillis, ExecutorsPool.getSingleThreadScheduledExecutorService(), ExecutorsPool.getCachedExecutorService());
+    }
+
+    /**
+     * Creates an instance of the scheduler
+     *
+     * @param task                     Task to run
+     * @param delayMillis              Debounce delay in milliseconds
+     * @param scheduledExecutorService Executor that counts down the debounce delay
+     * @param executorService          Executor that runs the task
+     */
+    public CoalescingScheduler(DispatcherTask task, long delayMillis,
+                               ScheduledExecutorService scheduledExecutorService,
+                               ExecutorService executorService) {
+        this.task = task;
+        this.delayMillis = delayMillis;
+        this.scheduledExecutorService = scheduledExecutorService;
+        this.executorService = executorService;
+    }
+
+    /**
+     * Requests the task run
+     *
+     * @param callback Called from a background thread once the run is finished, may be null
+     */
+    public void schedule(Runnable callback) {
+        synchronized (syncRoot) {
+            pending = true;
+            if (callback != null) {
+                pendingCallbacks.add(callback);
+            }
+            if (!running) {
+                reschedule();
+            }
+        }
+    }
+
+    /**
+     * Restarts the debounce countdown. Must be called under the lock.
+     */
+    private void reschedule() {
+        if (scheduledRun != null) {
+            scheduledRun.cancel(false);
+        }
+        scheduledRun = scheduledExecutorService.schedule(() -> executorService.execute(this::run), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void run() {
+        List<Runnable> callbacks;
+        synchronized (syncRoot) {
+            // The countdown may fire after another run has already picked up the request
+            if (running || !pending) {
+                return;
+            }
+            running = true;
+            pending = false;
+            scheduledRun = null;
+            callbacks = pendingCallbacks;
+            pendingCallbacks = new ArrayList<>();
+        }
+
+        try {
+            task.execute();
+        } catch (Exception ex) {
+            LOG.error("Error occurred while processing coalesced task", ex);
+        } finally {
+            synchronized (syncRoot) {
+                running = false;
+                if (pending) {
+                    reschedule();
+                }
+            }
+        }
+
+        for (Runnable callback : callbacks) {
+            try {
+                callback.run();
+            } catch (Exception ex) {
+                LOG.error("Error occurred while notifying about coalesced task", ex);
+            }
+        }
+    }
+}
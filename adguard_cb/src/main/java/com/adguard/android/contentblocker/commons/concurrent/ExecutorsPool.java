@@ -28,6 +28,7 @@ public class ExecutorsPool {
 
     private static ExecutorService cachedExecutorService;
     private static ScheduledExecutorService singleThreadScheduledExecutorService;
+    private static ExecutorService computationExecutorService;
 
     /**
      * @return Standard cached executor service.
@@ -52,4 +53,16 @@ public class ExecutorsPool {
         }
         return singleThreadScheduledExecutorService;
     }
+
+    /**
+     * @return Executor service for CPU and disk bound work that can be split into independent parts.
+     *         Pool size equals to the number of available cores.
+     *         Tasks must not wait for other tasks submitted to this pool.
+     */
+    public static synchronized ExecutorService getComputationExecutorService() {
+        if (computationExecutorService == null) {
+            computationExecutorService = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        }
+        return computationExecutorService;
+    }
 }
@@ -0,0 +1,147 @@
+/*
+ This file is part of AdGuard Content Blocker (https://github.com/AdguardTeam/ContentBlocker).
+ Copyright © 2018 AdGuard Content Blocker. All rights reserved.
+
+ AdGuard Content Blocker is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by the
+ Free Software Foundation, either version 3 of the License, or (at your option)
+ any later version.
+
+ AdGuard Content Blocker is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License along with
+ AdGuard Content Blocker.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.adguard.android.contentblocker.commons.rules;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Verifies the "! Checksum:" header of a filter list while the list is being read.
+ * <p>
+ * The checksum is calculated the same way as the Adblock Plus validateChecksum script does:
+ * carriage returns are dropped, runs of line feeds are collapsed into one, the first checksum line is removed,
+ * and the rest is hashed with MD5 and encoded in base64 without padding.
+ */
+public class FilterChecksum {
+
+    private static final Pattern CHECKSUM_PATTERN = Pattern.compile("^\\s*!\\s*checksum[\\s\\-:]+([\\w+/=]+).*$", Pattern.CASE_INSENSITIVE);
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte[] LINE_FEED = {'\n'};
+    private static final char[] BASE64_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    private final MessageDigest digest;
+    private String expected;
+    private boolean pendingLineFeed;
+
+    public FilterChecksum() {
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Adds the next line of the list
+     *
+     * @param line       Line without the line separator and carriage returns
+     * @param terminated true if the line is followed by a line feed
+     */
+    public void update(String line, boolean terminated) {
+        if (expected == null && terminated) {
+            Matcher matcher = CHECKSUM_PATTERN.matcher(line);
+            if (matcher.matches()) {
+                expected = matcher.group(1);
+                return;
+            }
+        }
+
+        if (!line.isEmpty()) {
+            if (pendingLineFeed) {
+                digest.update(LINE_FEED);
+                pendingLineFeed = false;
+            }
+            digest.update(line.getBytes(UTF_8));
+        }
+        pendingLineFeed |= terminated;
+    }
+
+    /**
+     * Checks the list read so far against its checksum
+     *
+     * @param name Name of the list for the error message
+     * @throws MismatchException If the list has a checksum and it does not match
+     */
+    public void verify(String name) throws MismatchException {
+        if (expected == null) {
+            return;
+        }
+
+        if (pendingLineFeed) {
+            digest.update(LINE_FEED);
+            pendingLineFeed = false;
+        }
+        String actual = encodeBase64(digest.digest());
+        String expectedValue = expected.replaceAll("=+$", "");
+        if (!actual.equals(expectedValue)) {
+            throw new MismatchException("Checksum of " + name + " is " + actual + " instead of " + expectedValue);
+        }
+    }
+
+    /**
+     * Encodes bytes in base64 without padding.
+     * Neither android.util.Base64 nor java.util.Base64 can be used here: the first one is missing from
+     * the JVM the unit tests run on, the second one appeared in API 26 only.
+     *
+     * @param bytes Bytes to encode
+     * @return Base64 string without the trailing "=" characters
+     */
+    static String encodeBase64(byte[] bytes) {
+        StringBuilder sb = new StringBuilder((bytes.length * 4 + 2) / 3);
+        for (int i = 0; i < bytes.length; i += 3) {
+            int remaining = bytes.length - i;
+            int chunk = (bytes[i] & 0xff) << 16;
+            if (remaining > 1) {
+                chunk |= (bytes[i + 1] & 0xff) << 8;
+            }
+            if (remaining > 2) {
+                chunk |= bytes[i + 2] & 0xff;
+            }
+
+            sb.append(BASE64_ALPHABET[(chunk >> 18) & 0x3f]);
+            sb.append(BASE64_ALPHABET[(chunk >> 12) & 0x3f]);
+            if (remaining > 1) {
+                sb.append(BASE64_ALPHABET[(chunk >> 6) & 0x3f]);
+            }
+            if (remaining > 2) {
+                sb.append(BASE64_ALPHABET[chunk & 0x3f]);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return Checksum from the list header or null if there is none so far
+     */
+    public String getExpected() {
+        return expected;
+    }
+
+    /**
+     * Thrown if the list does not match its checksum, so the list is corrupted or truncated
+     */
+    public static class MismatchException extends IOException {
+
+        MismatchException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ This file is part of AdGuard Content Blocker (https://github.com/AdguardTeam/ContentBlocker).
+ Copyright © 2018 AdGuard Content Blocker. All rights reserved.
+
+ AdGuard Content Blocker is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by the
+ Free Software Foundation, either version 3 of the License, or (at your option)
+ any later version.
+
+ AdGuard Content Blocker is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License along with
+ AdGuard Content Blocker.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.adguard.android.contentblocker.commons.rules;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Differential update of a filter list.
+ * <p>
+ * The filter list points to its next patch with the {@link #DIFF_PATH_HEADER} header, the path is relative
+ * to the filter URL and may end with {@code #name} if the patch covers several lists.
+ * The patch is in the RCS format ({@code diff -n}) and starts with the line
+ * {@code diff name:<name> checksum:<sha1> lines:<count>}, where the checksum is calculated over the patched list.
+ * A patch without the checksum is not accepted.
+ * <p>
+ * The line numbers of the commands refer to the list exactly as it has been served,
+ * so the patch is applied to the received text, not to the stored rules.
+ */
+public class FilterPatch {
+
+    public static final String DIFF_PATH_HEADER = "! Diff-Path:";
+    public static final String VERSION_HEADER = "! Version:";
+
+    private static final String DIFF_LINE_PREFIX = "diff ";
+    private static final String NAME_KEY = "name:";
+    private static final String CHECKSUM_KEY = "checksum:";
+    private static final String LINES_KEY = "lines:";
+    private static final char ADD_COMMAND = 'a';
+    private static final char DELETE_COMMAND = 'd';
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * The header is never that long, this limit stops the lookup in the lists without headers
+     */
+    public static final int MAX_HEADER_LINES = 100;
+
+    private static final char LINE_FEED = '\n';
+    private static final int BUFFER_SIZE = 8192;
+    private static final int INITIAL_LINE_SIZE = 256;
+
+    private final String checksum;
+    private final List<String> commands;
+
+    private FilterPatch(String checksum, List<String> commands) {
+        this.checksum = checksum;
+        this.commands = commands;
+    }
+
+    /**
+     * Parses the patch
+     *
+     * @param text Patch text
+     * @param name Name of the list to take the patch for, null if the patch covers the single list
+     * @return Parsed patch
+     * @throws IllegalArgumentException If the patch is malformed or there is no patch for the list
+     */
+    public static FilterPatch parse(String text, String name) {
+        // The added lines are taken as they are, only the diff lines and the commands may end with CR
+        String[] lines = StringUtils.splitPreserveAllTokens(StringUtils.defaultString(text), LINE_FEED);
+        int index = 0;
+        while (index < lines.length) {
+            String line = StringUtils.removeEnd(lines[index++], "\r");
+            if (line.isEmpty()) {
+                continue;
+            }
+            if (!line.startsWith(DIFF_LINE_PREFIX)) {
+                throw new IllegalArgumentException("Unexpected line " + line);
+            }
+
+            String sectionName = getValue(line, NAME_KEY);
+            int count = parseCount(getValue(line, LINES_KEY));
+            if (index + count > lines.length) {
+                throw new IllegalArgumentException("Patch is truncated");
+            }
+            if (name == null || name.equals(sectionName)) {
+                String checksum = getValue(line, CHECKSUM_KEY);
+                if (checksum == null) {
+                    throw new IllegalArgumentException("Patch has no checksum");
+                }
+                List<String> commands = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    commands.add(lines[index + i]);
+                }
+                return new FilterPatch(checksum, commands);
+            }
+            index += count;
+        }
+        throw new IllegalArgumentException("There is no patch for " + name);
+    }
+
+    /**
+     * Applies the patch and checks the patched list against the checksum of the patch.
+     * The patched list ends with a line feed if the current one does.
+     *
+     * @param list   Current list as it has been served
+     * @param output Output for the patched list, it is not closed
+     * @return true if the patched list is the one the patch has been made for
+     * @throws IOException              If the list cannot be read or the patched list cannot be written
+     * @throws IllegalArgumentException If the patch does not fit the list
+     */
+    public boolean apply(InputStream list, OutputStream output) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+
+        LineReader reader = new LineReader(list);
+        LineWriter writer = new LineWriter(new DigestOutputStream(output, digest));
+        // Count of the original lines consumed, the commands refer to the original line numbers
+        int position = 0;
+        int index = 0;
+        while (index < commands.size()) {
+            String command = StringUtils.removeEnd(commands.get(index++), "\r");
+            if (command.length() < 2) {
+                throw new IllegalArgumentException("Unexpected command " + command);
+            }
+            String[] args = StringUtils.split(command.substring(1), ' ');
+            if (args.length != 2) {
+                throw new IllegalArgumentException("Unexpected command " + command);
+            }
+            int line = parseCount(args[0]);
+            int count = parseCount(args[1]);
+
+            if (command.charAt(0) == DELETE_COMMAND) {
+                if (line < 1 || line - 1 < position) {
+                    throw new IllegalArgumentException("Command does not fit the list: " + command);
+                }
+                copyLines(reader, writer, line - 1 - position, command);
+                copyLines(reader, null, count, command);
+                position = line - 1 + count;
+            } else if (command.charAt(0) == ADD_COMMAND) {
+                if (line < position || index + count > commands.size()) {
+                    throw new IllegalArgumentException("Command does not fit the list: " + command);
+                }
+                copyLines(reader, writer, line - position, command);
+                position = line;
+                for (String added : commands.subList(index, index + count)) {
+                    byte[] bytes = added.getBytes(UTF_8);
+                    writer.write(bytes, bytes.length);
+                }
+                index += count;
+            } else {
+                throw new IllegalArgumentException("Unexpected command " + command);
+            }
+        }
+        while (reader.next()) {
+            writer.write(reader.line, reader.length);
+        }
+        writer.finish(reader.terminated);
+
+        byte[] bytes = digest.digest();
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return checksum.equalsIgnoreCase(new String(chars));
+    }
+
+    /**
+     * Copies the lines of the list to the patched list
+     *
+     * @param writer  Patched list or null to skip the lines
+     * @param count   Count of the lines
+     * @param command Command the lines are copied for
+     * @throws IllegalArgumentException If the list ends before
+     */
+    private static void copyLines(LineReader reader, LineWriter writer, int count, String command) throws IOException {
+        for (int i = 0; i < count; i++) {
+            if (!reader.next()) {
+                throw new IllegalArgumentException("Command does not fit the list: " + command);
+            }
+            if (writer != null) {
+                writer.write(reader.line, reader.length);
+            }
+        }
+    }
+
+    /**
+     * Gets the value of the header of the filter list
+     *
+     * @param list   Filter list, it is not closed
+     * @param header Header, e.g. {@link #DIFF_PATH_HEADER}
+     * @return Header value or null if there is no such header
+     * @throws IOException If the list cannot be read
+     */
+    public static String getHeader(InputStream list, String header) throws IOException {
+        LineReader reader = new LineReader(list);
+        for (int i = 0; i < MAX_HEADER_LINES && reader.next(); i++) {
+            String line = new String(reader.line, 0, reader.length, UTF_8);
+            if (line.startsWith(header)) {
+                return StringUtils.trimToNull(line.substring(header.length()));
+            }
+        }
+        return null;
+    }
+
+    private static String getValue(String diffLine, String key) {
+        for (String token : StringUtils.split(diffLine, ' ')) {
+            if (token.startsWith(key)) {
+                return token.substring(key.length());
+            }
+        }
+        return null;
+    }
+
+    private static int parseCount(String value) {
+        if (!StringUtils.isNumeric(value)) {
+            throw new IllegalArgumentException("Unexpected number " + value);
+        }
+        return Integer.parseInt(value);
+    }
+
+    /**
+     * Reads the list line by line, the line feed at the end does not start a new line
+     */
+    private static class LineReader {
+
+        private final InputStream input;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int position;
+        private int limit;
+
+        private byte[] line = new byte[INITIAL_LINE_SIZE];
+        private int length;
+
+        /**
+         * Whether the last line read ends with a line feed
+         */
+        private boolean terminated;
+
+        LineReader(InputStream input) {
+            this.input = input;
+        }
+
+        /**
+         * Reads the next line into {@link #line}
+         *
+         * @return false if the list is over
+         */
+        boolean next() throws IOException {
+            length = 0;
+            boolean read = false;
+            while (true) {
+                if (position == limit) {
+                    limit = Math.max(input.read(buffer), 0);
+                    position = 0;
+                    if (limit == 0) {
+                        return read;
+                    }
+                }
+                read = true;
+
+                int end = position;
+                while (end < limit && buffer[end] != LINE_FEED) {
+                    end++;
+                }
+                append(end - position);
+                terminated = end < limit;
+                position = terminated ? end + 1 : end;
+                if (terminated) {
+                    return true;
+                }
+            }
+        }
+
+        private void append(int count) {
+            if (length + count > line.length) {
+                line = Arrays.copyOf(line, Math.max(line.length * 2, length + count));
+            }
+            System.arraycopy(buffer, position, line, length, count);
+            length += count;
+        }
+    }
+
+    /**
+     * Writes the patched list, the lines are separated with line feeds
+     */
+    private static class LineWriter {
+
+        private final OutputStream output;
+        private boolean empty = true;
+
+        LineWriter(OutputStream output) {
+            this.output = output;
+        }
+
+        void write(byte[] line, int length) throws IOException {
+            if (!empty) {
+                output.write(LINE_FEED);
+            }
+            output.write(line, 0, length);
+            empty = false;
+        }
+
+        /**
+         * @param terminated Whether the current list ends with a line feed
+         */
+        void finish(boolean terminated) throws IOException {
+            if (!empty && terminated) {
+                output.write(LINE_FEED);
+            }
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ This file is part of AdGuard Content Blocker (https://github.com/AdguardTeam/ContentBlocker).
+ Copyright © 2018 AdGuard Content Blocker. All rights reserved.
+
+ AdGuard Content Blocker is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by the
+ Free Software Foundation, either version 3 of the License, or (at your option)
+ any later version.
+
+ AdGuard Content Blocker is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License along with
+ AdGuard Content Blocker.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.adguard.android.contentblocker.commons.rules;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.Arrays;
+
+/**
+ * Finds the type of the rule by its marker ({@code ##}, {@code #@#}, {@code $$} and so on).
+ * <p>
+ * All the markers are searched for at once with an Aho-Corasick automaton,
+ * so the rule text is scanned once whatever the number of markers is.
+ * The marker found first wins: it is the leftmost one, as none of the markers
+ * is contained in the middle of another one.
+ */
+public class RuleClassifier {
+
+    /**
+     * Changes whenever a rule may get another type, so that the rules selected by their types
+     * with the previous version are selected again
+     */
+    public static final int VERSION = 1;
+
+    private static final String COMMENT_PREFIX = "!";
+    private static final String ADBLOCK_META_START = "[Adblock";
+    private static final String EXCEPTION_PREFIX = "@@";
+
+    private static final String[] MARKERS = {
+            "##", "#@#",
+            "#?#", "#@?#",
+            "#$#", "#$?#", "#@$#", "#@$?#",
+            "#%#", "#@%#",
+            "$$", "$@$"
+    };
+    private static final RuleType[] MARKER_TYPES = {
+            RuleType.ELEMHIDE, RuleType.ELEMHIDE_EXCEPTION,
+            RuleType.EXTENDED_CSS, RuleType.EXTENDED_CSS_EXCEPTION,
+            RuleType.CSS_INJECT, RuleType.CSS_INJECT, RuleType.CSS_INJECT_EXCEPTION, RuleType.CSS_INJECT_EXCEPTION,
+            RuleType.SCRIPT, RuleType.SCRIPT_EXCEPTION,
+            RuleType.CONTENT, RuleType.CONTENT_EXCEPTION
+    };
+
+    // Characters the markers consist of, any other character resets the automaton
+    private static final String ALPHABET = "#@$?%";
+    private static final int[] SYMBOLS = new int[128];
+
+    private static final int ROOT = 0;
+    // Transitions of the automaton: state -> symbol -> state
+    private static final int[][] TRANSITIONS;
+    // Index of the marker that ends in the state or -1
+    private static final int[] OUTPUTS;
+
+    static {
+        for (int i = 0; i < SYMBOLS.length; i++) {
+            SYMBOLS[i] = ALPHABET.indexOf(i);
+        }
+
+        int maxStates = 1;
+        for (String marker : MARKERS) {
+            maxStates += marker.length();
+        }
+
+        // Trie of the markers
+        int[][] transitions = new int[maxStates][ALPHABET.length()];
+        int[] outputs = new int[maxStates];
+        int statesCount = 1;
+        for (int[] row : transitions) {
+            Arrays.fill(row, -1);
+        }
+        Arrays.fill(outputs, -1);
+        for (int i = 0; i < MARKERS.length; i++) {
+            int state = ROOT;
+            for (char c : MARKERS[i].toCharArray()) {
+                int symbol = SYMBOLS[c];
+                if (transitions[state][symbol] < 0) {
+                    transitions[state][symbol] = statesCount++;
+                }
+                state = transitions[state][symbol];
+            }
+            outputs[state] = i;
+        }
+
+        // Failure links turned into direct transitions, states are visited breadth-first
+        int[] failures = new int[statesCount];
+        int[] queue = new int[statesCount];
+        int head = 0;
+        int tail = 0;
+        for (int symbol = 0; symbol < ALPHABET.length(); symbol++) {
+            int next = transitions[ROOT][symbol];
+            if (next < 0) {
+                transitions[ROOT][symbol] = ROOT;
+            } else {
+                failures[next] = ROOT;
+                queue[tail++] = next;
+            }
+        }
+        while (head < tail) {
+            int state = queue[head++];
+            if (outputs[state] < 0) {
+                outputs[state] = outputs[failures[state]];
+            }
+            for (int symbol = 0; symbol < ALPHABET.length(); symbol++) {
+                int next = transitions[state][symbol];
+                int fallback = transitions[failures[state]][symbol];
+                if (next < 0) {
+                    transitions[state][symbol] = fallback;
+                } else {
+                    failures[next] = fallback;
+                    queue[tail++] = next;
+                }
+            }
+        }
+
+        TRANSITIONS = Arrays.copyOf(transitions, statesCount);
+        OUTPUTS = Arrays.copyOf(outputs, statesCount);
+    }
+
+    /**
+     * Classifies the rule
+     *
+     * @param rule Rule text
+     * @return Rule type
+     */
+    public static RuleType classify(String rule) {
+        if (StringUtils.isEmpty(rule) || rule.startsWith(COMMENT_PREFIX) || rule.startsWith(ADBLOCK_META_START)) {
+            return RuleType.COMMENT;
+        }
+
+        int marker = findMarker(rule);
+        if (marker >= 0) {
+            return MARKER_TYPES[marker];
+        }
+        return rule.startsWith(EXCEPTION_PREFIX) ? RuleType.NETWORK_EXCEPTION : RuleType.NETWORK;
+    }
+
+    /**
+     * Finds the leftmost marker in the rule
+     *
+     * @param rule Rule text
+     * @return Index of the marker in {@link #MARKERS} or -1 if there is none
+     */
+    private static int findMarker(String rule) {
+        int state = ROOT;
+        int length = rule.length();
+        for (int i = 0; i < length; i++) {
+            char c = rule.charAt(i);
+            int symbol = c < SYMBOLS.length ? SYMBOLS[c] : -1;
+            if (symbol < 0) {
+                state = ROOT;
+                continue;
+            }
+
+            state = TRANSITIONS[state][symbol];
+            if (OUTPUTS[state] >= 0) {
+                return OUTPUTS[state];
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ This file is part of AdGuard Content Blocker (https://github.com/AdguardTeam/ContentBlocker).
+ Copyright © 2018 AdGuard Content Blocker. All rights reserved.
+
+ AdGuard Content Blocker is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by the
+ Free Software Foundation, either version 3 of the License, or (at your option)
+ any later version.
+
+ AdGuard Content Blocker is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License along with
+ AdGuard Content Blocker.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.adguard.android.contentblocker.commons.rules;
+
+import java.io.IOException;
+
+/**
+ * Deduplication engine for large rule sets.
+ * <p>
+ * Instead of the rules themselves it keeps 64-bit rule hashes in an open-addressing
+ * table of primitive longs, along with a reference to the place where the rule was
+ * first seen. When a hash is already in the table the rule is compared with the
+ * referenced one, so a hash collision never drops a rule.
+ *
+ * @param <T> Type of the rule representation
+ */
+public abstract class RuleDeduplicator<T> {
+
+    private static final int DEFAULT_CAPACITY = 1024;
+    private static final float LOAD_FACTOR = 0.6f;
+    private static final long EMPTY = 0L;
+
+    private long[] hashes;
+    private long[] refs;
+    private int size;
+    private int threshold;
+
+    protected RuleDeduplicator() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param expectedSize Expected count of unique rules
+     */
+    protected RuleDeduplicator(int expectedSize) {
+        allocate(tableSizeFor((int) (expectedSize / LOAD_FACTOR) + 1));
+    }
+
+    /**
+     * Adds the rule to the set
+     *
+     * @param rule Rule
+     * @param ref  Reference to the rule (list index, file offset, etc.)
+     *             which is passed to {@link #isSameRule(Object, long)} later
+     * @return true if the rule has not been seen before
+     * @throws IOException If the referenced rule cannot be read
+     */
+    public boolean add(T rule, long ref) throws IOException {
+        return add(rule, hash(rule), ref);
+    }
+
+    /**
+     * Adds the rule with a hash calculated beforehand, e.g. stored along with the rule
+     *
+     * @param rule     Rule
+     * @param ruleHash Hash of the rule, it must be equal to {@link #hash(Object)} of the rule
+     * @param ref      Reference to the rule, see {@link #add(Object, long)}
+     * @return true if the rule has not been seen before
+     * @throws IOException If the referenced rule cannot be read
+     */
+    public boolean add(T rule, long ruleHash, long ref) throws IOException {
+        long hash = normalize(ruleHash);
+        int mask = hashes.length - 1;
+        int slot = (int) hash & mask;
+        while (hashes[slot] != EMPTY) {
+            if (hashes[slot] == hash && isSameRule(rule, refs[slot])) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        hashes[slot] = hash;
+        refs[slot] = ref;
+        if (++size > threshold) {
+            rehash(hashes.length * 2);
+        }
+        return true;
+    }
+
+    /**
+     * @return Count of the unique rules added
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Calculates 64-bit hash of the rule, see {@link RuleHash}
+     *
+     * @param rule Rule
+     * @return Hash value
+     */
+    protected abstract long hash(T rule);
+
+    /**
+     * Compares the rule with the one seen before
+     *
+     * @param rule Rule
+     * @param ref  Reference to the rule seen before
+     * @return true if these are the same rules
+     */
+    protected abstract boolean isSameRule(T rule, long ref) throws IOException;
+
+    private void rehash(int capacity) {
+        long[] oldHashes = hashes;
+        long[] oldRefs = refs;
+        allocate(capacity);
+
+        int mask = capacity - 1;
+        for (int i = 0; i < oldHashes.length; i++) {
+            if (oldHashes[i] != EMPTY) {
+                int slot = (int) oldHashes[i] & mask;
+                while (hashes[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                hashes[slot] = oldHashes[i];
+                refs[slot] = oldRefs[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        hashes = new long[capacity];
+        refs = new long[capacity];
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static long normalize(long hash) {
+        // Zero marks an empty slot
+        return hash == EMPTY ? 1L : hash;
+    }
+
+    private static int tableSizeFor(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        return Math.max(size, 2);
+    }
+}
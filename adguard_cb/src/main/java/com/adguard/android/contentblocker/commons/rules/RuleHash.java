@@ -0,0 +1,95 @@
+/*
+ This file is part of AdGuard Content Blocker (https://github.com/AdguardTeam/ContentBlocker).
+ Copyright © 2018 AdGuard Content Blocker. All rights reserved.
+
+ AdGuard Content Blocker is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by the
+ Free Software Foundation, either version 3 of the License, or (at your option)
+ any later version.
+
+ AdGuard Content Blocker is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License along with
+ AdGuard Content Blocker.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.adguard.android.contentblocker.commons.rules;
+
+/**
+ * 64-bit hash of the rule text.
+ * <p>
+ * The hash is calculated over the UTF-8 bytes of the rule, so the hash of a {@link String}
+ * is always equal to the hash of its encoded bytes and rules read from files can be
+ * hashed without decoding them.
+ */
+public class RuleHash {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * Calculates hash of the rule bytes
+     *
+     * @param bytes  Buffer with the UTF-8 encoded rule
+     * @param offset Rule offset in the buffer
+     * @param length Rule length in bytes
+     * @return Hash value
+     */
+    public static long hash(byte[] bytes, int offset, int length) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = offset; i < offset + length; i++) {
+            hash ^= bytes[i] & 0xff;
+            hash *= FNV_PRIME;
+        }
+        return finish(hash);
+    }
+
+    /**
+     * Calculates hash of the rule text as if it was UTF-8 encoded, without encoding it
+     *
+     * @param rule Rule text
+     * @return Hash value
+     */
+    public static long hash(String rule) {
+        long hash = FNV_OFFSET_BASIS;
+        int length = rule.length();
+        for (int i = 0; i < length; i++) {
+            int c = rule.charAt(i);
+            if (c < 0x80) {
+                hash = update(hash, c);
+            } else if (c < 0x800) {
+                hash = update(hash, 0xc0 | (c >> 6));
+                hash = update(hash, 0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate((char) c) && i + 1 < length && Character.isLowSurrogate(rule.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint((char) c, rule.charAt(++i));
+                hash = update(hash, 0xf0 | (codePoint >> 18));
+                hash = update(hash, 0x80 | ((codePoint >> 12) & 0x3f));
+                hash = update(hash, 0x80 | ((codePoint >> 6) & 0x3f));
+                hash = update(hash, 0x80 | (codePoint & 0x3f));
+            } else if (Character.isSurrogate((char) c)) {
+                // Unpaired surrogate is encoded as '?' by the UTF-8 encoder
+                hash = update(hash, '?');
+            } else {
+                hash = update(hash, 0xe0 | (c >> 12));
+                hash = update(hash, 0x80 | ((c >> 6) & 0x3f));
+                hash = update(hash, 0x80 | (c & 0x3f));
+            }
+        }
+        return finish(hash);
+    }
+
+    private static long update(long hash, int b) {
+        return (hash ^ b) * FNV_PRIME;
+    }
+
+    /**
+     * Final avalanche step, so that the low bits of the hash are well distributed
+     */
+    private static long finish(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
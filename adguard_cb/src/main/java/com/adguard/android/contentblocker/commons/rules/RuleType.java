@@ -0,0 +1,96 @@
+/*
+ This file is part of AdGuard Content Blocker (https://github.com/AdguardTeam/ContentBlocker).
+ Copyright © 2018 AdGuard Content Blocker. All rights reserved.
+
+ AdGuard Content Blocker is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by the
+ Free Software Foundation, either version 3 of the License, or (at your option)
+ any later version.
+
+ AdGuard Content Blocker is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License along with
+ AdGuard Content Blocker.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.adguard.android.contentblocker.commons.rules;
+
+/**
+ * Type of the filter rule, see {@link RuleClassifier}.
+ * <p>
+ * Ordinals are stored in the filter rules files, so new types must be added to the end.
+ */
+public enum RuleType {
+
+    /**
+     * Comments, metadata and empty lines
+     */
+    COMMENT(false, false),
+    NETWORK(false, false),
+    NETWORK_EXCEPTION(false, true),
+    /**
+     * {@code ##}
+     */
+    ELEMHIDE(true, false),
+    /**
+     * {@code #@#}
+     */
+    ELEMHIDE_EXCEPTION(true, true),
+    /**
+     * {@code #?#}
+     */
+    EXTENDED_CSS(true, false),
+    /**
+     * {@code #@?#}
+     */
+    EXTENDED_CSS_EXCEPTION(true, true),
+    /**
+     * {@code #$#} and {@code #$?#}
+     */
+    CSS_INJECT(true, false),
+    /**
+     * {@code #@$#} and {@code #@$?#}
+     */
+    CSS_INJECT_EXCEPTION(true, true),
+    /**
+     * {@code #%#}
+     */
+    SCRIPT(true, false),
+    /**
+     * {@code #@%#}, it is not cosmetic: the script exceptions have always been kept
+     * together with the network rules
+     */
+    SCRIPT_EXCEPTION(false, true),
+    /**
+     * {@code $$}
+     */
+    CONTENT(true, false),
+    /**
+     * {@code $@$}, it is not cosmetic for the same reason as {@link #SCRIPT_EXCEPTION}
+     */
+    CONTENT_EXCEPTION(false, true);
+
+    private final boolean cosmetic;
+    private final boolean exception;
+
+    RuleType(boolean cosmetic, boolean exception) {
+        this.cosmetic = cosmetic;
+        this.exception = exception;
+    }
+
+    /**
+     * @return true for the rules applied to the page content: CSS, JS and content rules,
+     * but not the script and content exceptions
+     */
+    public boolean isCosmetic() {
+        return cosmetic;
+    }
+
+    /**
+     * @return true for the exception rules
+     */
+    public boolean isException() {
+        return exception;
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ This file is part of AdGuard Content Blocker (https://github.com/AdguardTeam/ContentBlocker).
+ Copyright © 2018 AdGuard Content Blocker. All rights reserved.
+
+ AdGuard Content Blocker is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by the
+ Free Software Foundation, either version 3 of the License, or (at your option)
+ any later version.
+
+ AdGuard Content Blocker is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License along with
+ AdGuard Content Blocker.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.adguard.android.contentblocker.commons.rules;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.nio.charset.Charset;
+
+/**
+ * Checks rule texts before they are compiled into the filters file.
+ * <p>
+ * The rule is classified in a single pass over its characters, the validator keeps no state
+ * between the calls, so the instances are shared.
+ */
+public class RuleValidator {
+
+    /**
+     * Changes whenever the validation changes, so that the rules validated by
+     * the previous version are validated again
+     */
+    public static final int VERSION = 2;
+
+    /**
+     * Validator of the user rules: ASCII only (control characters included), no rules shorter than five characters
+     */
+    public static final RuleValidator USER_RULES = new RuleValidator(true, 5);
+
+    /**
+     * Validator of the downloaded filter rules.
+     * Filters are allowed to have non-ASCII selectors and short rules like "/ad/".
+     * <p>
+     * The filter rules used to be compiled as they were downloaded. Now the comments, metadata and obsolete
+     * injection rules are dropped, as the browsers never apply them, and the rest of the rules are kept as they are.
+     */
+    public static final RuleValidator FILTER_RULES = new RuleValidator(false, 1);
+
+    /**
+     * Result of the validation
+     */
+    public enum Reason {
+        VALID,
+        BLANK,
+        TOO_SHORT,
+        COMMENT,
+        METADATA,
+        NON_ASCII,
+        OBSOLETE_INJECTION
+    }
+
+    private static final char COMMENT = '!';
+    private static final String ADBLOCK_META_START = "[Adblock";
+    private static final String MASK_OBSOLETE_INJECTION = "###adg_start_";
+    private static final String[] MASKS_OBSOLETE_INJECTION = {
+            "###adg_start_script_inject",
+            "###adg_start_style_inject"
+    };
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final boolean asciiOnly;
+    private final int minLength;
+
+    /**
+     * Creates an instance of the validator
+     *
+     * @param asciiOnly If true - rules with non-ASCII characters are rejected
+     * @param minLength Minimal length of the rule
+     */
+    public RuleValidator(boolean asciiOnly, int minLength) {
+        this.asciiOnly = asciiOnly;
+        this.minLength = minLength;
+    }
+
+    /**
+     * @param rule Rule text
+     * @return true if the rule can be compiled
+     */
+    public boolean isValid(String rule) {
+        return validate(rule) == Reason.VALID;
+    }
+
+    /**
+     * @param bytes  Buffer with the UTF-8 encoded rule
+     * @param offset Rule offset in the buffer
+     * @param length Rule length in bytes
+     * @return true if the rule can be compiled
+     */
+    public boolean isValid(byte[] bytes, int offset, int length) {
+        return validate(bytes, offset, length) == Reason.VALID;
+    }
+
+    /**
+     * Validates the UTF-8 encoded rule without decoding it.
+     * <p>
+     * ASCII rules are classified over their bytes. Rules with non-ASCII characters
+     * are rare in the filters, they are decoded and validated as {@link String}.
+     *
+     * @param bytes  Buffer with the UTF-8 encoded rule
+     * @param offset Rule offset in the buffer
+     * @param length Rule length in bytes
+     * @return {@link Reason#VALID} or the reason the rule is rejected
+     */
+    public Reason validate(byte[] bytes, int offset, int length) {
+        if (length == 0) {
+            return Reason.BLANK;
+        }
+
+        byte first = bytes[offset];
+        if (first == COMMENT) {
+            return Reason.COMMENT;
+        }
+        if (first == ADBLOCK_META_START.charAt(0) && startsWith(bytes, offset, length, ADBLOCK_META_START)) {
+            return Reason.METADATA;
+        }
+
+        boolean blank = true;
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            byte b = bytes[i];
+            if (b < 0) {
+                return validate(new String(bytes, offset, length, UTF_8));
+            }
+            if (blank && !Character.isWhitespace((char) b)) {
+                blank = false;
+            }
+            if (b == '#' && isObsoleteInjection(bytes, i, end - i)) {
+                return Reason.OBSOLETE_INJECTION;
+            }
+        }
+
+        if (blank) {
+            return Reason.BLANK;
+        }
+        return length < minLength ? Reason.TOO_SHORT : Reason.VALID;
+    }
+
+    /**
+     * Validates the rule
+     *
+     * @param rule Rule text
+     * @return {@link Reason#VALID} or the reason the rule is rejected
+     */
+    public Reason validate(String rule) {
+        int length = rule == null ? 0 : rule.length();
+        if (length == 0) {
+            return Reason.BLANK;
+        }
+
+        char first = rule.charAt(0);
+        if (first == COMMENT) {
+            return Reason.COMMENT;
+        }
+        if (first == ADBLOCK_META_START.charAt(0) && rule.startsWith(ADBLOCK_META_START)) {
+            return Reason.METADATA;
+        }
+
+        // Blank is the same as in StringUtils.isBlank, non-ASCII whitespace included
+        boolean blank = true;
+        for (int i = 0; i < length; i++) {
+            char c = rule.charAt(i);
+            if (blank && !Character.isWhitespace(c)) {
+                blank = false;
+            }
+            if (c > 0x7f && asciiOnly) {
+                return blank && StringUtils.isBlank(rule) ? Reason.BLANK : Reason.NON_ASCII;
+            }
+            if (c == '#' && isObsoleteInjection(rule, i)) {
+                return Reason.OBSOLETE_INJECTION;
+            }
+        }
+
+        if (blank) {
+            return Reason.BLANK;
+        }
+        return length < minLength ? Reason.TOO_SHORT : Reason.VALID;
+    }
+
+    private static boolean isObsoleteInjection(String rule, int offset) {
+        if (!rule.startsWith(MASK_OBSOLETE_INJECTION, offset)) {
+            return false;
+        }
+        for (String mask : MASKS_OBSOLETE_INJECTION) {
+            if (rule.startsWith(mask, offset)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isObsoleteInjection(byte[] bytes, int offset, int length) {
+        if (!startsWith(bytes, offset, length, MASK_OBSOLETE_INJECTION)) {
+            return false;
+        }
+        for (String mask : MASKS_OBSOLETE_INJECTION) {
+            if (startsWith(bytes, offset, length, mask)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean startsWith(byte[] bytes, int offset, int length, String prefix) {
+        if (length < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (bytes[offset + i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
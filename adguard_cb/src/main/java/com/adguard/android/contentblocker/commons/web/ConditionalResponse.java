@@ -0,0 +1,62 @@
+/*
+ This file is part of AdGuard Content Blocker (https://github.com/AdguardTeam/ContentBlocker).
+ Copyright © 2018 AdGuard Content Blocker. All rights reserved.
+
+ AdGuard Content Blocker is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by the
+ Free Software Foundation, either version 3 of the License, or (at your option)
+ any later version.
+
+ AdGuard Content Blocker is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License along with
+ AdGuard Content Blocker.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.adguard.android.contentblocker.commons.web;
+
+/**
+ * Response to a conditional GET request, see {@link UrlUtils#downloadString(java.net.URL, String, String, int, int)}
+ */
+public class ConditionalResponse {
+
+    private final boolean notModified;
+    private final String body;
+    private final String etag;
+    private final String lastModified;
+
+    /**
+     * Creates a response
+     *
+     * @param notModified  true if the server responded with 304 Not Modified
+     * @param body         Response body, null if not modified
+     * @param etag         Value of the ETag header or null
+     * @param lastModified Value of the Last-Modified header or null
+     */
+    public ConditionalResponse(boolean notModified, String body, String etag, String lastModified) {
+        this.notModified = notModified;
+        this.body = body;
+        this.etag = etag;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * @return true if the content has not been modified since the validators were received
+     */
+    public boolean isNotModified() {
+        return notModified;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    public String getLastModified() {
+        return lastModified;
+    }
+}
@@ -48,6 +48,13 @@ public class UrlUtils {
     private final static String USER_AGENT = "Mozilla/5.0 (Macintosh; Intel Mac OS X 10_9_5) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/40.0.2214.85 Safari/537.36";
     private static final int READ_BUFFER_SIZE = 4096;
 
+    /**
+     * Handles the response body, see {@link #download(URL, String, String, int, int, ResponseHandler)}
+     */
+    public interface ResponseHandler {
+        void onResponse(InputStream inputStream) throws IOException;
+    }
+
     /**
      * Tries to url encode specified text (using utf-8 encoding).
      * If something gone wrong -- returns input text as is.
@@ -139,7 +146,130 @@ public class UrlUtils {
 
             CountingInputStream countingInputStream = new CountingInputStream(connection.getInputStream());
             inputStream = countingInputStream;
+            return readString(connection, countingInputStream, encoding, limit);
+        } catch (IOException ex) {
+            if (LOG.isDebugEnabled()) {
+                LOG.warn("Error downloading string from {}:\r\n", url, ex);
+            } else {
+                LOG.warn("Cannot download string from {}: {}", url, ex.getMessage());
+            }
+            // Ignoring exception
+            return null;
+        } finally {
+            IoUtils.closeQuietly(inputStream);
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
 
+    /**
+     * Sends a conditional GET request with the validators received with the previous response.
+     * Returns null if there's an error.
+     *
+     * @param url           url
+     * @param etag          ETag of the previous response or null
+     * @param lastModified  Last-Modified of the previous response or null
+     * @param readTimeout   read timeout
+     * @param socketTimeout connection timeout
+     * @return Response or null
+     */
+    public static ConditionalResponse downloadString(URL url, String etag, String lastModified, int readTimeout, int socketTimeout) {
+        try {
+            final StringBuilderWriter stringBuilderWriter = new StringBuilderWriter();
+            ConditionalResponse response = download(url, etag, lastModified, readTimeout, socketTimeout,
+                    inputStream -> IOUtils.copy(new InputStreamReader(inputStream, "utf-8"), stringBuilderWriter));
+            if (response.isNotModified()) {
+                return response;
+            }
+            return new ConditionalResponse(false, stringBuilderWriter.toString(), response.getEtag(), response.getLastModified());
+        } catch (IOException ex) {
+            if (LOG.isDebugEnabled()) {
+                LOG.warn("Error downloading string from {}:\r\n", url, ex);
+            } else {
+                LOG.warn("Cannot download string from {}: {}", url, ex.getMessage());
+            }
+            // Ignoring exception
+            return null;
+        }
+    }
+
+    /**
+     * Sends a conditional GET request and passes the response body to the handler as it is received,
+     * so that the body is never kept in memory as a whole.
+     *
+     * @param url           url
+     * @param etag          ETag of the previous response or null
+     * @param lastModified  Last-Modified of the previous response or null
+     * @param readTimeout   read timeout
+     * @param socketTimeout connection timeout
+     * @param handler       Handler of the response body, it is not called if the content has not been modified
+     * @return Response without body
+     * @throws IOException If the request failed or the handler failed
+     */
+    public static ConditionalResponse download(URL url, String etag, String lastModified, int readTimeout, int socketTimeout, ResponseHandler handler) throws IOException {
+        HttpURLConnection connection = null;
+        InputStream inputStream = null;
+
+        try {
+            connection = (HttpURLConnection) url.openConnection();
+            connection.setRequestProperty("User-Agent", USER_AGENT);
+            connection.setReadTimeout(readTimeout);
+            connection.setConnectTimeout(socketTimeout);
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+            if (etag != null) {
+                connection.setRequestProperty("If-None-Match", etag);
+            }
+            if (lastModified != null) {
+                connection.setRequestProperty("If-Modified-Since", lastModified);
+            }
+            connection.connect();
+
+            int responseCode = connection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                return new ConditionalResponse(true, null, etag, lastModified);
+            }
+
+            if (responseCode >= 400) {
+                throw new IOException("Response status is " + responseCode);
+            }
+
+            if (responseCode >= 301) {
+                String location = connection.getHeaderField("Location");
+                // HttpURLConnection does not follow redirects from HTTP to HTTPS
+                // So we handle it manually
+                return download(new URL(location), etag, lastModified, readTimeout, socketTimeout, handler);
+            }
+
+            if (responseCode != 204) {
+                inputStream = connection.getInputStream();
+                if ("gzip".equals(connection.getHeaderField("Content-Encoding"))) {
+                    inputStream = new GZIPInputStream(inputStream);
+                }
+                handler.onResponse(inputStream);
+            }
+
+            return new ConditionalResponse(false, null, connection.getHeaderField("ETag"), connection.getHeaderField("Last-Modified"));
+        } finally {
+            IoUtils.closeQuietly(inputStream);
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Reads the response body
+     *
+     * @param connection          Connection
+     * @param countingInputStream Response stream
+     * @param encoding            Response encoding
+     * @param limit               Response size limit in bytes or -1
+     * @return Response body
+     */
+    private static String readString(HttpURLConnection connection, CountingInputStream countingInputStream, String encoding, long limit) throws IOException {
+        InputStream inputStream = countingInputStream;
+        try {
             if ("gzip".equals(connection.getHeaderField("Content-Encoding"))) {
                 inputStream = new GZIPInputStream(inputStream);
             }
@@ -156,19 +286,8 @@ public class UrlUtils {
             }
 
             return stringBuilderWriter.toString();
-        } catch (IOException ex) {
-            if (LOG.isDebugEnabled()) {
-                LOG.warn("Error downloading string from {}:\r\n", url, ex);
-            } else {
-                LOG.warn("Cannot download string from {}: {}", url, ex.getMessage());
-            }
-            // Ignoring exception
-            return null;
         } finally {
             IoUtils.closeQuietly(inputStream);
-            if (connection != null) {
-                connection.disconnect();
-            }
         }
     }
 
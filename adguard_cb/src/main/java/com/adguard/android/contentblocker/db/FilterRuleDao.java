@@ -16,7 +16,9 @@
  */
 package com.adguard.android.contentblocker.db;
 
-import java.util.List;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
 
 /**
  * Data access object for filter rules
@@ -24,20 +26,35 @@ import java.util.List;
 public interface FilterRuleDao {
 
     /**
-     * Selects rules by filter ids list
+     * Reads rules of the single filter one by one, without loading the whole filter into memory
+     * and without decoding the rules into text
      *
-     * @param filterIds Filter ID list
-     * @return List of rules
+     * @param filterId     Filter ID
+     * @param useCosmetics If false - cosmetic rules are skipped
+     * @param handler      Handler to pass the rules to
+     * @throws IOException If filter rules cannot be read or the handler failed
      */
-    List<String> selectRuleTexts(List<Integer> filterIds, boolean useCosmetics);
+    void readRules(int filterId, boolean useCosmetics, RuleHandler handler) throws IOException;
 
     /**
-     * Inserts batch of rules to the specified filter.
+     * Gets a fingerprint of the locally stored filter rules.
+     * Fingerprint is calculated from the rules content, so it changes every time the filter rules are changed
+     * and stays the same when the same rules are written again.
      *
-     * @param filterId Filter to insert rules to
-     * @param rules    Rules to be inserted
+     * @param filterId Filter ID
+     * @return Fingerprint string
      */
-    void setFilterRules(int filterId, List<String> rules);
+    String getFilterRulesFingerprint(int filterId);
+
+    /**
+     * Starts replacing rules of the specified filter without loading them into memory.
+     * The current rules stay in place until the writer is committed.
+     *
+     * @param filterId Filter to replace rules of
+     * @return Writer, it must be closed
+     * @throws IOException If a temporary file cannot be created
+     */
+    FilterRulesWriter openFilterRulesWriter(int filterId) throws IOException;
 
     /**
      * Checks if we have filter rules for this filter locally
@@ -46,4 +63,78 @@ public interface FilterRuleDao {
      * @return True if we do not need to download rules, False otherwise
      */
     boolean hasFilterRules(int filterId);
+
+    /**
+     * Opens the filter list exactly as it has been downloaded, the differential updates are applied to it.
+     * The caller closes the stream.
+     *
+     * @param filterId Filter ID
+     * @return List text or null if it has not been kept
+     * @throws IOException If the text cannot be opened
+     */
+    InputStream openPatchBase(int filterId) throws IOException;
+
+    /**
+     * Listens for the filter files that cannot be read and are replaced with the default rules
+     */
+    interface DefaultRulesListener {
+
+        /**
+         * Called when the downloaded rules of the filter are replaced with the default ones,
+         * so the filter must be downloaded again whatever version it has been updated to
+         *
+         * @param filterId Filter ID
+         */
+        void onDefaultRulesRestored(int filterId);
+    }
+
+    /**
+     * Handles rules read by {@link #readRules(int, boolean, RuleHandler)}
+     */
+    interface RuleHandler {
+
+        /**
+         * Handles the next rule. The buffer is reused for the next rule, so it must not be kept.
+         *
+         * @param bytes  Buffer with the UTF-8 encoded rule
+         * @param offset Rule offset in the buffer
+         * @param length Rule length in bytes
+         * @param hash   Stored hash of the rule, see {@link com.adguard.android.contentblocker.commons.rules.RuleHash}
+         * @throws IOException If the rule cannot be handled
+         */
+        void onRule(byte[] bytes, int offset, int length, long hash) throws IOException;
+    }
+
+    /**
+     * Handles rule texts one by one
+     */
+    interface RuleTextHandler {
+        void onRuleText(String ruleText) throws IOException;
+    }
+
+    /**
+     * Writes rules of the filter, see {@link #openFilterRulesWriter(int)}.
+     * Closing the writer without commit discards the written rules.
+     */
+    interface FilterRulesWriter extends RuleTextHandler, Closeable {
+
+        /**
+         * Appends the text of the list as it has been downloaded, see {@link #openPatchBase(int)}.
+         * If it is never called, the text kept for the previous rules is dropped on commit.
+         *
+         * @param text Next part of the list text
+         * @throws IOException If the text cannot be written
+         */
+        void onRawText(String text) throws IOException;
+
+        /**
+         * Replaces the filter rules with the written ones
+         *
+         * @throws IOException If the filter file cannot be replaced
+         */
+        void commit() throws IOException;
+
+        @Override
+        void close();
+    }
 }
@@ -19,182 +19,325 @@ package com.adguard.android.contentblocker.db;
 import android.content.Context;
 import android.content.res.Resources;
 
-import androidx.annotation.Nullable;
+import com.adguard.android.contentblocker.commons.io.IoUtils;
 
-import org.apache.commons.collections4.list.SetUniqueList;
 import org.apache.commons.io.IOUtils;
-import org.apache.commons.lang3.ArrayUtils;
-import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
- * Filter rules dao implementation using android internal storage
+ * Filter rules dao implementation using android internal storage.
+ * Rules of every filter are kept in a memory-mapped binary file, see {@link FilterRulesFile}.
+ * <p>
+ * Filters are not stored in a shared pool of unique rules: the bundled filters share only
+ * about 1% of their rules pairwise and 6% all together, which is not worth rewriting the pool
+ * on every filter update. The rules shared by the enabled filters are dropped by the filters compiler.
  */
 public class FilterRuleDaoImpl implements FilterRuleDao {
 
     private final Logger log = LoggerFactory.getLogger(FilterRuleDaoImpl.class);
     private final Context context;
+    private final DefaultRulesListener defaultRulesListener;
 
-    private static final String MASK_CSS_RULE = "##";
-    private static final String MASK_CSS_EXCEPTION_RULE = "#@#";
-    private static final String MASK_CSS_INJECT_RULE = "#$#";
-    private static final String MASK_CSS_INJECT_EXCEPTION_RULE = "#@$#";
-    private static final String MASK_SCRIPT_RULE = "#%#";
-    private static final String MASK_CONTENT_RULE = "$$";
+    private static final String FILE_NAME_PREFIX = "filter_";
+    private static final String BINARY_EXTENSION = ".bin";
+    private static final String ENCODING = "UTF-8";
+    private static final String TEMP_EXTENSION = ".tmp";
+    private static final String DATA_EXTENSION = ".data";
+    private static final String PATCH_BASE_EXTENSION = ".base.gz";
 
     /**
      * Creates an instance of the filter rules internal storage
      *
-     * @param context Current context
+     * @param context              Current context
+     * @param defaultRulesListener Listener of the filter files replaced with the default rules
      */
-    public FilterRuleDaoImpl(Context context) {
+    public FilterRuleDaoImpl(Context context, DefaultRulesListener defaultRulesListener) {
         this.context = context;
+        this.defaultRulesListener = defaultRulesListener;
     }
 
     @Override
-    public List<String> selectRuleTexts(List<Integer> filterIds, boolean useCosmetics) {
-        List<String> rules = SetUniqueList.setUniqueList(new ArrayList<>());
-
-        for (int filterId : filterIds) {
-            List<String> list = getRules(filterId, useCosmetics);
-            if (list != null) {
-                rules.addAll(list);
+    public void readRules(int filterId, boolean useCosmetics, RuleHandler handler) throws IOException {
+        FilterRulesFile file = null;
+        try {
+            file = openFilterFile(filterId);
+            for (int i = 0; i < file.getCount(); i++) {
+                if (isSelected(file, i, useCosmetics)) {
+                    int length = file.readRule(i);
+                    handler.onRule(file.getRuleBuffer(), 0, length, file.getHash(i));
+                }
             }
+        } finally {
+            IoUtils.closeQuietly(file);
         }
-
-        return rules;
     }
 
     @Override
-    public void setFilterRules(int filterId, List<String> rules) {
+    public String getFilterRulesFingerprint(int filterId) {
+        FilterRulesFile file = null;
         try {
-            String fileName = getOrCreateFilterFile(filterId);
-            context.deleteFile(fileName);
-            OutputStream outputStream = context.getApplicationContext().openFileOutput(fileName, Context.MODE_PRIVATE);
-
-            IOUtils.writeLines(rules, null, outputStream, "UTF-8");
+            file = openFilterFile(filterId);
+            return filterId + ":" + file.getCount() + ":" + Long.toHexString(file.getContentHash());
         } catch (Exception ex) {
-            log.error("Cannot insert new rules to filter {}:\r\n{}", filterId, ex);
-            throw new RuntimeException("Cannot insert new rules to filter " + filterId, ex);
+            log.error("Cannot get fingerprint of filter {}", filterId, ex);
+            throw new RuntimeException("Cannot get fingerprint of filter " + filterId, ex);
+        } finally {
+            IoUtils.closeQuietly(file);
         }
     }
 
+    @Override
+    public FilterRulesWriter openFilterRulesWriter(int filterId) throws IOException {
+        return new FileRulesWriter(getFileName(filterId));
+    }
+
     @Override
     public boolean hasFilterRules(int filterId) {
-        String filterName = "filter_" + filterId;
+        return getFile(getFileName(filterId)).exists() || getFile(getLegacyFileName(filterId)).exists();
+    }
+
+    @Override
+    public InputStream openPatchBase(int filterId) throws IOException {
+        File file = getFile(getPatchBaseFileName(getFileName(filterId)));
+        if (!file.exists()) {
+            return null;
+        }
 
-        String[] strings = context.getApplicationContext().fileList();
-        return ArrayUtils.contains(strings, filterName);
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            return new GZIPInputStream(new BufferedInputStream(inputStream));
+        } catch (IOException ex) {
+            IoUtils.closeQuietly(inputStream);
+            throw ex;
+        }
+    }
+
+    private static String getFileName(int filterId) {
+        return FILE_NAME_PREFIX + filterId + BINARY_EXTENSION;
+    }
+
+    /**
+     * @param fileName Filter file name
+     * @return Name of the file with the downloaded text of the filter, it is kept compressed
+     */
+    private static String getPatchBaseFileName(String fileName) {
+        return fileName + PATCH_BASE_EXTENSION;
     }
 
     /**
-     * Gets or creates filter file
-     *
      * @param filterId Filter identifier
-     * @return Filter file name
+     * @return Name of the text file the filter rules were kept in before the binary format,
+     * it is also the name of the raw resource with the default filter rules
      */
-    private String getOrCreateFilterFile(int filterId) throws IOException {
-        String[] files = context.fileList();
-        String fileName = "filter_" + filterId;
+    private static String getLegacyFileName(int filterId) {
+        return FILE_NAME_PREFIX + filterId;
+    }
 
-        if (!ArrayUtils.contains(files, fileName)) {
-            initDefaultFilterRules(fileName);
-        }
+    private File getFile(String fileName) {
+        return context.getApplicationContext().getFileStreamPath(fileName);
+    }
 
-        return fileName;
+    private FilterRulesFile openFilterFile(int filterId) throws IOException {
+        File file = getOrCreateFilterFile(filterId);
+        try {
+            return FilterRulesFile.open(file);
+        } catch (FileNotFoundException ex) {
+            throw ex;
+        } catch (IOException ex) {
+            // Broken or written in an older format, the bundled rules are used until the filter is downloaded again
+            log.warn("Cannot open filter rules file {}, restoring the default rules:\r\n", file.getName(), ex);
+            context.deleteFile(file.getName());
+            context.deleteFile(getPatchBaseFileName(file.getName()));
+            FilterRulesFile rulesFile = FilterRulesFile.open(getOrCreateFilterFile(filterId));
+            defaultRulesListener.onDefaultRulesRestored(filterId);
+            return rulesFile;
+        }
     }
 
     /**
-     * Adds rules from the specified filter to the list
-     *
-     * @param filterId Filter ID
+     * Gets or creates filter file.
+     * The file is created from the text file of the previous versions or from the default filter rules.
      *
-     * @return List of rules
+     * @param filterId Filter identifier
+     * @return Filter file
      */
-    @Nullable
-    private List<String> getRules(int filterId, boolean useCosmetics) {
-        InputStream inputStream = null;
-        InputStreamReader inputStreamReader = null;
-        BufferedReader reader = null;
-
-        List<String> rules = new ArrayList<>();
-        try {
-            String fileName = getOrCreateFilterFile(filterId);
-
-            inputStream = context.getApplicationContext().openFileInput(fileName);
-            inputStreamReader = new InputStreamReader(inputStream);
-            reader = new BufferedReader(inputStreamReader);
+    private File getOrCreateFilterFile(int filterId) throws IOException {
+        File file = getFile(getFileName(filterId));
+        if (file.exists()) {
+            return file;
+        }
 
-            String line = reader.readLine();
-            while (line != null) {
-                if (useCosmetics || !isCosmeticRule(line)) {
-                    rules.add(line);
-                }
-                line = reader.readLine();
-            }
-            return rules;
-        } catch (Exception ex) {
-            log.error("Cannot select rules for filter {}", filterId, ex);
-            return null;
-        } finally {
-            IOUtils.closeQuietly(inputStream);
-            IOUtils.closeQuietly(inputStreamReader);
-            IOUtils.closeQuietly(reader);
+        File legacyFile = getFile(getLegacyFileName(filterId));
+        if (legacyFile.exists()) {
+            log.info("Converting filter rules file {}", legacyFile.getName());
+            saveFilterFile(file.getName(), new FileInputStream(legacyFile));
+            context.deleteFile(legacyFile.getName());
+        } else {
+            initDefaultFilterRules(filterId);
         }
+
+        return file;
     }
 
     /**
-     * Returns true if rule is CSS, JS or Content
-     *
-     * @param ruleText Rule text
-     * @return true if rule is CSS, JS or Content
+     * @return true if the rule should be selected
      */
-    private static boolean isCosmeticRule(String ruleText) {
-        return StringUtils.isEmpty(ruleText) ||
-                ruleText.contains(MASK_CSS_RULE) ||
-                ruleText.contains(MASK_CSS_EXCEPTION_RULE) ||
-                ruleText.contains(MASK_CSS_INJECT_RULE) ||
-                ruleText.contains(MASK_CSS_INJECT_EXCEPTION_RULE) ||
-                ruleText.contains(MASK_SCRIPT_RULE) ||
-                ruleText.contains(MASK_CONTENT_RULE);
+    private static boolean isSelected(FilterRulesFile file, int index, boolean useCosmetics) throws IOException {
+        return useCosmetics || (file.getLength(index) > 0 && !file.getType(index).isCosmetic());
     }
 
     /**
      * Initializes file with default filter rules
      *
-     * @param fileName File name
+     * @param filterId Filter identifier
      */
-    private void initDefaultFilterRules(String fileName) throws IOException {
+    private void initDefaultFilterRules(int filterId) throws IOException {
+        String fileName = getFileName(filterId);
         log.info("Initializing filter rules file {}", fileName);
 
-        InputStream inputStream = null;
-        FileOutputStream outputStream = null;
+        Resources resources = context.getResources();
+        int id = resources.getIdentifier(getLegacyFileName(filterId), "raw", context.getPackageName());
+        if (id > 0) {
+            log.info("Found default filter rules. Writing to the file.");
+            saveFilterFile(fileName, resources.openRawResource(id));
+        }
+        log.info("Default filter has been initialized");
+    }
+
+    /**
+     * Writes the filter file line by line from the text stream
+     *
+     * @param fileName    Filter file name
+     * @param inputStream Filter rules text, it is closed
+     * @throws IOException If the stream cannot be read or the file cannot be written
+     */
+    private void saveFilterFile(String fileName, InputStream inputStream) throws IOException {
+        FileRulesWriter writer = null;
         try {
-            Resources resources = context.getResources();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, ENCODING));
+            writer = new FileRulesWriter(fileName);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                writer.onRuleText(line);
+            }
+            writer.commit();
+        } finally {
+            IoUtils.closeQuietly(writer);
+            IoUtils.closeQuietly(inputStream);
+        }
+    }
+
+    /**
+     * Writes the filter file to a temporary file and swaps it in with a rename on commit,
+     * so the old rules stay readable until the new ones are completely on disk.
+     * The patch base is written and swapped in the same way.
+     */
+    private class FileRulesWriter implements FilterRulesWriter {
 
-            int id = resources.getIdentifier(fileName, "raw", context.getPackageName());
-            if (id > 0) {
-                context.deleteFile(fileName);
-                outputStream = context.getApplicationContext().openFileOutput(fileName, Context.MODE_PRIVATE);
+        private final String fileName;
+        private final FilterRulesFile.Writer writer;
+        private FileOutputStream patchBaseStream;
+        private GZIPOutputStream patchBaseCompressedStream;
+        private Writer patchBaseWriter;
 
-                log.info("Found default filter rules. Writing to the file.");
-                inputStream = resources.openRawResource(id);
-                IOUtils.copy(inputStream, outputStream);
+        FileRulesWriter(String fileName) throws IOException {
+            this.fileName = fileName;
+            this.writer = new FilterRulesFile.Writer(getFile(fileName + DATA_EXTENSION + TEMP_EXTENSION));
+        }
+
+        @Override
+        public void onRuleText(String ruleText) throws IOException {
+            writer.add(ruleText);
+        }
+
+        @Override
+        public void onRawText(String text) throws IOException {
+            if (patchBaseWriter == null) {
+                patchBaseStream = context.getApplicationContext().openFileOutput(getPatchBaseTempFileName(), Context.MODE_PRIVATE);
+                patchBaseCompressedStream = new GZIPOutputStream(patchBaseStream);
+                patchBaseWriter = new BufferedWriter(new OutputStreamWriter(patchBaseCompressedStream, ENCODING));
+            }
+            patchBaseWriter.write(text);
+        }
+
+        @Override
+        public void commit() throws IOException {
+            String tempFileName = fileName + TEMP_EXTENSION;
+
+            FileOutputStream outputStream = null;
+            try {
+                outputStream = context.getApplicationContext().openFileOutput(tempFileName, Context.MODE_PRIVATE);
+                writer.finish(outputStream);
+                outputStream.getFD().sync();
+            } catch (IOException ex) {
+                IOUtils.closeQuietly(outputStream);
+                context.deleteFile(tempFileName);
+                throw ex;
+            } finally {
+                IOUtils.closeQuietly(outputStream);
+            }
+
+            if (!getFile(tempFileName).renameTo(getFile(fileName))) {
+                context.deleteFile(tempFileName);
+                throw new IOException("Cannot replace filter file " + fileName);
+            }
+            commitPatchBase();
+        }
+
+        /**
+         * Replaces the patch base of the old rules with the new one or drops it.
+         * The rules are already in place, so a failure here only makes the next update a full download.
+         */
+        private void commitPatchBase() {
+            String patchBaseFileName = getPatchBaseFileName(fileName);
+            if (patchBaseWriter == null) {
+                context.deleteFile(patchBaseFileName);
+                return;
+            }
+
+            try {
+                patchBaseWriter.flush();
+                patchBaseCompressedStream.finish();
+                patchBaseStream.getFD().sync();
+                patchBaseWriter.close();
+                patchBaseWriter = null;
+                if (!getFile(getPatchBaseTempFileName()).renameTo(getFile(patchBaseFileName))) {
+                    throw new IOException("Cannot rename " + getPatchBaseTempFileName());
+                }
+            } catch (IOException ex) {
+                log.warn("Cannot save patch base of {}:\r\n", fileName, ex);
+                context.deleteFile(patchBaseFileName);
+            }
+        }
+
+        private String getPatchBaseTempFileName() {
+            return getPatchBaseFileName(fileName) + TEMP_EXTENSION;
+        }
+
+        @Override
+        public void close() {
+            writer.close();
+            if (patchBaseStream != null) {
+                IoUtils.closeQuietly(patchBaseWriter);
+                IoUtils.closeQuietly(patchBaseStream);
+                context.deleteFile(getPatchBaseTempFileName());
             }
-            log.info("Default filter has been initialized");
-        } finally {
-            IOUtils.closeQuietly(inputStream);
-            IOUtils.closeQuietly(outputStream);
         }
     }
 }
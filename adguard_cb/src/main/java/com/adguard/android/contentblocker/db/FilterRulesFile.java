@@ -0,0 +1,313 @@
+/*
+ This file is part of AdGuard Content Blocker (https://github.com/AdguardTeam/ContentBlocker).
+ Copyright © 2018 AdGuard Content Blocker. All rights reserved.
+
+ AdGuard Content Blocker is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by the
+ Free Software Foundation, either version 3 of the License, or (at your option)
+ any later version.
+
+ AdGuard Content Blocker is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License along with
+ AdGuard Content Blocker.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.adguard.android.contentblocker.db;
+
+import com.adguard.android.contentblocker.commons.io.IoUtils;
+import com.adguard.android.contentblocker.commons.rules.RuleClassifier;
+import com.adguard.android.contentblocker.commons.rules.RuleHash;
+import com.adguard.android.contentblocker.commons.rules.RuleType;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Binary file with the rules of a single filter.
+ * <p>
+ * The file consists of:
+ * <ul>
+ * <li>header: magic, format version, rules count and length of the rules data</li>
+ * <li>64-bit hash of every rule, see {@link RuleHash}</li>
+ * <li>offsets of the rules in the rules data, rules count + 1 of them</li>
+ * <li>{@link RuleType} of every rule</li>
+ * <li>UTF-8 bytes of the rules without line separators</li>
+ * </ul>
+ * The file is memory-mapped, so hashes and types are accessed by the rule index, and the rules are
+ * compiled from their bytes and hashes without decoding them into text.
+ * <p>
+ * The second version of the format could deflate the rules data. Compressed files are not read anymore,
+ * uncompressed ones differ from the current format only in the header size and are read as is.
+ * <p>
+ * An instance keeps a read buffer, so it must not be shared between threads.
+ */
+class FilterRulesFile implements Closeable {
+
+    private static final int MAGIC = 0x41474652; // AGFR
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int VERSION_2 = 2;
+    private static final int VERSION_2_HEADER_SIZE = 24;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long CONTENT_HASH_BASIS = 0xcbf29ce484222325L;
+    private static final long CONTENT_HASH_PRIME = 0x100000001b3L;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final RuleType[] RULE_TYPES = RuleType.values();
+
+    private final ByteBuffer buffer;
+    private final int count;
+    private final int hashesOffset;
+    private final int offsetsOffset;
+    private final int typesOffset;
+    private final int dataOffset;
+
+    private byte[] ruleBuffer = new byte[256];
+
+    private FilterRulesFile(ByteBuffer buffer, int headerSize, int count) {
+        this.buffer = buffer;
+        this.count = count;
+        this.hashesOffset = headerSize;
+        this.offsetsOffset = hashesOffset + count * 8;
+        this.typesOffset = offsetsOffset + (count + 1) * 4;
+        this.dataOffset = typesOffset + count;
+    }
+
+    /**
+     * Maps the file into memory
+     *
+     * @param file File written by {@link Writer}
+     * @return Rules file
+     * @throws IOException If the file cannot be read or it is not a valid rules file
+     */
+    static FilterRulesFile open(File file) throws IOException {
+        FileInputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(file);
+            FileChannel channel = inputStream.getChannel();
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                throw new IOException("Filter rules file " + file.getName() + " is broken");
+            }
+
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            int version = buffer.getInt(4);
+            int headerSize = HEADER_SIZE;
+            if (version == VERSION_2) {
+                // Blocks size and count follow, they are zeros if the data is not compressed
+                if (size < VERSION_2_HEADER_SIZE || buffer.getInt(16) != 0 || buffer.getInt(20) != 0) {
+                    throw new IOException("Filter rules file " + file.getName() + " is compressed or broken");
+                }
+                headerSize = VERSION_2_HEADER_SIZE;
+            } else if (version != VERSION) {
+                throw new IOException("Filter rules file " + file.getName() + " has unknown version " + version);
+            }
+
+            int count = buffer.getInt(8);
+            int dataLength = buffer.getInt(12);
+            if (buffer.getInt(0) != MAGIC || count < 0 || dataLength < 0 || size != headerSize + count * 13L + 4 + dataLength) {
+                throw new IOException("Filter rules file " + file.getName() + " is broken");
+            }
+            FilterRulesFile rulesFile = new FilterRulesFile(buffer, headerSize, count);
+            for (int i = 0; i < count; i++) {
+                rulesFile.getType(i);
+            }
+            return rulesFile;
+        } finally {
+            IoUtils.closeQuietly(inputStream);
+        }
+    }
+
+    /**
+     * @return Count of the rules
+     */
+    int getCount() {
+        return count;
+    }
+
+    /**
+     * @param index Rule index
+     * @return Rule type
+     * @throws IOException If the stored type is unknown, so the file is broken
+     */
+    RuleType getType(int index) throws IOException {
+        int type = buffer.get(typesOffset + index);
+        if (type < 0 || type >= RULE_TYPES.length) {
+            throw new IOException("Rule " + index + " has unknown type " + type);
+        }
+        return RULE_TYPES[type];
+    }
+
+    /**
+     * @param index Rule index
+     * @return Hash of the rule, see {@link RuleHash#hash(byte[], int, int)}
+     */
+    long getHash(int index) {
+        return buffer.getLong(hashesOffset + index * 8);
+    }
+
+    /**
+     * Calculates the hash of all the rules from their stored hashes, the rules data is not read
+     *
+     * @return Hash of the rules in their order
+     */
+    long getContentHash() {
+        long hash = CONTENT_HASH_BASIS;
+        for (int i = 0; i < count; i++) {
+            hash = (hash ^ getHash(i)) * CONTENT_HASH_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * @param index Rule index
+     * @return Length of the rule in bytes
+     */
+    int getLength(int index) {
+        return getOffset(index + 1) - getOffset(index);
+    }
+
+    /**
+     * Copies the rule bytes to the rule buffer, see {@link #getRuleBuffer()}
+     *
+     * @param index Rule index
+     * @return Length of the rule in bytes
+     */
+    int readRule(int index) {
+        int start = getOffset(index);
+        int length = getOffset(index + 1) - start;
+        if (ruleBuffer.length < length) {
+            ruleBuffer = new byte[Math.max(length, ruleBuffer.length * 2)];
+        }
+        buffer.position(dataOffset + start);
+        buffer.get(ruleBuffer, 0, length);
+        return length;
+    }
+
+    /**
+     * @return Buffer with the UTF-8 bytes of the last rule read by {@link #readRule(int)},
+     * it is reused by the next call
+     */
+    byte[] getRuleBuffer() {
+        return ruleBuffer;
+    }
+
+    @Override
+    public void close() {
+        // Nothing to release, the mapping is released with the buffer
+    }
+
+    private int getOffset(int index) {
+        return buffer.getInt(offsetsOffset + index * 4);
+    }
+
+    /**
+     * Writes the rules in the binary format as they come.
+     * The rules data goes to a temporary data file, only the hashes, offsets and types
+     * are kept in memory until {@link #finish(OutputStream)}.
+     */
+    static class Writer implements Closeable {
+
+        private static final int INITIAL_CAPACITY = 1024;
+
+        private final File dataFile;
+        private OutputStream dataStream;
+
+        private long[] hashes = new long[INITIAL_CAPACITY];
+        private int[] offsets = new int[INITIAL_CAPACITY];
+        private byte[] types = new byte[INITIAL_CAPACITY];
+        private int count;
+        private int dataLength;
+
+        /**
+         * Creates a writer
+         *
+         * @param dataFile Temporary file for the rules data, it is deleted on {@link #close()}
+         * @throws IOException If the data file cannot be created
+         */
+        Writer(File dataFile) throws IOException {
+            this.dataFile = dataFile;
+            this.dataStream = new BufferedOutputStream(new FileOutputStream(dataFile), BUFFER_SIZE);
+        }
+
+        /**
+         * Adds the rule
+         *
+         * @param rule Rule text
+         * @throws IOException If the data file cannot be written
+         */
+        void add(String rule) throws IOException {
+            byte[] bytes = rule.getBytes(UTF_8);
+            if (count + 1 == hashes.length) {
+                hashes = Arrays.copyOf(hashes, hashes.length * 2);
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                types = Arrays.copyOf(types, types.length * 2);
+            }
+            hashes[count] = RuleHash.hash(bytes, 0, bytes.length);
+            offsets[count] = dataLength;
+            types[count] = (byte) RuleClassifier.classify(rule).ordinal();
+            count++;
+            dataLength += bytes.length;
+            dataStream.write(bytes);
+        }
+
+        /**
+         * Writes the complete file
+         *
+         * @param outputStream Stream to write to, it is flushed but not closed
+         * @throws IOException If the data file cannot be read or the stream cannot be written
+         */
+        void finish(OutputStream outputStream) throws IOException {
+            offsets[count] = dataLength;
+            dataStream.close();
+            dataStream = null;
+
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(outputStream, BUFFER_SIZE));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(count);
+            out.writeInt(dataLength);
+            for (int i = 0; i < count; i++) {
+                out.writeLong(hashes[i]);
+            }
+            for (int i = 0; i <= count; i++) {
+                out.writeInt(offsets[i]);
+            }
+            out.write(types, 0, count);
+
+            InputStream inputStream = null;
+            try {
+                inputStream = new FileInputStream(dataFile);
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = inputStream.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            } finally {
+                IoUtils.closeQuietly(inputStream);
+            }
+            out.flush();
+        }
+
+        @Override
+        public void close() {
+            IoUtils.closeQuietly(dataStream);
+            dataStream = null;
+            if (dataFile.exists() && !dataFile.delete()) {
+                dataFile.deleteOnExit();
+            }
+        }
+    }
+}
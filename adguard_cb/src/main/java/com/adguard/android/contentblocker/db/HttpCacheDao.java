@@ -0,0 +1,47 @@
+/*
+ This file is part of AdGuard Content Blocker (https://github.com/AdguardTeam/ContentBlocker).
+ Copyright © 2018 AdGuard Content Blocker. All rights reserved.
+
+ AdGuard Content Blocker is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by the
+ Free Software Foundation, either version 3 of the License, or (at your option)
+ any later version.
+
+ AdGuard Content Blocker is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License along with
+ AdGuard Content Blocker.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.adguard.android.contentblocker.db;
+
+import com.adguard.android.contentblocker.model.HttpCacheEntry;
+
+/**
+ * Data access object for the validators of the HTTP responses
+ */
+public interface HttpCacheDao {
+
+    /**
+     * Selects the cache entry for the URL
+     *
+     * @param url Request URL
+     * @return Cache entry or null
+     */
+    HttpCacheEntry selectEntry(String url);
+
+    /**
+     * Inserts or replaces the cache entry
+     *
+     * @param entry Cache entry
+     */
+    void updateEntry(HttpCacheEntry entry);
+
+    /**
+     * Deletes the cache entry for the URL
+     *
+     * @param url Request URL
+     */
+    void deleteEntry(String url);
+}
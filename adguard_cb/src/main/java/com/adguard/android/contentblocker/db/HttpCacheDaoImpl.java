@@ -0,0 +1,108 @@
+/*
+ This file is part of AdGuard Content Blocker (https://github.com/AdguardTeam/ContentBlocker).
+ Copyright © 2018 AdGuard Content Blocker. All rights reserved.
+
+ AdGuard Content Blocker is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by the
+ Free Software Foundation, either version 3 of the License, or (at your option)
+ any later version.
+
+ AdGuard Content Blocker is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License along with
+ AdGuard Content Blocker.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.adguard.android.contentblocker.db;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.adguard.android.contentblocker.model.HttpCacheEntry;
+
+/**
+ * HTTP cache dao implementation (using db)
+ */
+public class HttpCacheDaoImpl implements HttpCacheDao {
+    private static final String HTTP_CACHE_TABLE = "http_cache";
+    private static final String HTTP_CACHE_URL = "url";
+    private static final String HTTP_CACHE_ETAG = "etag";
+    private static final String HTTP_CACHE_LAST_MODIFIED = "last_modified";
+    private static final String HTTP_CACHE_CONTENT = "content";
+
+    private static final String[] COLUMNS = {
+            HTTP_CACHE_URL,
+            HTTP_CACHE_ETAG,
+            HTTP_CACHE_LAST_MODIFIED,
+            HTTP_CACHE_CONTENT
+    };
+
+    private final DbHelper dbHelper;
+
+    public HttpCacheDaoImpl(DbHelper dbHelper) {
+        this.dbHelper = dbHelper;
+    }
+
+    @Override
+    public HttpCacheEntry selectEntry(String url) {
+        Cursor cursor = null;
+        try {
+            SQLiteDatabase db = dbHelper.getReadableDatabase();
+            cursor = db.query(HTTP_CACHE_TABLE,
+                    COLUMNS,
+                    HTTP_CACHE_URL + "=?",
+                    new String[]{url},
+                    null,
+                    null,
+                    null);
+
+            if (cursor == null || !cursor.moveToFirst()) {
+                return null;
+            }
+
+            HttpCacheEntry entry = new HttpCacheEntry();
+            entry.setUrl(cursor.getString(0));
+            entry.setEtag(cursor.getString(1));
+            entry.setLastModified(cursor.getString(2));
+            entry.setContent(cursor.getString(3));
+            return entry;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    @Override
+    public void updateEntry(HttpCacheEntry entry) {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+
+        ContentValues values = new ContentValues();
+        values.put(HTTP_CACHE_URL, entry.getUrl());
+        values.put(HTTP_CACHE_ETAG, entry.getEtag());
+        values.put(HTTP_CACHE_LAST_MODIFIED, entry.getLastModified());
+        values.put(HTTP_CACHE_CONTENT, entry.getContent());
+
+        try {
+            db.beginTransaction();
+            db.replace(HTTP_CACHE_TABLE, null, values);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @Override
+    public void deleteEntry(String url) {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        try {
+            db.beginTransaction();
+            db.delete(HTTP_CACHE_TABLE, HTTP_CACHE_URL + "=?", new String[]{url});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+}
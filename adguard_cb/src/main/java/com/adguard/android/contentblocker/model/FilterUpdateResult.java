@@ -0,0 +1,59 @@
+/*
+ This file is part of AdGuard Content Blocker (https://github.com/AdguardTeam/ContentBlocker).
+ Copyright © 2018 AdGuard Content Blocker. All rights reserved.
+
+ AdGuard Content Blocker is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by the
+ Free Software Foundation, either version 3 of the License, or (at your option)
+ any later version.
+
+ AdGuard Content Blocker is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License along with
+ AdGuard Content Blocker.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.adguard.android.contentblocker.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Result of the filter updates check.
+ * Every checked filter is either updated, failed or rejected, the filters that are up to date are not listed.
+ */
+public class FilterUpdateResult {
+
+    private final List<FilterList> updated = new ArrayList<>();
+    private final List<FilterList> failed = new ArrayList<>();
+    private final List<FilterList> rejected = new ArrayList<>();
+
+    /**
+     * @return Filters with new rules
+     */
+    public List<FilterList> getUpdated() {
+        return updated;
+    }
+
+    /**
+     * @return Filters which could not be checked or downloaded in time, their previous rules are kept
+     */
+    public List<FilterList> getFailed() {
+        return failed;
+    }
+
+    /**
+     * @return Filters whose downloaded rules do not match the checksum of the list, their previous rules are kept
+     */
+    public List<FilterList> getRejected() {
+        return rejected;
+    }
+
+    /**
+     * @return true if no filter has failed or has been rejected
+     */
+    public boolean isComplete() {
+        return failed.isEmpty() && rejected.isEmpty();
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ This file is part of AdGuard Content Blocker (https://github.com/AdguardTeam/ContentBlocker).
+ Copyright © 2018 AdGuard Content Blocker. All rights reserved.
+
+ AdGuard Content Blocker is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by the
+ Free Software Foundation, either version 3 of the License, or (at your option)
+ any later version.
+
+ AdGuard Content Blocker is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License along with
+ AdGuard Content Blocker.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.adguard.android.contentblocker.model;
+
+/**
+ * Validators of the last response from the URL, they are sent with the next request to it
+ * so that the server can respond with 304 Not Modified
+ */
+public class HttpCacheEntry {
+
+    private String url;
+    private String etag;
+    private String lastModified;
+    private String content;
+
+    /**
+     * @return Request URL
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * @param url Request URL
+     */
+    public void setUrl(String url) {
+        this.url = url;
+    }
+
+    /**
+     * @return Value of the ETag header or null
+     */
+    public String getEtag() {
+        return etag;
+    }
+
+    /**
+     * @param etag Value of the ETag header
+     */
+    public void setEtag(String etag) {
+        this.etag = etag;
+    }
+
+    /**
+     * @return Value of the Last-Modified header or null
+     */
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @param lastModified Value of the Last-Modified header
+     */
+    public void setLastModified(String lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * @return Response body if it is kept along with the validators, otherwise null
+     */
+    public String getContent() {
+        return content;
+    }
+
+    /**
+     * @param content Response body to keep along with the validators
+     */
+    public void setContent(String content) {
+        this.content = content;
+    }
+}
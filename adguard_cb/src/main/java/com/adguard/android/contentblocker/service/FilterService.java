@@ -24,6 +24,10 @@ import android.net.Uri;
 
 import com.adguard.android.contentblocker.commons.BrowserUtils;
 import com.adguard.android.contentblocker.model.FilterList;
+import com.adguard.android.contentblocker.model.FilterUpdateResult;
+import com.adguard.android.contentblocker.service.compiler.CompileProfile;
+import com.adguard.android.contentblocker.service.compiler.CompileStats;
+import com.adguard.android.contentblocker.service.compiler.SnapshotStore;
 
 import java.util.List;
 import java.util.Set;
@@ -43,6 +47,8 @@ public interface FilterService {
      * Try to update the filters.
      * <p>
      * The method is not asynchronous!
+     *
+     * @return false if the check should be retried: it has not been done, or some filters failed or were rejected
      */
     boolean tryUpdateFilters();
 
@@ -74,11 +80,12 @@ public interface FilterService {
     int getFilterRuleCount();
 
     /**
-     * Checks filters updates and returns filters that were updated
+     * Checks filters updates
      *
-     * @return List of filters that were updated
+     * @param force If true - checks all the enabled filters, whatever the update settings are
+     * @return Updated, failed and rejected filters or null if updates are not permitted now
      */
-    List<FilterList> checkFilterUpdates(boolean force);
+    FilterUpdateResult checkFilterUpdates(boolean force);
 
     /**
      * Updates filter status.
@@ -96,11 +103,6 @@ public interface FilterService {
      */
     void importUserRulesFromUrl(Activity activity, String url, boolean overwrite);
 
-    /**
-     * @return list of all enabled rules
-     */
-    List<String> getAllEnabledRules();
-
     /**
      * Is show useful ads filter enabled
      *
@@ -125,6 +127,28 @@ public interface FilterService {
      */
     void applyNewSettings();
 
+    /**
+     * Schedules applying of new settings and filters.
+     * Requests made in a quick succession are coalesced into a single compilation.
+     *
+     * @param onApplied Called from a background thread once the latest settings are applied, may be null
+     */
+    void scheduleApplyNewSettings(Runnable onApplied);
+
+    /**
+     * Gets the store the filters compiled for the browser are published to.
+     * There is a single store for every profile, so the snapshots are published and read under the same lock.
+     *
+     * @param profile Browser profile
+     * @return Snapshot store
+     */
+    SnapshotStore getSnapshotStore(CompileProfile profile);
+
+    /**
+     * @return Stats of the last applies of the settings, the latest first
+     */
+    List<CompileStats> getCompileStats();
+
     /**
      * @return User filter rules
      */
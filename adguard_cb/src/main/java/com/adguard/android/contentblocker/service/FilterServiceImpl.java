@@ -22,25 +22,42 @@ import android.app.ProgressDialog;
 import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
+import android.os.SystemClock;
 
 import com.adguard.android.contentblocker.R;
 import com.adguard.android.contentblocker.ServiceApiClient;
 import com.adguard.android.contentblocker.commons.BrowserUtils;
+import com.adguard.android.contentblocker.commons.ProductVersion;
 import com.adguard.android.contentblocker.commons.StringHelperUtils;
 import com.adguard.android.contentblocker.commons.TextStatistics;
+import com.adguard.android.contentblocker.commons.concurrent.CoalescingScheduler;
 import com.adguard.android.contentblocker.commons.concurrent.DispatcherThreadPool;
+import com.adguard.android.contentblocker.commons.concurrent.ExecutorsPool;
 import com.adguard.android.contentblocker.commons.io.IoUtils;
 import com.adguard.android.contentblocker.commons.network.NetworkUtils;
+import com.adguard.android.contentblocker.commons.rules.FilterChecksum;
 import com.adguard.android.contentblocker.db.DbHelper;
 import com.adguard.android.contentblocker.db.FilterListDao;
 import com.adguard.android.contentblocker.db.FilterListDaoImpl;
 import com.adguard.android.contentblocker.db.FilterRuleDao;
 import com.adguard.android.contentblocker.db.FilterRuleDaoImpl;
+import com.adguard.android.contentblocker.db.HttpCacheDao;
+import com.adguard.android.contentblocker.db.HttpCacheDaoImpl;
 import com.adguard.android.contentblocker.model.FilterList;
+import com.adguard.android.contentblocker.model.FilterUpdateResult;
+import com.adguard.android.contentblocker.service.compiler.CompileProfile;
+import com.adguard.android.contentblocker.service.compiler.CompileStats;
+import com.adguard.android.contentblocker.service.compiler.CompileStatsStore;
+import com.adguard.android.contentblocker.service.compiler.FilterRuleSource;
+import com.adguard.android.contentblocker.service.compiler.FiltersCompiler;
+import com.adguard.android.contentblocker.service.compiler.RuleSource;
+import com.adguard.android.contentblocker.service.compiler.SnapshotStore;
+import com.adguard.android.contentblocker.service.compiler.UserRulesSource;
+import com.adguard.android.contentblocker.service.compiler.WhitelistSource;
+import com.adguard.android.contentblocker.service.compiler.WhitelistWorkaroundSource;
 import com.adguard.android.contentblocker.ui.utils.ProgressDialogUtils;
 
 import org.apache.commons.collections4.CollectionUtils;
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.input.BOMInputStream;
 import org.apache.commons.lang3.StringUtils;
@@ -50,13 +67,21 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static org.apache.commons.io.ByteOrderMark.UTF_16BE;
 import static org.apache.commons.io.ByteOrderMark.UTF_16LE;
@@ -70,22 +95,25 @@ import static org.apache.commons.io.ByteOrderMark.UTF_8;
 public class FilterServiceImpl implements FilterService {
     private static final Logger LOG = LoggerFactory.getLogger(FilterServiceImpl.class);
 
-    private static final int MIN_RULE_LENGTH = 4;
-    private static final String ASCII_SYMBOL = "\\p{ASCII}+";
-    private static final String COMMENT = "!";
-    private static final String ADBLOCK_META_START = "[Adblock";
-    private static final String MASK_OBSOLETE_SCRIPT_INJECTION = "###adg_start_script_inject";
-    private static final String MASK_OBSOLETE_STYLE_INJECTION = "###adg_start_style_inject";
 
     private static final int UPDATE_INVALIDATE_PERIOD = 24 * 60 * 60 * 1000; // 24 hours
 
     private static final String FILTERS_UPDATE_QUEUE = "filters-update-queue";
+    private static final long APPLY_DELAY_MILLIS = 500;
+    private static final int MAX_PARALLEL_DOWNLOADS = 4;
+    private static final long DOWNLOAD_DEADLINE_MILLIS = 2 * 60 * 1000; // 2 minutes
 
     private final Context context;
     private final FilterListDao filterListDao;
     private final FilterRuleDao filterRuleDao;
+    private final HttpCacheDao httpCacheDao;
     private final PreferencesService preferencesService;
     private final NotificationService notificationService;
+    private final FiltersCompiler filtersCompiler;
+    private final Map<CompileProfile, SnapshotStore> snapshotStores = new EnumMap<>(CompileProfile.class);
+    private final CoalescingScheduler applyScheduler;
+    private final CompileStatsStore compileStatsStore;
+    private final Object applySyncRoot = new Object();
 
     private int cachedFilterRuleCount = 0;
 
@@ -98,7 +126,14 @@ public class FilterServiceImpl implements FilterService {
         LOG.info("Creating AdguardService instance for {}", context);
         this.context = context;
         filterListDao = new FilterListDaoImpl(context, dbHelper);
-        filterRuleDao = new FilterRuleDaoImpl(context);
+        filterRuleDao = new FilterRuleDaoImpl(context, this::resetFilterVersion);
+        httpCacheDao = new HttpCacheDaoImpl(dbHelper);
+        filtersCompiler = new FiltersCompiler(context.getFilesDir());
+        for (CompileProfile profile : CompileProfile.values()) {
+            snapshotStores.put(profile, new SnapshotStore(context.getFilesDir(), profile.getFileName()));
+        }
+        applyScheduler = new CoalescingScheduler(this::applyNewSettings, APPLY_DELAY_MILLIS);
+        compileStatsStore = new CompileStatsStore(context.getFilesDir());
 
         this.preferencesService = preferencesService;
         this.notificationService = notificationService;
@@ -138,7 +173,7 @@ public class FilterServiceImpl implements FilterService {
     }
 
     @Override
-    public List<FilterList> checkFilterUpdates(boolean force) {
+    public FilterUpdateResult checkFilterUpdates(boolean force) {
         return checkOutdatedFilterUpdates(force);
     }
 
@@ -155,16 +190,19 @@ public class FilterServiceImpl implements FilterService {
 
     @Override
     public boolean tryUpdateFilters() {
-        List<FilterList> filterLists = checkFilterUpdates(false);
-        if (filterLists == null) {
+        FilterUpdateResult result = checkFilterUpdates(false);
+        if (result == null) {
             return false;
         }
 
-        if (!CollectionUtils.isEmpty(filterLists)) {
+        // The updated filters are applied even if the others are going to be retried
+        if (!result.getUpdated().isEmpty()) {
             applyNewSettings();
         }
         preferencesService.setLastUpdateCheck(System.currentTimeMillis());
-        return true;
+
+        // A corrupted list may be fixed on the server soon, so the rejected filters are retried as well
+        return result.isComplete();
     }
 
     @Override
@@ -182,12 +220,6 @@ public class FilterServiceImpl implements FilterService {
         LOG.info("Submitted import user rules task");
     }
 
-    @Override
-    public List<String> getAllEnabledRules() {
-        List<Integer> filterIds = getEnabledFilterIds();
-        return filterRuleDao.selectRuleTexts(filterIds, true);
-    }
-
     @Override
     public List<Integer> getEnabledFilterIds() {
         List<Integer> filterIds = new ArrayList<>();
@@ -316,41 +348,84 @@ public class FilterServiceImpl implements FilterService {
 
     @Override
     public void applyNewSettings() {
-        List<String> rules = getAllEnabledRules();
+        synchronized (applySyncRoot) {
+            CompileStats stats = CompileStats.start();
+            CompileStats.Timer sourcesTimer = stats.startStage("sources");
+            List<RuleSource> sources = new ArrayList<>();
+            for (int filterId : getEnabledFilterIds()) {
+                sources.add(new FilterRuleSource(filterRuleDao, filterId, true));
+            }
+            sources.add(new UserRulesSource(getUserRulesItems(), preferencesService.getDisabledUserRules()));
+            sources.add(new WhitelistSource(getWhiteListItems(), preferencesService.getDisabledWhitelistRules()));
+            sourcesTimer.stop(sources.size(), sources.size(), 0);
+
+            // Profiles are published independently, so a failed one does not hold back the others
+            boolean published = false;
+            for (CompileProfile profile : CompileProfile.values()) {
+                try {
+                    int filterRuleCount = compileProfile(profile, sources, stats);
+                    if (profile == CompileProfile.GENERIC) {
+                        cachedFilterRuleCount = filterRuleCount;
+                        preferencesService.setFilterRuleCount(filterRuleCount);
+                    }
+                    published = true;
+                } catch (Exception e) {
+                    LOG.warn("Unable to save filters for {} to file:\r\n", profile, e);
+                }
+            }
 
-        List<String> userRules = StringHelperUtils.splitAndTrim(preferencesService.getUserRules(), "\n");
-        Set<String> disabledUserRules = preferencesService.getDisabledUserRules();
-        for (String userRule : userRules) {
-            if (validateRuleText(userRule) && !disabledUserRules.contains(userRule)) {
-                rules.add(userRule);
+            if (published) {
+                LOG.info("Saved {} filters", cachedFilterRuleCount);
+                CompileStats.Timer broadcastTimer = stats.startStage("broadcast");
+                enableContentBlocker(context);
+                broadcastTimer.stop(cachedFilterRuleCount, cachedFilterRuleCount, 0);
             }
-        }
 
-        List<String> whitelistRules = StringHelperUtils.splitAndTrim(preferencesService.getWhitelist(), "\n");
-        Set<String> disabledWhitelistRules = preferencesService.getDisabledWhitelistRules();
-        for (String whitelistRule : whitelistRules) {
-            if (!disabledWhitelistRules.contains(whitelistRule)) {
-                rules.add(createWhiteListRule(whitelistRule));
+            LOG.info("Settings applied in {} ms", stats.getWallMillis());
+            compileStatsStore.add(stats);
+        }
+    }
 
-                /**
-                 * Add these rules, because the Ya Browser does not support the $document modifier
-                 */
-                // TODO Should remove this after the Ya Browser browser add support $document modifier
-                rules.add(String.format("@@http*$domain=%s", whitelistRule));
-                rules.add(String.format("@@||%s^$elemhide", whitelistRule));
-            }
+    /**
+     * Compiles the rule sources for the browser profile and publishes the result
+     *
+     * @param profile Browser profile
+     * @param sources Rule sources common for all the profiles
+     * @param stats   Stats to record the compilation stages to
+     * @return Count of the published rules
+     * @throws IOException If the rules cannot be compiled or published
+     */
+    private int compileProfile(CompileProfile profile, List<RuleSource> sources, CompileStats stats) throws IOException {
+        List<RuleSource> profileSources = sources;
+        if (profile.isWhitelistWorkaroundNeeded()) {
+            profileSources = new ArrayList<>(sources);
+            profileSources.add(new WhitelistWorkaroundSource(getWhiteListItems(), preferencesService.getDisabledWhitelistRules()));
         }
 
-        cachedFilterRuleCount = rules.size();
+        LOG.info("Compiling {} rule sources for {}...", profileSources.size(), profile);
+        SnapshotStore snapshotStore = snapshotStores.get(profile);
+        File compiledFile = snapshotStore.createTempFile();
+        int filterRuleCount = filtersCompiler.compile(profileSources, profile, compiledFile, stats);
+        CompileStats.Timer publishTimer = stats.startStage(profile.getName() + "/publish");
+        long compiledBytes = compiledFile.length();
+        snapshotStore.publish(compiledFile, filterRuleCount);
+        publishTimer.stop(filterRuleCount, filterRuleCount, compiledBytes);
+        return filterRuleCount;
+    }
 
-        try {
-            LOG.info("Saving {} filters...", cachedFilterRuleCount);
-            FileUtils.writeLines(new File(context.getFilesDir().getAbsolutePath() + "/filters.txt"), rules);
-            preferencesService.setFilterRuleCount(cachedFilterRuleCount);
-            enableContentBlocker(context);
-        } catch (IOException e) {
-            LOG.warn("Unable to save filters to file!!!", e);
-        }
+    @Override
+    public SnapshotStore getSnapshotStore(CompileProfile profile) {
+        return snapshotStores.get(profile);
+    }
+
+    @Override
+    public List<CompileStats> getCompileStats() {
+        return compileStatsStore.getAll();
+    }
+
+    @Override
+    public void scheduleApplyNewSettings(Runnable onApplied) {
+        applyScheduler.schedule(onApplied);
     }
 
     @Override
@@ -366,39 +441,13 @@ public class FilterServiceImpl implements FilterService {
         context.sendBroadcast(intent);
     }
 
-    /**
-     * Creates whilelist rule from domain name
-     *
-     * @param domain Domain name
-     * @return Url filter rule text
-     */
-    private String createWhiteListRule(String domain) {
-        return "@@{0}^$document".replace("{0}", domain);
-    }
-
-    /**
-     * Checks the rules of non ascii symbols and control symbols
-     *
-     * @param userRule rule
-     * @return true if correct rule or false
-     */
-    private boolean validateRuleText(String userRule) {
-        return StringUtils.isNotBlank(userRule) &&
-                userRule.matches(ASCII_SYMBOL) &&
-                StringUtils.length(userRule) > MIN_RULE_LENGTH &&
-                !StringUtils.startsWith(userRule, COMMENT) &&
-                !StringUtils.startsWith(userRule, ADBLOCK_META_START) &&
-                !StringUtils.contains(userRule, MASK_OBSOLETE_SCRIPT_INJECTION) &&
-                !StringUtils.contains(userRule, MASK_OBSOLETE_STYLE_INJECTION);
-    }
-
     /**
      * Updates filters without updates for some time.
      *
      * @param force If true - updates not only over wifi
-     * @return List of updated filters or null if something gone wrong
+     * @return Result of the check or null if updates are not permitted now
      */
-    private List<FilterList> checkOutdatedFilterUpdates(boolean force) {
+    private FilterUpdateResult checkOutdatedFilterUpdates(boolean force) {
         if (!force) {
             boolean updateFilters = preferencesService.isAutoUpdateFilters();
             if (!updateFilters) {
@@ -425,21 +474,23 @@ public class FilterServiceImpl implements FilterService {
     }
 
     @SuppressLint("UseSparseArrays")
-    private List<FilterList> checkFilterUpdates(List<FilterList> filters, boolean force) {
+    private FilterUpdateResult checkFilterUpdates(List<FilterList> filters, boolean force) {
         LOG.info("Start checking filters updates for {} outdated filters. Forced={}", filters.size(), force);
 
+        FilterUpdateResult result = new FilterUpdateResult();
         if (CollectionUtils.isEmpty(filters)) {
             LOG.info("Empty filters list, doing nothing");
-            return new ArrayList<>();
+            return result;
         }
 
         preferencesService.setLastUpdateCheck(new Date().getTime());
 
         try {
-            final List<FilterList> updated = ServiceApiClient.downloadFilterVersions(filters);
+            final List<FilterList> updated = ServiceApiClient.downloadFilterVersions(filters, httpCacheDao);
             if (updated == null) {
                 LOG.warn("Cannot download filter updates.");
-                return null;
+                result.getFailed().addAll(filters);
+                return result;
             }
 
             Map<Integer, FilterList> map = new HashMap<>();
@@ -447,45 +498,106 @@ public class FilterServiceImpl implements FilterService {
                 map.put(filter.getFilterId(), filter);
             }
 
+            List<FilterDownload> downloads = new ArrayList<>();
             for (FilterList current : filters) {
                 final int filterId = current.getFilterId();
-                if (!map.containsKey(filterId)) {
+                FilterList update = map.get(filterId);
+                if (update != null && (update.getVersion().compareTo(current.getVersion()) > 0
+                        || !filterRuleDao.hasFilterRules(filterId))) {
+                    downloads.add(new FilterDownload(current, update));
+                } else {
                     current.setLastTimeDownloaded(new Date());
                     updateFilter(current);
-                    continue;
                 }
+            }
 
-                FilterList update = map.get(filterId);
-                if (update.getVersion().compareTo(current.getVersion()) > 0
-                        || !filterRuleDao.hasFilterRules(filterId)) {
+            downloadFilterRules(downloads);
 
-                    current.setVersion(update.getVersion().toString());
+            // The filter is marked as updated only when its rules are saved, the rest are retried with the next check
+            for (FilterDownload download : downloads) {
+                FilterList current = download.filter;
+                DownloadStatus status = download.getStatus();
+                LOG.info("Filter {}: {}", current.getFilterId(), status);
+                if (status == DownloadStatus.UPDATED) {
+                    current.setVersion(download.update.getVersion().toString());
                     current.setLastTimeDownloaded(new Date());
-                    current.setTimeUpdated(update.getTimeUpdated());
-                    map.put(filterId, current);
-
-                    LOG.info("Updating filter:" + current.getFilterId());
+                    current.setTimeUpdated(download.update.getTimeUpdated());
                     updateFilter(current);
-
-                    LOG.info("Updating rules for filter:" + current.getFilterId());
-                    updateFilterRules(filterId);
+                    result.getUpdated().add(current);
+                } else if (status == DownloadStatus.REJECTED) {
+                    result.getRejected().add(current);
                 } else {
-                    map.remove(filterId);
-                    current.setLastTimeDownloaded(new Date());
-                    updateFilter(current);
+                    result.getFailed().add(current);
                 }
             }
 
-            LOG.info("Finished checking filters updates.");
-
-            return new ArrayList<>(map.values());
+            LOG.info("Finished checking filters updates: {} updated, {} failed, {} rejected of {} filters.",
+                    result.getUpdated().size(), result.getFailed().size(), result.getRejected().size(), downloads.size());
+            return result;
         } catch (IOException e) {
             LOG.error("Error checking filter updates:\r\n", e);
         } catch (Exception e) {
             LOG.error("Error parsing server response:\r\n", e);
         }
 
-        return null;
+        // The filters which have not got a status before the error are retried
+        for (FilterList filter : filters) {
+            if (!result.getUpdated().contains(filter) && !result.getFailed().contains(filter)
+                    && !result.getRejected().contains(filter)) {
+                result.getFailed().add(filter);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Downloads the rules of the filters in parallel, at most {@link #MAX_PARALLEL_DOWNLOADS} at a time,
+     * so that a slow mirror does not hold back the rest.
+     * The downloads which are not finished in {@link #DOWNLOAD_DEADLINE_MILLIS} are left for the next check.
+     * <p>
+     * A stalled connection is dropped by the connection and read timeouts of the client, 40 seconds at most,
+     * and a slow one is interrupted between the lines of the response. Either may still be running after
+     * the deadline, so the downloads are closed first: a closed download can neither commit its rules
+     * nor change its status, and the status read here always matches the filter file.
+     *
+     * @param downloads Filters to download, receive the results
+     */
+    private void downloadFilterRules(List<FilterDownload> downloads) {
+        final Queue<FilterDownload> queue = new ConcurrentLinkedQueue<>(downloads);
+        final long deadline = SystemClock.elapsedRealtime() + DOWNLOAD_DEADLINE_MILLIS;
+
+        int workers = Math.min(MAX_PARALLEL_DOWNLOADS, downloads.size());
+        List<Future<?>> futures = new ArrayList<>(workers);
+        for (int i = 0; i < workers; i++) {
+            futures.add(ExecutorsPool.getCachedExecutorService().submit(() -> {
+                FilterDownload download;
+                while (SystemClock.elapsedRealtime() < deadline && (download = queue.poll()) != null) {
+                    download.run();
+                }
+            }));
+        }
+
+        for (Future<?> future : futures) {
+            try {
+                future.get(Math.max(deadline - SystemClock.elapsedRealtime(), 0), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException ex) {
+                LOG.warn("Filter downloads have not finished in {} ms", DOWNLOAD_DEADLINE_MILLIS);
+                break;
+            } catch (ExecutionException ex) {
+                LOG.error("Error downloading filters:\r\n", ex.getCause());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        for (FilterDownload download : downloads) {
+            download.close();
+        }
+        // The rules are not committed anymore, so a running download is interrupted safely
+        for (Future<?> future : futures) {
+            future.cancel(true);
+        }
     }
 
     private List<FilterList> getEnabledFilters() {
@@ -503,15 +615,84 @@ public class FilterServiceImpl implements FilterService {
         return enabledFilters;
     }
 
-    private void updateFilterRules(int filterId) throws IOException {
-        final List<String> rules = ServiceApiClient.downloadFilterRules(filterId);
-        filterRuleDao.setFilterRules(filterId, rules);
+    private void updateFilterRules(FilterDownload download) throws IOException {
+        int filterId = download.filter.getFilterId();
+        ProductVersion version = download.update.getVersion();
+        boolean hasFilterRules = filterRuleDao.hasFilterRules(filterId);
+
+        // The rules go straight to a temporary file which replaces the filter file when the download is complete
+        FilterRuleDao.FilterRulesWriter writer = filterRuleDao.openFilterRulesWriter(filterId);
+        try {
+            if (hasFilterRules && patchFilterRules(filterId, version, writer)) {
+                // The validators of the full list are outdated now
+                httpCacheDao.deleteEntry(ServiceApiClient.getFilterUrl(filterId));
+                download.commit(writer);
+                return;
+            }
+
+            // Not modified response makes sense only if there are rules to keep
+            if (ServiceApiClient.downloadFilterRules(filterId, httpCacheDao, hasFilterRules, writer)) {
+                download.commit(writer);
+            }
+        } catch (IOException | RuntimeException ex) {
+            // The validators must not outlive the rules they were received with
+            httpCacheDao.deleteEntry(ServiceApiClient.getFilterUrl(filterId));
+            throw ex;
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Tries to update the local filter rules with the patches instead of downloading the whole list
+     *
+     * @param filterId Filter id
+     * @param version  New filter version
+     * @param writer   Writer to pass the patched rules to
+     * @return false if a full download is needed
+     * @throws IOException If the patched rules cannot be written
+     */
+    private boolean patchFilterRules(int filterId, ProductVersion version, FilterRuleDao.FilterRulesWriter writer) throws IOException {
+        InputStream patchBase;
+        try {
+            patchBase = filterRuleDao.openPatchBase(filterId);
+        } catch (IOException ex) {
+            LOG.warn("Cannot read patch base of filter {}:\r\n", filterId, ex);
+            return false;
+        }
+        if (patchBase == null) {
+            return false;
+        }
+
+        try {
+            return ServiceApiClient.downloadPatchedFilterRules(filterId, patchBase, context.getCacheDir(), version, writer);
+        } finally {
+            IoUtils.closeQuietly(patchBase);
+        }
     }
 
     private void updateFilter(FilterList current) {
         filterListDao.updateFilter(current);
     }
 
+    /**
+     * Forgets the downloaded version of the filter after its rules are replaced with the default ones,
+     * so the next check downloads the filter again
+     *
+     * @param filterId Filter id
+     */
+    private void resetFilterVersion(int filterId) {
+        LOG.info("Filter {} rules are restored from the defaults, resetting its version", filterId);
+        FilterList filter = filterListDao.selectFilterList(filterId);
+        if (filter != null) {
+            filter.setVersion(null);
+            filter.setLastTimeDownloaded(new Date(0));
+            updateFilter(filter);
+        }
+        // Not modified response must not keep the default rules
+        httpCacheDao.deleteEntry(ServiceApiClient.getFilterUrl(filterId));
+    }
+
     private boolean shouldUpdateOutdatedFilter(FilterList filterList, long timeFromUpdate) {
         if (!filterList.isEnabled()) {
             return false;
@@ -521,6 +702,81 @@ public class FilterServiceImpl implements FilterService {
         return lastTimeDownloaded == null || (lastTimeDownloaded.getTime() - timeFromUpdate < 0);
     }
 
+    /**
+     * Download of the filter rules, runs on a worker thread of {@link #downloadFilterRules(List)}
+     */
+    private class FilterDownload implements Runnable {
+
+        private final FilterList filter;
+        private final FilterList update;
+        private DownloadStatus status = DownloadStatus.TIMED_OUT;
+        private boolean closed;
+
+        FilterDownload(FilterList filter, FilterList update) {
+            this.filter = filter;
+            this.update = update;
+        }
+
+        @Override
+        public void run() {
+            LOG.info("Updating rules for filter:" + filter.getFilterId());
+            try {
+                updateFilterRules(this);
+                setStatus(DownloadStatus.UPDATED);
+            } catch (FilterChecksum.MismatchException ex) {
+                LOG.error("Rejected rules for filter {}: {}", filter.getFilterId(), ex.getMessage());
+                setStatus(DownloadStatus.REJECTED);
+            } catch (Exception ex) {
+                LOG.error("Error updating rules for filter {}:\r\n", filter.getFilterId(), ex);
+                setStatus(DownloadStatus.FAILED);
+            }
+        }
+
+        /**
+         * Replaces the filter rules with the downloaded ones unless the download is closed
+         *
+         * @param writer Writer with the downloaded rules
+         * @throws IOException If the download is closed or the filter file cannot be replaced
+         */
+        synchronized void commit(FilterRuleDao.FilterRulesWriter writer) throws IOException {
+            if (closed) {
+                throw new InterruptedIOException("Download of filter " + filter.getFilterId() + " has timed out");
+            }
+            writer.commit();
+            status = DownloadStatus.UPDATED;
+        }
+
+        /**
+         * Closes the download, its status does not change after that
+         */
+        synchronized void close() {
+            closed = true;
+        }
+
+        synchronized DownloadStatus getStatus() {
+            return status;
+        }
+
+        private synchronized void setStatus(DownloadStatus status) {
+            if (!closed) {
+                this.status = status;
+            }
+        }
+    }
+
+    /**
+     * Result of the {@link FilterDownload}, it stays {@link #TIMED_OUT} if the download is closed before it is finished
+     */
+    private enum DownloadStatus {
+        UPDATED,
+        FAILED,
+        /**
+         * The downloaded rules do not match the checksum of the list, the previous rules are kept
+         */
+        REJECTED,
+        TIMED_OUT
+    }
+
     /**
      * Task for importing user rules
      */
@@ -657,8 +913,9 @@ public class FilterServiceImpl implements FilterService {
 
         @Override
         protected void processTask() {
-            final List<FilterList> filters = checkFilterUpdates(true);
-            if (filters == null) {
+            final FilterUpdateResult result = checkFilterUpdates(true);
+            final List<FilterList> filters = result.getUpdated();
+            if (filters.isEmpty() && !result.isComplete()) {
                 String message = activity.getString(R.string.checkUpdatesErrorResultMessage);
                 notificationService.showToast(message);
                 return;
@@ -676,6 +933,10 @@ public class FilterServiceImpl implements FilterService {
                         .replace("{1}", parseFilterNames(filters));
                 notificationService.showToast(message);
             }
+            if (!result.isComplete()) {
+                // The rest of the filters are updated by the next check
+                notificationService.showToast(activity.getString(R.string.checkUpdatesErrorResultMessage));
+            }
             preferencesService.setLastUpdateCheck(System.currentTimeMillis());
 
             applyNewSettings();
@@ -712,6 +973,7 @@ public class FilterServiceImpl implements FilterService {
                     context.deleteFile(file);
                 }
             }
+            filtersCompiler.invalidate();
 
             checkFilterUpdates(true);
             applyNewSettings();
@@ -0,0 +1,122 @@
+/*
+ This file is part of AdGuard Content Blocker (https://github.com/AdguardTeam/ContentBlocker).
+ Copyright © 2018 AdGuard Content Blocker. All rights reserved.
+
+ AdGuard Content Blocker is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by the
+ Free Software Foundation, either version 3 of the License, or (at your option)
+ any later version.
+
+ AdGuard Content Blocker is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License along with
+ AdGuard Content Blocker.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.adguard.android.contentblocker.service.compiler;
+
+import com.adguard.android.contentblocker.commons.BrowserUtils;
+import com.adguard.android.contentblocker.commons.rules.RuleClassifier;
+import com.adguard.android.contentblocker.commons.rules.RuleType;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.EnumSet;
+
+/**
+ * Browser the filters file is compiled for.
+ * Each browser gets its own file without the rules it cannot apply.
+ */
+public enum CompileProfile {
+
+    /**
+     * Fallback for unknown callers, contains all the rules
+     */
+    GENERIC("generic", "filters.txt", false, true),
+
+    /**
+     * Samsung Internet supports $document, so it does not need the whitelist workaround
+     */
+    SAMSUNG("samsung", "filters_samsung.txt", true, false),
+
+    YANDEX("yandex", "filters_yandex.txt", true, true);
+
+    private static final EnumSet<RuleType> UNSUPPORTED_TYPES = EnumSet.of(RuleType.SCRIPT, RuleType.CONTENT);
+
+    private final String name;
+    private final String fileName;
+    private final boolean dropUnsupportedRules;
+    private final boolean whitelistWorkaroundNeeded;
+
+    CompileProfile(String name, String fileName, boolean dropUnsupportedRules, boolean whitelistWorkaroundNeeded) {
+        this.name = name;
+        this.fileName = fileName;
+        this.dropUnsupportedRules = dropUnsupportedRules;
+        this.whitelistWorkaroundNeeded = whitelistWorkaroundNeeded;
+    }
+
+    /**
+     * @return Profile name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return Name of the compiled filters file
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * @return true if the browser needs the extra whitelist rules, see {@link WhitelistWorkaroundSource}
+     */
+    public boolean isWhitelistWorkaroundNeeded() {
+        return whitelistWorkaroundNeeded;
+    }
+
+    /**
+     * Checks if the browser can apply the rule.
+     * Script and content rules are dropped for the known browsers, as they ignore them anyway.
+     * Their exceptions are kept as they have always been.
+     *
+     * @param rule Rule text
+     * @return true if the rule should be written to the filters file
+     */
+    public boolean isSupported(String rule) {
+        return !dropUnsupportedRules || !UNSUPPORTED_TYPES.contains(RuleClassifier.classify(rule));
+    }
+
+    /**
+     * Finds the profile by its name
+     *
+     * @param name Profile name, the last segment of the content URI
+     * @return Profile or null if there is no such profile
+     */
+    public static CompileProfile fromName(String name) {
+        for (CompileProfile profile : values()) {
+            if (profile.name.equalsIgnoreCase(name) || profile.fileName.equalsIgnoreCase(name)) {
+                return profile;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds the profile for the browser
+     *
+     * @param packageName Browser package name
+     * @return Profile of the browser or {@link #GENERIC} for unknown browsers
+     */
+    public static CompileProfile fromPackage(String packageName) {
+        if (StringUtils.startsWith(packageName, BrowserUtils.SAMSUNG_BROWSER_PACKAGE)) {
+            return SAMSUNG;
+        }
+        if (StringUtils.startsWith(packageName, BrowserUtils.YANDEX_BROWSER_PACKAGE)) {
+            return YANDEX;
+        }
+        return GENERIC;
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ This file is part of AdGuard Content Blocker (https://github.com/AdguardTeam/ContentBlocker).
+ Copyright © 2018 AdGuard Content Blocker. All rights reserved.
+
+ AdGuard Content Blocker is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by the
+ Free Software Foundation, either version 3 of the License, or (at your option)
+ any later version.
+
+ AdGuard Content Blocker is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License along with
+ AdGuard Content Blocker.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.adguard.android.contentblocker.service.compiler;
+
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Timers and counters of a single settings apply: the compilation of every
+ * browser profile, publishing and notifying the browsers.
+ * <p>
+ * Stages may be timed from several threads at once, for instance segments are compiled concurrently.
+ */
+public class CompileStats {
+
+    private long timestamp;
+    private List<Stage> stages = new ArrayList<>();
+    private List<Source> sources = new ArrayList<>();
+
+    /**
+     * Creates empty stats of the apply that starts now
+     */
+    public static CompileStats start() {
+        CompileStats stats = new CompileStats();
+        stats.timestamp = System.currentTimeMillis();
+        return stats;
+    }
+
+    /**
+     * Starts timing a stage
+     *
+     * @param name Stage name
+     * @return Timer to stop when the stage is finished
+     */
+    public Timer startStage(String name) {
+        return new Timer(name);
+    }
+
+    /**
+     * Records rule counts of a rule source
+     *
+     * @param source Source stats
+     */
+    public synchronized void addSource(Source source) {
+        sources.add(source);
+    }
+
+    private synchronized void addStage(Stage stage) {
+        stages.add(stage);
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public synchronized List<Stage> getStages() {
+        return new ArrayList<>(stages);
+    }
+
+    public synchronized List<Source> getSources() {
+        return new ArrayList<>(sources);
+    }
+
+    /**
+     * @return Total wall time of all the stages
+     */
+    public synchronized long getWallMillis() {
+        long wallMillis = 0;
+        for (Stage stage : stages) {
+            wallMillis += stage.wallMillis;
+        }
+        return wallMillis;
+    }
+
+    /**
+     * Measures wall time of the stage and CPU time of the threads working on it
+     */
+    public class Timer {
+
+        private final String name;
+        private final long startWallMillis;
+        private final long startCpuMillis;
+        private long extraCpuMillis;
+
+        private Timer(String name) {
+            this.name = name;
+            this.startWallMillis = SystemClock.elapsedRealtime();
+            this.startCpuMillis = SystemClock.currentThreadTimeMillis();
+        }
+
+        /**
+         * Adds CPU time spent by a worker thread on this stage
+         *
+         * @param cpuMillis Thread CPU time in milliseconds
+         */
+        public synchronized void addCpuMillis(long cpuMillis) {
+            extraCpuMillis += cpuMillis;
+        }
+
+        /**
+         * Stops the timer and records the stage
+         *
+         * @param rulesIn  Count of the rules the stage has read
+         * @param rulesOut Count of the rules the stage has written
+         * @param bytes    Count of the bytes the stage has written
+         */
+        public void stop(int rulesIn, int rulesOut, long bytes) {
+            Stage stage = new Stage();
+            stage.name = name;
+            stage.wallMillis = SystemClock.elapsedRealtime() - startWallMillis;
+            synchronized (this) {
+                stage.cpuMillis = SystemClock.currentThreadTimeMillis() - startCpuMillis + extraCpuMillis;
+            }
+            stage.rulesIn = rulesIn;
+            stage.rulesOut = rulesOut;
+            stage.bytes = bytes;
+            addStage(stage);
+        }
+    }
+
+    /**
+     * Timers and counters of a compilation stage
+     */
+    public static class Stage {
+
+        private String name;
+        private long wallMillis;
+        private long cpuMillis;
+        private int rulesIn;
+        private int rulesOut;
+        private long bytes;
+
+        public String getName() {
+            return name;
+        }
+
+        public long getWallMillis() {
+            return wallMillis;
+        }
+
+        public long getCpuMillis() {
+            return cpuMillis;
+        }
+
+        public int getRulesIn() {
+            return rulesIn;
+        }
+
+        public int getRulesOut() {
+            return rulesOut;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+    }
+
+    /**
+     * Rule counts of a rule source
+     */
+    public static class Source {
+
+        private String key;
+        private boolean recompiled;
+        private int rulesIn;
+        private int rejected;
+        private int rulesOut;
+
+        public Source() {
+        }
+
+        /**
+         * Creates source stats
+         *
+         * @param key        Source key
+         * @param recompiled true if the segment has been recompiled, otherwise the counts come from the cached segment
+         * @param rulesIn    Count of the rules read from the source
+         * @param rejected   Count of the invalid rules rejected by the source, known only if recompiled
+         * @param rulesOut   Count of the rules in the segment
+         */
+        public Source(String key, boolean recompiled, int rulesIn, int rejected, int rulesOut) {
+            this.key = key;
+            this.recompiled = recompiled;
+            this.rulesIn = rulesIn;
+            this.rejected = rejected;
+            this.rulesOut = rulesOut;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public boolean isRecompiled() {
+            return recompiled;
+        }
+
+        public int getRulesIn() {
+            return rulesIn;
+        }
+
+        public int getRejected() {
+            return rejected;
+        }
+
+        public int getRulesOut() {
+            return rulesOut;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ This file is part of AdGuard Content Blocker (https://github.com/AdguardTeam/ContentBlocker).
+ Copyright © 2018 AdGuard Content Blocker. All rights reserved.
+
+ AdGuard Content Blocker is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by the
+ Free Software Foundation, either version 3 of the License, or (at your option)
+ any later version.
+
+ AdGuard Content Blocker is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License along with
+ AdGuard Content Blocker.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.adguard.android.contentblocker.service.compiler;
+
+import org.apache.commons.io.FileUtils;
+import org.codehaus.jackson.annotate.JsonAutoDetect;
+import org.codehaus.jackson.annotate.JsonMethod;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.type.TypeReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the stats of the last compilations in a JSON file
+ */
+public class CompileStatsStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CompileStatsStore.class);
+
+    private static final String STATS_FILE_NAME = "compile_stats.json";
+    private static final int MAX_RECORDS = 20;
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    static {
+        OBJECT_MAPPER.setVisibility(JsonMethod.ALL, JsonAutoDetect.Visibility.NONE);
+        OBJECT_MAPPER.setVisibility(JsonMethod.FIELD, JsonAutoDetect.Visibility.ANY);
+    }
+
+    private final File statsFile;
+
+    /**
+     * Creates an instance of the stats store
+     *
+     * @param filesDir Directory to keep the stats file in
+     */
+    public CompileStatsStore(File filesDir) {
+        this.statsFile = new File(filesDir, STATS_FILE_NAME);
+    }
+
+    /**
+     * Adds the stats of the last compilation, dropping the oldest records
+     *
+     * @param stats Compilation stats
+     */
+    public synchronized void add(CompileStats stats) {
+        List<CompileStats> records = getAll();
+        records.add(0, stats);
+        while (records.size() > MAX_RECORDS) {
+            records.remove(records.size() - 1);
+        }
+
+        File tempFile = new File(statsFile.getPath() + ".tmp");
+        try {
+            OBJECT_MAPPER.writeValue(tempFile, records);
+            if (!tempFile.renameTo(statsFile)) {
+                LOG.warn("Cannot save compilation stats");
+            }
+        } catch (Exception ex) {
+            LOG.warn("Cannot save compilation stats:\r\n", ex);
+            FileUtils.deleteQuietly(tempFile);
+        }
+    }
+
+    /**
+     * @return Stats of the last compilations, the latest first
+     */
+    public synchronized List<CompileStats> getAll() {
+        if (!statsFile.isFile()) {
+            return new ArrayList<>();
+        }
+
+        try {
+            return OBJECT_MAPPER.readValue(statsFile, new TypeReference<List<CompileStats>>() {
+            });
+        } catch (Exception ex) {
+            LOG.warn("Cannot read compilation stats:\r\n", ex);
+            return new ArrayList<>();
+        }
+    }
+}
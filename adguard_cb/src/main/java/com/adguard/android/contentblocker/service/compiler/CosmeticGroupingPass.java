@@ -0,0 +1,178 @@
+/*
+ This file is part of AdGuard Content Blocker (https://github.com/AdguardTeam/ContentBlocker).
+ Copyright © 2018 AdGuard Content Blocker. All rights reserved.
+
+ AdGuard Content Blocker is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by the
+ Free Software Foundation, either version 3 of the License, or (at your option)
+ any later version.
+
+ AdGuard Content Blocker is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License along with
+ AdGuard Content Blocker.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.adguard.android.contentblocker.service.compiler;
+
+import com.adguard.android.contentblocker.commons.rules.RuleClassifier;
+import com.adguard.android.contentblocker.commons.rules.RuleType;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Groups element hiding rules by selector.
+ * <p>
+ * {@code a.com##.banner} and {@code b.com##.banner} become {@code a.com,b.com##.banner}.
+ * The grouped rule is split again into several rules when it gets longer than
+ * {@link RuleOptimizer#MAX_RULE_LENGTH}, and so are the original rules that are too long.
+ * Only rules with positive domain lists are touched: generic rules and rules with
+ * {@code ~domain} exclusions cannot be merged without changing their meaning.
+ */
+class CosmeticGroupingPass implements OptimizationPass {
+
+    private static final String ELEMHIDE_MARKER = "##";
+    private static final String ELEMHIDE_EXCEPTION_MARKER = "#@#";
+    private static final char DOMAINS_SEPARATOR = ',';
+    private static final Pattern POSITIVE_DOMAIN = Pattern.compile("[^~\\s,][^\\s,]*");
+
+    private final Map<String, Group> groups = new HashMap<>();
+    private int removedCount;
+
+    @Override
+    public boolean accepts(String rule) {
+        return findMarker(rule) != null;
+    }
+
+    @Override
+    public String getPartitionKey(String rule) {
+        String marker = findMarker(rule);
+        return getPositiveDomains(rule, marker) == null ? null : getKey(rule, marker);
+    }
+
+    @Override
+    public void scan(String rule) {
+        String marker = findMarker(rule);
+        String[] domains = getPositiveDomains(rule, marker);
+        if (domains == null) {
+            return;
+        }
+
+        String key = getKey(rule, marker);
+        Group group = groups.get(key);
+        if (group == null) {
+            group = new Group(rule, key);
+            groups.put(key, group);
+        }
+        group.rulesCount++;
+        for (String domain : domains) {
+            group.domains.add(domain);
+        }
+    }
+
+    @Override
+    public void prepare() {
+        // Nothing to prepare, the groups are complete after the scan
+    }
+
+    @Override
+    public void rewrite(String rule, RuleSink sink) throws IOException {
+        String marker = findMarker(rule);
+        Group group = getPositiveDomains(rule, marker) == null ? null : groups.get(getKey(rule, marker));
+        if (group == null) {
+            sink.add(rule);
+        } else if (group.firstRule.equals(rule)) {
+            int written = group.write(sink);
+            removedCount += group.rulesCount - written;
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "cosmetic-grouping";
+    }
+
+    @Override
+    public int getRemovedCount() {
+        return removedCount;
+    }
+
+    private static String findMarker(String rule) {
+        RuleType type = RuleClassifier.classify(rule);
+        if (type == RuleType.ELEMHIDE) {
+            return ELEMHIDE_MARKER;
+        } else if (type == RuleType.ELEMHIDE_EXCEPTION) {
+            return ELEMHIDE_EXCEPTION_MARKER;
+        }
+        return null;
+    }
+
+    /**
+     * @param rule   Rule text
+     * @param marker Cosmetic rule marker
+     * @return Domains the rule is limited to or null if the rule is generic or has exclusions
+     */
+    private static String[] getPositiveDomains(String rule, String marker) {
+        String[] domains = StringUtils.split(rule.substring(0, rule.indexOf(marker)), DOMAINS_SEPARATOR);
+        if (domains.length == 0) {
+            return null;
+        }
+        for (String domain : domains) {
+            if (!POSITIVE_DOMAIN.matcher(domain).matches()) {
+                return null;
+            }
+        }
+        return domains;
+    }
+
+    /**
+     * @return Marker with the selector, the part that is the same for all the rules in the group
+     */
+    private static String getKey(String rule, String marker) {
+        return rule.substring(rule.indexOf(marker));
+    }
+
+    private static class Group {
+
+        private final String firstRule;
+        private final String key;
+        private final Set<String> domains = new LinkedHashSet<>();
+        private int rulesCount;
+
+        Group(String firstRule, String key) {
+            this.firstRule = firstRule;
+            this.key = key;
+        }
+
+        /**
+         * Writes the group as few rules as the length limit allows
+         *
+         * @return Count of the rules written
+         */
+        int write(RuleSink sink) throws IOException {
+            int written = 0;
+            StringBuilder sb = new StringBuilder();
+            for (String domain : domains) {
+                if (sb.length() > 0 && sb.length() + 1 + domain.length() + key.length() > RuleOptimizer.MAX_RULE_LENGTH) {
+                    sink.add(sb.append(key).toString());
+                    written++;
+                    sb.setLength(0);
+                }
+                if (sb.length() > 0) {
+                    sb.append(DOMAINS_SEPARATOR);
+                }
+                sb.append(domain);
+            }
+            sink.add(sb.append(key).toString());
+            return written + 1;
+        }
+    }
+}
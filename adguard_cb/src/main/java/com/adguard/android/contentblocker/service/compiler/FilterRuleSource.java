@@ -0,0 +1,71 @@
+/*
+ This file is part of AdGuard Content Blocker (https://github.com/AdguardTeam/ContentBlocker).
+ Copyright © 2018 AdGuard Content Blocker. All rights reserved.
+
+ AdGuard Content Blocker is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by the
+ Free Software Foundation, either version 3 of the License, or (at your option)
+ any later version.
+
+ AdGuard Content Blocker is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License along with
+ AdGuard Content Blocker.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.adguard.android.contentblocker.service.compiler;
+
+import com.adguard.android.contentblocker.commons.rules.RuleClassifier;
+import com.adguard.android.contentblocker.commons.rules.RuleValidator;
+import com.adguard.android.contentblocker.db.FilterRuleDao;
+
+import java.io.IOException;
+
+/**
+ * Rule source backed by the locally stored filter list
+ */
+public class FilterRuleSource implements RuleSource {
+
+    private static final String KEY_PREFIX = "filter_";
+
+    private final FilterRuleDao filterRuleDao;
+    private final int filterId;
+    private final boolean useCosmetics;
+
+    /**
+     * Creates an instance of the filter rule source
+     *
+     * @param filterRuleDao Filter rules dao
+     * @param filterId      Filter ID
+     * @param useCosmetics  If false - cosmetic rules are skipped
+     */
+    public FilterRuleSource(FilterRuleDao filterRuleDao, int filterId, boolean useCosmetics) {
+        this.filterRuleDao = filterRuleDao;
+        this.filterId = filterId;
+        this.useCosmetics = useCosmetics;
+    }
+
+    @Override
+    public String getKey() {
+        return KEY_PREFIX + filterId;
+    }
+
+    @Override
+    public String getFingerprint() {
+        return filterRuleDao.getFilterRulesFingerprint(filterId) + ":" + useCosmetics
+                + ":" + RuleValidator.VERSION + ":" + RuleClassifier.VERSION;
+    }
+
+    @Override
+    public void compile(SegmentSink sink) throws IOException {
+        filterRuleDao.readRules(filterId, useCosmetics, (bytes, offset, length, hash) -> {
+            // Comments and malformed lines of the downloaded filter must not get to the filters file
+            if (RuleValidator.FILTER_RULES.isValid(bytes, offset, length)) {
+                sink.add(bytes, offset, length, hash);
+            } else {
+                sink.reject();
+            }
+        });
+    }
+}
@@ -0,0 +1,599 @@
+/*
+ This file is part of AdGuard Content Blocker (https://github.com/AdguardTeam/ContentBlocker).
+ Copyright © 2018 AdGuard Content Blocker. All rights reserved.
+
+ AdGuard Content Blocker is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by the
+ Free Software Foundation, either version 3 of the License, or (at your option)
+ any later version.
+
+ AdGuard Content Blocker is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License along with
+ AdGuard Content Blocker.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.adguard.android.contentblocker.service.compiler;
+
+import com.adguard.android.contentblocker.commons.concurrent.ExecutorsPool;
+import com.adguard.android.contentblocker.commons.io.IoUtils;
+import com.adguard.android.contentblocker.commons.rules.RuleHash;
+
+import android.os.SystemClock;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Incremental compiler of the filters file.
+ * <p>
+ * Every rule source is compiled into its own segment file. The segment starts with
+ * the fingerprint of the source it was compiled from, so on the next compilation
+ * only the segments of the changed sources are recompiled. The rule lines are followed
+ * by the hashes of the rules, so the filter rules go from their stored bytes and hashes
+ * to the segment and through the deduplication without being decoded or hashed again.
+ * Then all the segments are spliced together without duplicates, and the result is run
+ * through the optimization passes into the output file.
+ * <p>
+ * Rules are streamed from the sources to the segments and from the segments to the
+ * output file one by one. The optimization passes keep in memory only the rules of a single
+ * partition, see {@link RuleOptimizer}.
+ * <p>
+ * If something goes wrong with the cached segments, the compiler falls back to
+ * a full rebuild of all the segments.
+ * <p>
+ * Recently compiled files are kept in {@link SnapshotCache}, so a configuration
+ * that has been compiled recently is restored without compiling.
+ */
+public class FiltersCompiler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FiltersCompiler.class);
+
+    private static final String SEGMENTS_DIR = "segments";
+    private static final String SNAPSHOTS_DIR = "snapshots";
+    // Two configurations for each of the three browser profiles
+    private static final int MAX_CACHED_SNAPSHOTS = 6;
+    private static final String SEGMENT_EXTENSION = ".txt";
+    private static final String TEMP_EXTENSION = ".tmp";
+    private static final String SPLICED_FILE_NAME = "spliced.out";
+    private static final String FINGERPRINT_PREFIX = "! Fingerprint: ";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int FINGERPRINT_BUFFER_SIZE = 1024;
+    private static final byte LINE_FEED = '\n';
+    private static final byte[] FINGERPRINT_PREFIX_BYTES = FINGERPRINT_PREFIX.getBytes(UTF_8);
+    // Length of the rule lines and count of the rules at the end of the segment
+    private static final int TRAILER_SIZE = 12;
+    // Returned by compileSegment if the segment is up to date
+    private static final int NOT_RECOMPILED = -1;
+    // Compilations of a source that changes while it is compiled
+    private static final int MAX_SEGMENT_ATTEMPTS = 3;
+
+    private final File segmentsDir;
+    private final SnapshotCache snapshotCache;
+    private final ExecutorService executorService;
+
+    /**
+     * Creates an instance of the filters compiler
+     *
+     * @param filesDir Directory to keep compiled segments and snapshots in
+     */
+    public FiltersCompiler(File filesDir) {
+        this(filesDir, ExecutorsPool.getComputationExecutorService());
+    }
+
+    /**
+     * Creates an instance of the filters compiler
+     *
+     * @param filesDir        Directory to keep compiled segments and snapshots in
+     * @param executorService Executor service to compile segments with
+     */
+    public FiltersCompiler(File filesDir, ExecutorService executorService) {
+        this.segmentsDir = new File(filesDir, SEGMENTS_DIR);
+        this.snapshotCache = new SnapshotCache(new File(filesDir, SNAPSHOTS_DIR), MAX_CACHED_SNAPSHOTS);
+        this.executorService = executorService;
+    }
+
+    /**
+     * Compiles rule sources into the output file.
+     * Sources that cannot be read are skipped.
+     *
+     * @param sources Rule sources in the order their rules should be written
+     * @param profile Browser to compile the filters for
+     * @param output  Output file, it is synced to disk when the method returns
+     * @return Count of the rules written to the output file
+     * @throws IOException If neither incremental compilation nor full rebuild succeeded
+     */
+    public int compile(List<RuleSource> sources, CompileProfile profile, File output) throws IOException {
+        return compile(sources, profile, output, CompileStats.start());
+    }
+
+    /**
+     * Compiles rule sources into the output file recording the stages timers and counters.
+     * Sources that cannot be read are skipped.
+     *
+     * @param sources Rule sources in the order their rules should be written
+     * @param profile Browser to compile the filters for
+     * @param output  Output file, it is synced to disk when the method returns
+     * @param stats   Stats to record the compilation stages to
+     * @return Count of the rules written to the output file
+     * @throws IOException If neither incremental compilation nor full rebuild succeeded
+     */
+    public synchronized int compile(List<RuleSource> sources, CompileProfile profile, File output, CompileStats stats) throws IOException {
+        String cacheKey = createCacheKey(sources, profile);
+        if (cacheKey != null) {
+            CompileStats.Timer timer = stats.startStage(getStageName(profile, "cache"));
+            int count = snapshotCache.restore(cacheKey, output);
+            if (count >= 0) {
+                timer.stop(count, count, output.length());
+                LOG.info("Restored {} rules for {} from the snapshot cache", count, profile);
+                return count;
+            }
+        }
+
+        try {
+            return compile(sources, profile, output, stats, cacheKey, false);
+        } catch (IOException ex) {
+            LOG.warn("Incremental compilation failed, doing a full rebuild:\r\n", ex);
+            return compile(sources, profile, output, stats, cacheKey, true);
+        }
+    }
+
+    /**
+     * Drops all the compiled segments and cached snapshots, so the next compilation will be a full rebuild
+     */
+    public synchronized void invalidate() {
+        LOG.info("Invalidating compiled segments");
+        FileUtils.deleteQuietly(segmentsDir);
+        snapshotCache.clear();
+    }
+
+    private int compile(List<RuleSource> sources, CompileProfile profile, File output, CompileStats stats,
+                        String cacheKey, boolean fullRebuild) throws IOException {
+        if (fullRebuild) {
+            invalidate();
+        }
+        FileUtils.forceMkdir(segmentsDir);
+
+        // Segments are independent files, so the stale ones are recompiled concurrently.
+        // They are still spliced in the sources order, so the output does not depend on the timing.
+        CompileStats.Timer segmentsTimer = stats.startStage(getStageName(profile, "segments"));
+        List<Future<Integer>> results = new ArrayList<>(sources.size());
+        for (RuleSource source : sources) {
+            results.add(executorService.submit(() -> {
+                long startCpuMillis = SystemClock.currentThreadTimeMillis();
+                try {
+                    return compileSegment(source);
+                } finally {
+                    segmentsTimer.addCpuMillis(SystemClock.currentThreadTimeMillis() - startCpuMillis);
+                }
+            }));
+        }
+
+        List<RuleSource> compiledSources = new ArrayList<>(sources.size());
+        List<File> segments = new ArrayList<>(sources.size());
+        List<Integer> rejected = new ArrayList<>(sources.size());
+        int recompiled = 0;
+        long segmentsBytes = 0;
+        for (int i = 0; i < sources.size(); i++) {
+            RuleSource source = sources.get(i);
+            try {
+                int rejectedCount = results.get(i).get();
+                if (rejectedCount != NOT_RECOMPILED) {
+                    recompiled++;
+                }
+                File segment = getSegmentFile(source);
+                compiledSources.add(source);
+                segments.add(segment);
+                rejected.add(rejectedCount);
+                segmentsBytes += segment.length();
+            } catch (ExecutionException ex) {
+                LOG.error("Cannot compile rule source {}, skipping it:\r\n", source.getKey(), ex.getCause());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Compilation has been interrupted");
+            }
+        }
+
+        LOG.info("Recompiled {} of {} segments", recompiled, sources.size());
+        segmentsTimer.stop(sources.size(), recompiled, segmentsBytes);
+
+        File spliced = new File(segmentsDir, SPLICED_FILE_NAME);
+        try {
+            CompileStats.Timer spliceTimer = stats.startStage(getStageName(profile, "splice"));
+            int[] segmentRules = new int[segments.size()];
+            int[] uniqueRules = new int[segments.size()];
+            int count = splice(segments, spliced, segmentRules, uniqueRules);
+            int totalRules = 0;
+            for (int i = 0; i < segments.size(); i++) {
+                int rejectedCount = rejected.get(i);
+                boolean sourceRecompiled = rejectedCount != NOT_RECOMPILED;
+                if (!sourceRecompiled) {
+                    rejectedCount = 0;
+                }
+                String key = getStageName(profile, compiledSources.get(i).getKey());
+                stats.addSource(new CompileStats.Source(key, sourceRecompiled,
+                        segmentRules[i] + rejectedCount, rejectedCount, uniqueRules[i]));
+                totalRules += segmentRules[i];
+            }
+            spliceTimer.stop(totalRules, count, spliced.length());
+
+            CompileStats.Timer optimizeTimer = stats.startStage(getStageName(profile, "optimize"));
+            RuleOptimizer optimizer = new RuleOptimizer(() -> createOptimizationPasses(profile));
+            int optimizedCount = optimizer.optimize(spliced, output);
+            optimizeTimer.stop(count, optimizedCount, output.length());
+            LOG.info("Spliced {} rules, optimized down to {} for {}", count, optimizedCount, profile);
+
+            // A result without the skipped sources must not be restored when they are readable again.
+            // A source changed during the compilation may have been compiled with the new rules,
+            // they must not be cached under the key of the old ones.
+            if (cacheKey != null && segments.size() == sources.size()
+                    && cacheKey.equals(createCacheKey(sources, profile))) {
+                snapshotCache.put(cacheKey, output, optimizedCount);
+            }
+            return optimizedCount;
+        } finally {
+            FileUtils.deleteQuietly(spliced);
+        }
+    }
+
+    private static String getStageName(CompileProfile profile, String name) {
+        return profile.getName() + "/" + name;
+    }
+
+    private static String createCacheKey(List<RuleSource> sources, CompileProfile profile) {
+        try {
+            return SnapshotCache.createKey(profile, sources);
+        } catch (Exception ex) {
+            LOG.warn("Cannot calculate snapshot cache key, the result will not be cached:\r\n", ex);
+            return null;
+        }
+    }
+
+    private static List<OptimizationPass> createOptimizationPasses(CompileProfile profile) {
+        List<OptimizationPass> passes = new ArrayList<>();
+        passes.add(new ProfilePass(profile));
+        passes.add(new RedundantRulesPass());
+        passes.add(new CosmeticGroupingPass());
+        return passes;
+    }
+
+    /**
+     * Recompiles the source segment if the source has changed since the last compilation.
+     * If the source changes while it is compiled, the segment may have got the new rules under
+     * the old fingerprint, so it is compiled again.
+     *
+     * @param source Rule source
+     * @return Count of the rules rejected by the source or {@link #NOT_RECOMPILED} if the segment is up to date
+     * @throws IOException If the source cannot be compiled or it keeps changing
+     */
+    private int compileSegment(RuleSource source) throws IOException {
+        File segment = getSegmentFile(source);
+        String fingerprint = source.getFingerprint();
+        if (StringUtils.equals(fingerprint, readFingerprint(segment))) {
+            return NOT_RECOMPILED;
+        }
+
+        for (int attempt = 0; attempt < MAX_SEGMENT_ATTEMPTS; attempt++) {
+            int rejectedCount = writeSegment(segment, fingerprint, source);
+            String newFingerprint = source.getFingerprint();
+            if (StringUtils.equals(fingerprint, newFingerprint)) {
+                return rejectedCount;
+            }
+            LOG.info("Rule source {} has changed while it was compiled", source.getKey());
+            fingerprint = newFingerprint;
+        }
+
+        FileUtils.deleteQuietly(segment);
+        throw new IOException("Rule source " + source.getKey() + " keeps changing");
+    }
+
+    private File getSegmentFile(RuleSource source) {
+        return new File(segmentsDir, source.getKey() + SEGMENT_EXTENSION);
+    }
+
+    /**
+     * Reads the fingerprint the segment was compiled with
+     *
+     * @param segment Segment file
+     * @return Fingerprint or null if there is no valid segment
+     */
+    private String readFingerprint(File segment) {
+        if (!segment.isFile()) {
+            return null;
+        }
+
+        FileInputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(segment);
+            SegmentLineReader reader = new SegmentLineReader(inputStream.getChannel(), FINGERPRINT_BUFFER_SIZE);
+            if (!reader.next() || !reader.startsWith(FINGERPRINT_PREFIX_BYTES)) {
+                return null;
+            }
+            int prefixLength = FINGERPRINT_PREFIX_BYTES.length;
+            return new String(reader.getBuffer(), reader.getStart() + prefixLength, reader.getLength() - prefixLength, UTF_8);
+        } catch (IOException ex) {
+            LOG.warn("Cannot read segment {}:\r\n", segment.getName(), ex);
+            return null;
+        } finally {
+            IoUtils.closeQuietly(inputStream);
+        }
+    }
+
+    /**
+     * Streams the source rules to a temporary file and then replaces the old segment,
+     * so that a partially written segment is never taken for a valid one.
+     * The hashes of the rules are written after the rule lines, see {@link SegmentWriter#finish()}.
+     *
+     * @param segment     Segment file
+     * @param fingerprint Fingerprint of the source
+     * @param source      Rule source
+     * @return Count of the rules rejected by the source
+     */
+    private int writeSegment(File segment, String fingerprint, RuleSource source) throws IOException {
+        File tempFile = new File(segment.getPath() + TEMP_EXTENSION);
+
+        FileOutputStream outputStream = null;
+        DataOutputStream out = null;
+        SegmentWriter sink;
+        try {
+            outputStream = new FileOutputStream(tempFile);
+            out = new DataOutputStream(new BufferedOutputStream(outputStream, BUFFER_SIZE));
+            out.write(FINGERPRINT_PREFIX_BYTES);
+            out.write(fingerprint.getBytes(UTF_8));
+            out.write(LINE_FEED);
+
+            sink = new SegmentWriter(out);
+            source.compile(sink);
+            sink.finish();
+            out.flush();
+            outputStream.getFD().sync();
+        } catch (IOException ex) {
+            IoUtils.closeQuietly(out);
+            FileUtils.deleteQuietly(tempFile);
+            throw ex;
+        } finally {
+            IoUtils.closeQuietly(out);
+            IoUtils.closeQuietly(outputStream);
+        }
+
+        if (!tempFile.renameTo(segment)) {
+            FileUtils.deleteQuietly(tempFile);
+            throw new IOException("Cannot save segment " + segment.getName());
+        }
+        return sink.rejected;
+    }
+
+    /**
+     * Streams segments into the output file skipping duplicate rules.
+     * Rules are copied as raw bytes and deduplicated by the hashes stored in the segments,
+     * only the hashes are kept in memory, see {@link SegmentDeduplicator}.
+     *
+     * @param segments     Segment files
+     * @param output       Output file
+     * @param segmentRules Receives count of the rules read from each segment
+     * @param uniqueRules  Receives count of the rules written from each segment
+     * @return Count of the rules written
+     */
+    private int splice(List<File> segments, File output, int[] segmentRules, int[] uniqueRules) throws IOException {
+        List<FileChannel> channels = new ArrayList<>(segments.size());
+        FileChannel outputChannel = null;
+        try {
+            for (File segment : segments) {
+                channels.add(new FileInputStream(segment).getChannel());
+            }
+            outputChannel = new FileOutputStream(output).getChannel();
+
+            SegmentDeduplicator deduplicator = new SegmentDeduplicator(channels);
+            ByteBuffer outputBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+            ByteBuffer hashesBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+            int count = 0;
+            for (int i = 0; i < channels.size(); i++) {
+                FileChannel channel = channels.get(i);
+                String name = segments.get(i).getName();
+                HashReader hashes = openHashes(channel, name, hashesBuffer);
+                SegmentLineReader reader = new SegmentLineReader(channel, hashes.getLinesLength(), BUFFER_SIZE);
+                if (!reader.next() || !reader.startsWith(FINGERPRINT_PREFIX_BYTES)) {
+                    throw new IOException("Segment " + name + " is broken");
+                }
+
+                while (reader.next()) {
+                    if (!hashes.hasNext()) {
+                        throw new IOException("Segment " + name + " has more rules than hashes");
+                    }
+                    segmentRules[i]++;
+                    long ref = SegmentDeduplicator.ref(i, reader.getPosition());
+                    if (deduplicator.add(reader, hashes.next(), ref)) {
+                        writeLine(outputChannel, outputBuffer, reader);
+                        uniqueRules[i]++;
+                        count++;
+                    }
+                }
+                if (hashes.hasNext()) {
+                    throw new IOException("Segment " + name + " has less rules than hashes");
+                }
+            }
+            flush(outputChannel, outputBuffer);
+            return count;
+        } finally {
+            for (FileChannel channel : channels) {
+                IoUtils.closeQuietly(channel);
+            }
+            IoUtils.closeQuietly(outputChannel);
+        }
+    }
+
+    /**
+     * Reads the trailer of the segment, see {@link SegmentWriter#finish()}
+     *
+     * @param channel Segment channel
+     * @param name    Segment name
+     * @param buffer  Buffer to read the hashes with
+     * @return Reader of the rule hashes, it starts right after the rule lines
+     * @throws IOException If the segment is broken
+     */
+    private static HashReader openHashes(FileChannel channel, String name, ByteBuffer buffer) throws IOException {
+        long size = channel.size();
+        if (size < TRAILER_SIZE) {
+            throw new IOException("Segment " + name + " is broken");
+        }
+        ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+        readFully(channel, trailer, size - TRAILER_SIZE);
+        long linesLength = trailer.getLong(0);
+        int count = trailer.getInt(8);
+        if (linesLength < 0 || count < 0 || linesLength + count * 8L + TRAILER_SIZE != size) {
+            throw new IOException("Segment " + name + " is broken");
+        }
+        return new HashReader(channel, linesLength, count, buffer);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of the segment");
+            }
+        }
+    }
+
+    private static void writeLine(FileChannel channel, ByteBuffer buffer, SegmentLineReader line) throws IOException {
+        if (buffer.remaining() < line.getLength() + 1) {
+            flush(channel, buffer);
+        }
+
+        if (buffer.remaining() < line.getLength() + 1) {
+            // The line is longer than the buffer
+            ByteBuffer lineBuffer = ByteBuffer.wrap(line.getBuffer(), line.getStart(), line.getLength());
+            while (lineBuffer.hasRemaining()) {
+                channel.write(lineBuffer);
+            }
+        } else {
+            buffer.put(line.getBuffer(), line.getStart(), line.getLength());
+        }
+        buffer.put(LINE_FEED);
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Writes the source rules to the segment, keeps their hashes and counts the rejected ones
+     */
+    private static class SegmentWriter implements SegmentSink {
+
+        private static final int INITIAL_CAPACITY = 1024;
+
+        private final DataOutputStream out;
+        private long[] hashes = new long[INITIAL_CAPACITY];
+        private int count;
+        private int rejected;
+
+        SegmentWriter(DataOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void add(String rule) throws IOException {
+            byte[] bytes = rule.getBytes(UTF_8);
+            add(bytes, 0, bytes.length, RuleHash.hash(bytes, 0, bytes.length));
+        }
+
+        @Override
+        public void add(byte[] bytes, int offset, int length, long hash) throws IOException {
+            out.write(bytes, offset, length);
+            out.write(LINE_FEED);
+            if (count == hashes.length) {
+                hashes = Arrays.copyOf(hashes, count * 2);
+            }
+            hashes[count++] = hash;
+        }
+
+        @Override
+        public void reject() {
+            rejected++;
+        }
+
+        /**
+         * Writes the hashes of the rules in the order of the lines, then the length of the lines
+         * (the fingerprint line included) and the count of the rules
+         */
+        void finish() throws IOException {
+            long linesLength = out.size();
+            for (int i = 0; i < count; i++) {
+                out.writeLong(hashes[i]);
+            }
+            out.writeLong(linesLength);
+            out.writeInt(count);
+        }
+    }
+
+    /**
+     * Reads the rule hashes stored in the segment one by one
+     */
+    private static class HashReader {
+
+        private final FileChannel channel;
+        private final long linesLength;
+        private final ByteBuffer buffer;
+        private long position;
+        private int remaining;
+
+        HashReader(FileChannel channel, long linesLength, int count, ByteBuffer buffer) {
+            this.channel = channel;
+            this.linesLength = linesLength;
+            this.buffer = buffer;
+            this.position = linesLength;
+            this.remaining = count;
+            buffer.clear();
+            buffer.limit(0);
+        }
+
+        /**
+         * @return Length of the rule lines, the hashes start right after them
+         */
+        long getLinesLength() {
+            return linesLength;
+        }
+
+        boolean hasNext() {
+            return remaining > 0;
+        }
+
+        long next() throws IOException {
+            if (!buffer.hasRemaining()) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), remaining * 8L));
+                readFully(channel, buffer, position);
+                position += buffer.limit();
+                buffer.flip();
+            }
+            remaining--;
+            return buffer.getLong();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ This file is part of AdGuard Content Blocker (https://github.com/AdguardTeam/ContentBlocker).
+ Copyright © 2018 AdGuard Content Blocker. All rights reserved.
+
+ AdGuard Content Blocker is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by the
+ Free Software Foundation, either version 3 of the License, or (at your option)
+ any later version.
+
+ AdGuard Content Blocker is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License along with
+ AdGuard Content Blocker.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.adguard.android.contentblocker.service.compiler;
+
+import com.adguard.android.contentblocker.commons.io.IoUtils;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.TreeSet;
+
+/**
+ * Helper methods for calculating rule sources fingerprints
+ */
+class Fingerprint {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Calculates fingerprint of the rules list and the set of disabled rules
+     *
+     * @param rules         Rules list (order matters)
+     * @param disabledRules Disabled rules (order does not matter)
+     * @return Hex-encoded digest
+     */
+    static String of(Collection<String> rules, Collection<String> disabledRules) {
+        MessageDigest digest = createDigest();
+        update(digest, rules);
+        // Separates the rules from the disabled rules
+        digest.update((byte) 0);
+        update(digest, new TreeSet<>(disabledRules));
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Calculates fingerprint of the file content
+     *
+     * @param file File
+     * @return Hex-encoded digest
+     * @throws IOException If the file cannot be read
+     */
+    static String ofFile(File file) throws IOException {
+        MessageDigest digest = createDigest();
+        InputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(file);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            IoUtils.closeQuietly(inputStream);
+        }
+        return toHex(digest.digest());
+    }
+
+    private static void update(MessageDigest digest, Collection<String> values) {
+        for (String value : values) {
+            digest.update(StringUtils.defaultString(value).getBytes(UTF_8));
+            digest.update((byte) '\n');
+        }
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException("MD5 is not supported", ex);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0x0f];
+            chars[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0x0f];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ This file is part of AdGuard Content Blocker (https://github.com/AdguardTeam/ContentBlocker).
+ Copyright © 2018 AdGuard Content Blocker. All rights reserved.
+
+ AdGuard Content Blocker is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by the
+ Free Software Foundation, either version 3 of the License, or (at your option)
+ any later version.
+
+ AdGuard Content Blocker is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License along with
+ AdGuard Content Blocker.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.adguard.android.contentblocker.service.compiler;
+
+import java.io.IOException;
+
+/**
+ * Optimization applied to the spliced rules before they are written to the filters file.
+ * <p>
+ * {@link RuleOptimizer} splits the rules into partitions by {@link #getPartitionKey(String)}
+ * and makes two passes over every partition with new instances of the passes. On the first one
+ * the pass collects what it needs to know about the rules of the partition, on the second one
+ * it rewrites them.
+ */
+interface OptimizationPass {
+
+    /**
+     * Every rule is handled by the first pass that accepts it
+     *
+     * @param rule Rule text
+     * @return true if this pass handles the rule
+     */
+    boolean accepts(String rule);
+
+    /**
+     * Rules that the pass may merge, or that may cover one another, must have the same key.
+     * Rules with a key are processed together with the other rules of the partition,
+     * so the key must be specific enough to spread the rules over many partitions.
+     *
+     * @param rule Accepted rule text
+     * @return Partition key or null if the rule does not depend on the other rules,
+     * then it is passed to {@link #rewrite(String, RuleSink)} right away, without {@link #scan(String)}
+     */
+    String getPartitionKey(String rule);
+
+    /**
+     * Called for every accepted rule on the first pass
+     *
+     * @param rule Rule text
+     */
+    void scan(String rule);
+
+    /**
+     * Called once all the rules are scanned
+     */
+    void prepare();
+
+    /**
+     * Called for every accepted rule on the second pass
+     *
+     * @param rule Rule text
+     * @param sink Sink to write the resulting rules to, the rule may be dropped or replaced
+     * @throws IOException If the rules cannot be written
+     */
+    void rewrite(String rule, RuleSink sink) throws IOException;
+
+    /**
+     * @return Name of the pass for the logs
+     */
+    String getName();
+
+    /**
+     * @return Count of the rules this pass has removed from the output
+     */
+    int getRemovedCount();
+}
@@ -0,0 +1,67 @@
+/*
+ This file is part of AdGuard Content Blocker (https://github.com/AdguardTeam/ContentBlocker).
+ Copyright © 2018 AdGuard Content Blocker. All rights reserved.
+
+ AdGuard Content Blocker is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by the
+ Free Software Foundation, either version 3 of the License, or (at your option)
+ any later version.
+
+ AdGuard Content Blocker is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License along with
+ AdGuard Content Blocker.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.adguard.android.contentblocker.service.compiler;
+
+import java.io.IOException;
+
+/**
+ * Drops the rules the browser of the compile profile cannot apply
+ */
+class ProfilePass implements OptimizationPass {
+
+    private final CompileProfile profile;
+    private int removedCount;
+
+    ProfilePass(CompileProfile profile) {
+        this.profile = profile;
+    }
+
+    @Override
+    public boolean accepts(String rule) {
+        return !profile.isSupported(rule);
+    }
+
+    @Override
+    public String getPartitionKey(String rule) {
+        return null;
+    }
+
+    @Override
+    public void scan(String rule) {
+        // Unsupported rules are dropped one by one, nothing to collect
+    }
+
+    @Override
+    public void prepare() {
+        // Nothing to prepare
+    }
+
+    @Override
+    public void rewrite(String rule, RuleSink sink) throws IOException {
+        removedCount++;
+    }
+
+    @Override
+    public String getName() {
+        return "profile-" + profile.name().toLowerCase();
+    }
+
+    @Override
+    public int getRemovedCount() {
+        return removedCount;
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ This file is part of AdGuard Content Blocker (https://github.com/AdguardTeam/ContentBlocker).
+ Copyright © 2018 AdGuard Content Blocker. All rights reserved.
+
+ AdGuard Content Blocker is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by the
+ Free Software Foundation, either version 3 of the License, or (at your option)
+ any later version.
+
+ AdGuard Content Blocker is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License along with
+ AdGuard Content Blocker.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.adguard.android.contentblocker.service.compiler;
+
+import com.adguard.android.contentblocker.commons.rules.RuleClassifier;
+import com.adguard.android.contentblocker.commons.rules.RuleType;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Removes network rules that are provably covered by other rules.
+ * <ul>
+ * <li>{@code ||sub.example.com^$opts} is dropped if there is {@code ||example.com^$opts}
+ * with exactly the same options. The same goes for the exception rules.</li>
+ * <li>Rules that differ only in a positive {@code $domain} list are merged into one rule
+ * with the union of the lists, within {@link RuleOptimizer#MAX_RULE_LENGTH}.</li>
+ * </ul>
+ * Rules disabled by {@code $badfilter} are neither merged nor used to cover other rules,
+ * as well as rules with options that have values other than {@code $domain}.
+ * <p>
+ * Anchored rules are partitioned by the last two labels of the hostname, so a rule for
+ * a single label such as {@code ||com^} does not cover the rules for its subdomains.
+ */
+class RedundantRulesPass implements OptimizationPass {
+
+    private static final String SECTION_PREFIX = "[";
+    private static final String EXCEPTION_PREFIX = "@@";
+    private static final String DOMAIN_ANCHOR = "||";
+    private static final String SEPARATOR = "^";
+    private static final char OPTIONS_DELIMITER = '$';
+    private static final char OPTIONS_SEPARATOR = ',';
+    private static final char DOMAINS_SEPARATOR = '|';
+    private static final String DOMAIN_OPTION = "domain=";
+    private static final String BADFILTER_OPTION = "badfilter";
+
+    private static final Pattern HOSTNAME = Pattern.compile("[a-z0-9\\-]+(\\.[a-z0-9\\-]+)*");
+    private static final Pattern SIMPLE_OPTION = Pattern.compile("~?[a-z0-9\\-_]+");
+
+    private final Set<String> anchors = new HashSet<>();
+    private final Set<String> badfilterTargets = new HashSet<>();
+    private final List<String> domainRestrictedRules = new ArrayList<>();
+    private final Map<String, String> replacements = new HashMap<>();
+    private int removedCount;
+
+    @Override
+    public boolean accepts(String rule) {
+        if (rule.startsWith(SECTION_PREFIX)) {
+            return false;
+        }
+        RuleType type = RuleClassifier.classify(rule);
+        return type == RuleType.NETWORK || type == RuleType.NETWORK_EXCEPTION;
+    }
+
+    @Override
+    public String getPartitionKey(String rule) {
+        String options = getOptions(rule);
+        if (options != null && hasOption(options, BADFILTER_OPTION)) {
+            // The rule goes to the partition of the rule it disables
+            rule = removeOption(rule, options, BADFILTER_OPTION);
+            options = getOptions(rule);
+        }
+
+        String hostname = getAnchoredHostname(rule, options);
+        if (hostname != null) {
+            // A covering rule has the same options, a rule to merge with differs only in the domain list
+            int index = hostname.lastIndexOf('.');
+            index = index < 0 ? -1 : hostname.lastIndexOf('.', index - 1);
+            String parentDomain = hostname.substring(index + 1);
+            String parentOptions = options == null ? null : getOptions(replaceDomains(rule, options, null));
+            return anchorKey(rule, parentDomain, parentOptions);
+        }
+        if (options != null && isMergeable(options)) {
+            return replaceDomains(rule, options, null);
+        }
+        return null;
+    }
+
+    @Override
+    public void scan(String rule) {
+        String options = getOptions(rule);
+        if (options != null && hasOption(options, BADFILTER_OPTION)) {
+            badfilterTargets.add(removeOption(rule, options, BADFILTER_OPTION));
+            return;
+        }
+
+        String hostname = getAnchoredHostname(rule, options);
+        if (hostname != null) {
+            anchors.add(anchorKey(rule, hostname, options));
+        }
+        if (options != null && isMergeable(options)) {
+            domainRestrictedRules.add(rule);
+        }
+    }
+
+    @Override
+    public void prepare() {
+        for (String target : badfilterTargets) {
+            String options = getOptions(target);
+            String hostname = getAnchoredHostname(target, options);
+            if (hostname != null) {
+                anchors.remove(anchorKey(target, hostname, options));
+            }
+        }
+
+        Map<String, List<String>> groups = new LinkedHashMap<>();
+        for (String rule : domainRestrictedRules) {
+            if (badfilterTargets.contains(rule) || isCovered(rule)) {
+                continue;
+            }
+
+            String key = replaceDomains(rule, getOptions(rule), null);
+            List<String> group = groups.get(key);
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.put(key, group);
+            }
+            group.add(rule);
+        }
+        domainRestrictedRules.clear();
+
+        for (List<String> group : groups.values()) {
+            if (group.size() > 1) {
+                mergeGroup(group);
+            }
+        }
+    }
+
+    @Override
+    public void rewrite(String rule, RuleSink sink) throws IOException {
+        String replacement = replacements.get(rule);
+        if (replacement == null) {
+            if (isCovered(rule)) {
+                removedCount++;
+            } else {
+                sink.add(rule);
+            }
+        } else if (!replacement.isEmpty()) {
+            sink.add(replacement);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "redundant-rules";
+    }
+
+    @Override
+    public int getRemovedCount() {
+        return removedCount;
+    }
+
+    /**
+     * Merges the domain lists of the rules, keeping each merged rule within the length limit.
+     * The merged rule takes the place of the first rule of the chunk, the rest are dropped.
+     *
+     * @param group Rules that differ only in the domain lists
+     */
+    private void mergeGroup(List<String> group) {
+        String first = null;
+        Set<String> domains = new LinkedHashSet<>();
+        int merged = 0;
+        for (String rule : group) {
+            List<String> ruleDomains = getDomains(getOptions(rule));
+            if (first != null) {
+                Set<String> union = new LinkedHashSet<>(domains);
+                union.addAll(ruleDomains);
+                if (replaceDomains(first, getOptions(first), union).length() <= RuleOptimizer.MAX_RULE_LENGTH) {
+                    domains = union;
+                    replacements.put(rule, "");
+                    removedCount++;
+                    merged++;
+                    continue;
+                }
+                putMergedRule(first, domains, merged);
+            }
+
+            first = rule;
+            domains = new LinkedHashSet<>(ruleDomains);
+            merged = 0;
+        }
+        putMergedRule(first, domains, merged);
+    }
+
+    private void putMergedRule(String first, Set<String> domains, int merged) {
+        if (merged > 0) {
+            replacements.put(first, replaceDomains(first, getOptions(first), domains));
+        }
+    }
+
+    /**
+     * Checks if the rule is covered by a rule for one of the parent domains with the same options
+     *
+     * @param rule Rule text
+     * @return true if the rule can be dropped
+     */
+    private boolean isCovered(String rule) {
+        String options = getOptions(rule);
+        String hostname = getAnchoredHostname(rule, options);
+        if (hostname == null || badfilterTargets.contains(rule)) {
+            return false;
+        }
+
+        int index = hostname.indexOf('.');
+        while (index >= 0) {
+            if (anchors.contains(anchorKey(rule, hostname.substring(index + 1), options))) {
+                return true;
+            }
+            index = hostname.indexOf('.', index + 1);
+        }
+        return false;
+    }
+
+    private static String anchorKey(String rule, String hostname, String options) {
+        String prefix = rule.startsWith(EXCEPTION_PREFIX) ? EXCEPTION_PREFIX : "";
+        return prefix + hostname + OPTIONS_DELIMITER + StringUtils.defaultString(options);
+    }
+
+    /**
+     * @param rule    Rule text
+     * @param options Rule options
+     * @return Hostname if the rule looks like {@code ||hostname^$options}, otherwise null
+     */
+    private static String getAnchoredHostname(String rule, String options) {
+        String pattern = getPattern(rule, options);
+        if (pattern.startsWith(EXCEPTION_PREFIX)) {
+            pattern = pattern.substring(EXCEPTION_PREFIX.length());
+        }
+        if (!pattern.startsWith(DOMAIN_ANCHOR) || !pattern.endsWith(SEPARATOR)) {
+            return null;
+        }
+
+        String hostname = pattern.substring(DOMAIN_ANCHOR.length(), pattern.length() - SEPARATOR.length());
+        return HOSTNAME.matcher(hostname).matches() ? hostname : null;
+    }
+
+    /**
+     * Checks that the rule has a positive domain list and all the other options have no values
+     *
+     * @param options Rule options
+     * @return true if the rule can be merged with the rules that differ only in the domain list
+     */
+    private static boolean isMergeable(String options) {
+        boolean hasDomains = false;
+        for (String option : StringUtils.split(options, OPTIONS_SEPARATOR)) {
+            if (option.startsWith(DOMAIN_OPTION)) {
+                if (hasDomains) {
+                    return false;
+                }
+                for (String domain : getDomains(option)) {
+                    if (!HOSTNAME.matcher(domain).matches()) {
+                        return false;
+                    }
+                }
+                hasDomains = true;
+            } else if (!SIMPLE_OPTION.matcher(option).matches()) {
+                return false;
+            }
+        }
+        return hasDomains;
+    }
+
+    private static String getOptions(String rule) {
+        int index = rule.lastIndexOf(OPTIONS_DELIMITER);
+        return index < 0 ? null : rule.substring(index + 1);
+    }
+
+    private static String getPattern(String rule, String options) {
+        return options == null ? rule : rule.substring(0, rule.length() - options.length() - 1);
+    }
+
+    private static boolean hasOption(String options, String name) {
+        for (String option : StringUtils.split(options, OPTIONS_SEPARATOR)) {
+            if (name.equals(option)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String removeOption(String rule, String options, String name) {
+        List<String> remaining = new ArrayList<>();
+        for (String option : StringUtils.split(options, OPTIONS_SEPARATOR)) {
+            if (!name.equals(option)) {
+                remaining.add(option);
+            }
+        }
+
+        String pattern = getPattern(rule, options);
+        return remaining.isEmpty() ? pattern : pattern + OPTIONS_DELIMITER + StringUtils.join(remaining, OPTIONS_SEPARATOR);
+    }
+
+    private static List<String> getDomains(String options) {
+        for (String option : StringUtils.split(options, OPTIONS_SEPARATOR)) {
+            if (option.startsWith(DOMAIN_OPTION)) {
+                return Arrays.asList(StringUtils.split(option.substring(DOMAIN_OPTION.length()), DOMAINS_SEPARATOR));
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Replaces the domain list of the rule
+     *
+     * @param rule    Rule text
+     * @param options Rule options
+     * @param domains New domain list or null to leave it empty
+     * @return Rule text with the new domain list
+     */
+    private static String replaceDomains(String rule, String options, Set<String> domains) {
+        String[] parts = StringUtils.split(options, OPTIONS_SEPARATOR);
+        for (int i = 0; i < parts.length; i++) {
+            if (parts[i].startsWith(DOMAIN_OPTION)) {
+                parts[i] = domains == null ? DOMAIN_OPTION : DOMAIN_OPTION + StringUtils.join(domains, DOMAINS_SEPARATOR);
+            }
+        }
+        return getPattern(rule, options) + OPTIONS_DELIMITER + StringUtils.join(parts, OPTIONS_SEPARATOR);
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ This file is part of AdGuard Content Blocker (https://github.com/AdguardTeam/ContentBlocker).
+ Copyright © 2018 AdGuard Content Blocker. All rights reserved.
+
+ AdGuard Content Blocker is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by the
+ Free Software Foundation, either version 3 of the License, or (at your option)
+ any later version.
+
+ AdGuard Content Blocker is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License along with
+ AdGuard Content Blocker.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.adguard.android.contentblocker.service.compiler;
+
+import com.adguard.android.contentblocker.commons.io.IoUtils;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs optimization passes over the spliced rules file.
+ * <p>
+ * The passes keep the rules they analyze in memory, so the rules are split by their partition keys
+ * (see {@link OptimizationPass#getPartitionKey(String)}) into partition files of about
+ * {@link #PARTITION_SIZE} bytes, and the partitions are optimized one by one with new passes.
+ * The rules without a key are rewritten while they are split. A single partition still holds
+ * all the rules with the same key, e.g. all the element hiding rules with the same selector.
+ */
+class RuleOptimizer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RuleOptimizer.class);
+
+    /**
+     * Passes must not make rules longer than this
+     */
+    static final int MAX_RULE_LENGTH = 4096;
+
+    /**
+     * Version of the optimization passes, it must be incremented every time they start
+     * producing different output, so that the cached snapshots are compiled again
+     */
+    static final int VERSION = 2;
+
+    /**
+     * Approximate size of a partition file, the passes take a few times more memory than that
+     */
+    static final int PARTITION_SIZE = 512 * 1024;
+
+    private static final String PARTITION_EXTENSION = ".part";
+    private static final String ENCODING = "UTF-8";
+    private static final String LINE_SEPARATOR = "\n";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int PARTITION_BUFFER_SIZE = 8 * 1024;
+
+    private final PassesFactory passesFactory;
+    private final Map<String, Integer> removedCounts = new LinkedHashMap<>();
+
+    /**
+     * Creates an instance of the optimizer
+     *
+     * @param passesFactory Factory of the optimization passes, passes keep state of a single partition
+     *                      so new ones are created for every partition
+     */
+    RuleOptimizer(PassesFactory passesFactory) {
+        this.passesFactory = passesFactory;
+    }
+
+    /**
+     * Optimizes the rules
+     *
+     * @param input  Spliced rules without duplicates
+     * @param output Output file, it is synced to disk when the method returns
+     * @return Count of the rules written to the output file
+     * @throws IOException If the files cannot be read or written
+     */
+    int optimize(File input, File output) throws IOException {
+        removedCounts.clear();
+        File[] partitions = new File[(int) Math.max(1, (input.length() + PARTITION_SIZE - 1) / PARTITION_SIZE)];
+        for (int i = 0; i < partitions.length; i++) {
+            partitions[i] = new File(input.getPath() + PARTITION_EXTENSION + i);
+        }
+
+        FileOutputStream outputStream = null;
+        Writer writer = null;
+        try {
+            outputStream = new FileOutputStream(output);
+            writer = new BufferedWriter(Channels.newWriter(outputStream.getChannel(), ENCODING), BUFFER_SIZE);
+            CountingSink sink = new CountingSink(writer);
+
+            split(input, partitions, sink);
+            for (File partition : partitions) {
+                optimizePartition(partition, sink);
+                FileUtils.deleteQuietly(partition);
+            }
+
+            writer.flush();
+            // The output is published by renaming, so it must be on disk before that
+            outputStream.getFD().sync();
+
+            for (Map.Entry<String, Integer> entry : removedCounts.entrySet()) {
+                LOG.info("Optimization pass {} removed {} rules", entry.getKey(), entry.getValue());
+            }
+            LOG.debug("Optimized {} partitions", partitions.length);
+            return sink.count;
+        } finally {
+            IoUtils.closeQuietly(writer);
+            IoUtils.closeQuietly(outputStream);
+            for (File partition : partitions) {
+                FileUtils.deleteQuietly(partition);
+            }
+        }
+    }
+
+    /**
+     * @return Total count of the rules removed by the optimization passes
+     */
+    int getRemovedCount() {
+        int removed = 0;
+        for (int count : removedCounts.values()) {
+            removed += count;
+        }
+        return removed;
+    }
+
+    /**
+     * Writes the rules with partition keys to the partition files and rewrites the rest into the sink
+     */
+    private void split(File input, File[] partitions, RuleSink sink) throws IOException {
+        List<OptimizationPass> passes = passesFactory.create();
+        BufferedReader reader = null;
+        Writer[] writers = new Writer[partitions.length];
+        try {
+            for (int i = 0; i < partitions.length; i++) {
+                writers[i] = new BufferedWriter(Channels.newWriter(new FileOutputStream(partitions[i]).getChannel(), ENCODING), PARTITION_BUFFER_SIZE);
+            }
+            reader = openReader(input);
+
+            String rule;
+            while ((rule = reader.readLine()) != null) {
+                OptimizationPass pass = findPass(passes, rule);
+                String key = pass == null ? null : pass.getPartitionKey(rule);
+                if (key != null) {
+                    Writer writer = writers[(key.hashCode() & Integer.MAX_VALUE) % writers.length];
+                    writer.write(rule);
+                    writer.write(LINE_SEPARATOR);
+                } else if (pass != null) {
+                    pass.rewrite(rule, sink);
+                } else {
+                    sink.add(rule);
+                }
+            }
+
+            for (Writer writer : writers) {
+                writer.flush();
+            }
+        } finally {
+            IoUtils.closeQuietly(reader);
+            for (Writer writer : writers) {
+                IoUtils.closeQuietly(writer);
+            }
+        }
+        addRemovedCounts(passes);
+    }
+
+    private void optimizePartition(File partition, RuleSink sink) throws IOException {
+        List<OptimizationPass> passes = passesFactory.create();
+        BufferedReader reader = null;
+        try {
+            reader = openReader(partition);
+            String rule;
+            while ((rule = reader.readLine()) != null) {
+                findPass(passes, rule).scan(rule);
+            }
+        } finally {
+            IoUtils.closeQuietly(reader);
+        }
+
+        for (OptimizationPass pass : passes) {
+            pass.prepare();
+        }
+
+        try {
+            reader = openReader(partition);
+            String rule;
+            while ((rule = reader.readLine()) != null) {
+                findPass(passes, rule).rewrite(rule, sink);
+            }
+        } finally {
+            IoUtils.closeQuietly(reader);
+        }
+        addRemovedCounts(passes);
+    }
+
+    private void addRemovedCounts(List<OptimizationPass> passes) {
+        for (OptimizationPass pass : passes) {
+            Integer count = removedCounts.get(pass.getName());
+            removedCounts.put(pass.getName(), (count == null ? 0 : count) + pass.getRemovedCount());
+        }
+    }
+
+    private static OptimizationPass findPass(List<OptimizationPass> passes, String rule) {
+        for (OptimizationPass pass : passes) {
+            if (pass.accepts(rule)) {
+                return pass;
+            }
+        }
+        return null;
+    }
+
+    private static BufferedReader openReader(File file) throws IOException {
+        return new BufferedReader(Channels.newReader(new FileInputStream(file).getChannel(), ENCODING), BUFFER_SIZE);
+    }
+
+    /**
+     * Creates the optimization passes
+     */
+    interface PassesFactory {
+
+        /**
+         * @return New instances of the passes, every rule is handled by the first pass that accepts it
+         */
+        List<OptimizationPass> create();
+    }
+
+    private static class CountingSink implements RuleSink {
+
+        private final Writer writer;
+        private int count;
+
+        CountingSink(Writer writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public void add(String rule) throws IOException {
+            writer.write(rule);
+            writer.write(LINE_SEPARATOR);
+            count++;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ This file is part of AdGuard Content Blocker (https://github.com/AdguardTeam/ContentBlocker).
+ Copyright © 2018 AdGuard Content Blocker. All rights reserved.
+
+ AdGuard Content Blocker is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by the
+ Free Software Foundation, either version 3 of the License, or (at your option)
+ any later version.
+
+ AdGuard Content Blocker is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License along with
+ AdGuard Content Blocker.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.adguard.android.contentblocker.service.compiler;
+
+import java.io.IOException;
+
+/**
+ * Source of the rules compiled into the filters file (filter list, user rules, whitelist).
+ * Every source is compiled into its own segment by {@link FiltersCompiler}.
+ */
+public interface RuleSource {
+
+    /**
+     * @return Unique key of the source, used as a segment file name
+     */
+    String getKey();
+
+    /**
+     * Gets the source fingerprint.
+     * It must change every time the compiled rules of this source change.
+     *
+     * @return Fingerprint string
+     */
+    String getFingerprint() throws IOException;
+
+    /**
+     * Compiles the rules of this source one by one
+     *
+     * @param sink Sink to pass the compiled rules to
+     */
+    void compile(SegmentSink sink) throws IOException;
+}
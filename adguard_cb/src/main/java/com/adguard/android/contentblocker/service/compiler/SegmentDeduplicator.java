@@ -0,0 +1,111 @@
+/*
+ This file is part of AdGuard Content Blocker (https://github.com/AdguardTeam/ContentBlocker).
+ Copyright © 2018 AdGuard Content Blocker. All rights reserved.
+
+ AdGuard Content Blocker is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by the
+ Free Software Foundation, either version 3 of the License, or (at your option)
+ any later version.
+
+ AdGuard Content Blocker is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License along with
+ AdGuard Content Blocker.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.adguard.android.contentblocker.service.compiler;
+
+import com.adguard.android.contentblocker.commons.rules.RuleDeduplicator;
+import com.adguard.android.contentblocker.commons.rules.RuleHash;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * Deduplicates rules spliced from the segment files.
+ * A rule is referenced by its segment index and offset in the segment file,
+ * so on a hash match the bytes of the earlier rule are read back from the segment.
+ * <p>
+ * The lines may start with a prefix which is not a part of the rule, like the change prefix
+ * of the delta lines, then the rules are compared without it.
+ */
+class SegmentDeduplicator extends RuleDeduplicator<SegmentLineReader> {
+
+    private static final int OFFSET_BITS = 48;
+    private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+
+    private final List<FileChannel> segments;
+    private final int prefixLength;
+    private ByteBuffer compareBuffer = ByteBuffer.allocate(1024);
+
+    /**
+     * @param segments Channels of the segments being spliced
+     */
+    SegmentDeduplicator(List<FileChannel> segments) {
+        this(segments, 0);
+    }
+
+    /**
+     * @param segments     Channels of the files with the rule lines
+     * @param prefixLength Length of the prefix every line starts with, it is skipped
+     */
+    SegmentDeduplicator(List<FileChannel> segments, int prefixLength) {
+        this.segments = segments;
+        this.prefixLength = prefixLength;
+    }
+
+    /**
+     * Creates a reference to the rule
+     *
+     * @param segmentIndex Index of the segment
+     * @param position     Rule offset in the segment file
+     * @return Rule reference
+     */
+    static long ref(int segmentIndex, long position) {
+        return ((long) segmentIndex << OFFSET_BITS) | position;
+    }
+
+    @Override
+    protected long hash(SegmentLineReader line) {
+        return RuleHash.hash(line.getBuffer(), line.getStart() + prefixLength, line.getLength() - prefixLength);
+    }
+
+    @Override
+    protected boolean isSameRule(SegmentLineReader line, long ref) throws IOException {
+        FileChannel channel = segments.get((int) (ref >>> OFFSET_BITS));
+        long position = (ref & OFFSET_MASK) + prefixLength;
+
+        // Reading the rule itself and the byte after it, which must be a line feed or EOF
+        int length = line.getLength() - prefixLength;
+        if (compareBuffer.capacity() < length + 1) {
+            compareBuffer = ByteBuffer.allocate(length + 1);
+        }
+        compareBuffer.clear();
+        compareBuffer.limit(length + 1);
+        while (compareBuffer.hasRemaining()) {
+            int read = channel.read(compareBuffer, position + compareBuffer.position());
+            if (read < 0) {
+                break;
+            }
+        }
+
+        if (compareBuffer.position() < length) {
+            return false;
+        }
+        if (compareBuffer.position() > length && compareBuffer.get(length) != '\n') {
+            return false;
+        }
+
+        byte[] bytes = line.getBuffer();
+        int start = line.getStart() + prefixLength;
+        for (int i = 0; i < length; i++) {
+            if (compareBuffer.get(i) != bytes[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ This file is part of AdGuard Content Blocker (https://github.com/AdguardTeam/ContentBlocker).
+ Copyright © 2018 AdGuard Content Blocker. All rights reserved.
+
+ AdGuard Content Blocker is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by the
+ Free Software Foundation, either version 3 of the License, or (at your option)
+ any later version.
+
+ AdGuard Content Blocker is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License along with
+ AdGuard Content Blocker.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.adguard.android.contentblocker.service.compiler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads lines of a segment file as raw UTF-8 bytes, without decoding them into strings.
+ * The current line is available through {@link #getBuffer()}, {@link #getStart()} and
+ * {@link #getLength()} until the next call of {@link #next()}.
+ */
+class SegmentLineReader {
+
+    private static final byte LINE_FEED = '\n';
+
+    private final FileChannel channel;
+    private final long linesLength;
+    private byte[] buffer;
+    private ByteBuffer byteBuffer;
+
+    /**
+     * File offset of the first byte in the buffer
+     */
+    private long bufferOffset;
+    private int limit;
+    private int scanPosition;
+    private boolean endOfFile;
+
+    private int start;
+    private int length;
+
+    SegmentLineReader(FileChannel channel, int bufferSize) {
+        this(channel, Long.MAX_VALUE, bufferSize);
+    }
+
+    /**
+     * Creates a reader of the lines at the beginning of the file, the bytes after them are not read
+     *
+     * @param channel     File channel
+     * @param linesLength Length of the lines part of the file
+     * @param bufferSize  Initial size of the buffer
+     */
+    SegmentLineReader(FileChannel channel, long linesLength, int bufferSize) {
+        this.channel = channel;
+        this.linesLength = linesLength;
+        this.buffer = new byte[bufferSize];
+        this.byteBuffer = ByteBuffer.wrap(buffer);
+    }
+
+    /**
+     * Moves to the next line
+     *
+     * @return false if there are no more lines
+     */
+    boolean next() throws IOException {
+        while (true) {
+            for (int i = scanPosition; i < limit; i++) {
+                if (buffer[i] == LINE_FEED) {
+                    setLine(i);
+                    scanPosition = i + 1;
+                    return true;
+                }
+            }
+
+            if (endOfFile) {
+                if (scanPosition < limit) {
+                    // The last line without the line feed
+                    setLine(limit);
+                    scanPosition = limit;
+                    return true;
+                }
+                return false;
+            }
+
+            fill();
+        }
+    }
+
+    /**
+     * @return Buffer containing the current line
+     */
+    byte[] getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * @return Offset of the current line in the buffer
+     */
+    int getStart() {
+        return start;
+    }
+
+    /**
+     * @return Length of the current line in bytes (line feed excluded)
+     */
+    int getLength() {
+        return length;
+    }
+
+    /**
+     * @return Offset of the current line in the file
+     */
+    long getPosition() {
+        return bufferOffset + start;
+    }
+
+    /**
+     * Checks if the current line starts with the specified bytes
+     *
+     * @param prefix Prefix bytes
+     * @return true if it does
+     */
+    boolean startsWith(byte[] prefix) {
+        if (length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer[start + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void setLine(int end) {
+        start = scanPosition;
+        length = end - scanPosition;
+    }
+
+    /**
+     * Drops the lines already read from the buffer and reads more bytes from the channel.
+     * Grows the buffer if a single line does not fit into it.
+     */
+    private void fill() throws IOException {
+        int remaining = limit - scanPosition;
+        if (scanPosition == 0 && limit == buffer.length) {
+            byte[] newBuffer = new byte[buffer.length * 2];
+            System.arraycopy(buffer, 0, newBuffer, 0, limit);
+            buffer = newBuffer;
+            byteBuffer = ByteBuffer.wrap(buffer);
+        } else if (scanPosition > 0) {
+            System.arraycopy(buffer, scanPosition, buffer, 0, remaining);
+            bufferOffset += scanPosition;
+        }
+        scanPosition = 0;
+        limit = remaining;
+
+        long unread = linesLength - bufferOffset - limit;
+        if (unread <= 0) {
+            endOfFile = true;
+            return;
+        }
+
+        byteBuffer.clear();
+        byteBuffer.position(limit);
+        if (unread < byteBuffer.remaining()) {
+            byteBuffer.limit(limit + (int) unread);
+        }
+        int read = channel.read(byteBuffer);
+        if (read < 0) {
+            endOfFile = true;
+        } else {
+            limit += read;
+        }
+    }
+}
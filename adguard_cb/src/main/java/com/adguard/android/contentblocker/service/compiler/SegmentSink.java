@@ -0,0 +1,41 @@
+/*
+ This file is part of AdGuard Content Blocker (https://github.com/AdguardTeam/ContentBlocker).
+ Copyright © 2018 AdGuard Content Blocker. All rights reserved.
+
+ AdGuard Content Blocker is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by the
+ Free Software Foundation, either version 3 of the License, or (at your option)
+ any later version.
+
+ AdGuard Content Blocker is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License along with
+ AdGuard Content Blocker.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.adguard.android.contentblocker.service.compiler;
+
+import java.io.IOException;
+
+/**
+ * Receives the rules of a {@link RuleSource} compiled into its segment.
+ * <p>
+ * Rules of the filter lists come as their stored UTF-8 bytes and hashes,
+ * so they get to the segment without being decoded into text and hashed again.
+ */
+public interface SegmentSink extends RuleSink {
+
+    /**
+     * @param bytes  Buffer with the UTF-8 encoded rule, it is not kept after the call
+     * @param offset Rule offset in the buffer
+     * @param length Rule length in bytes
+     * @param hash   Hash of the rule, see {@link com.adguard.android.contentblocker.commons.rules.RuleHash}
+     */
+    void add(byte[] bytes, int offset, int length, long hash) throws IOException;
+
+    /**
+     * Reports a rule the source has found invalid and skipped
+     */
+    void reject();
+}
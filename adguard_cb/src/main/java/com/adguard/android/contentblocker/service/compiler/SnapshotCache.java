@@ -0,0 +1,212 @@
+/*
+ This file is part of AdGuard Content Blocker (https://github.com/AdguardTeam/ContentBlocker).
+ Copyright © 2018 AdGuard Content Blocker. All rights reserved.
+
+ AdGuard Content Blocker is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by the
+ Free Software Foundation, either version 3 of the License, or (at your option)
+ any later version.
+
+ AdGuard Content Blocker is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License along with
+ AdGuard Content Blocker.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.adguard.android.contentblocker.service.compiler;
+
+import com.adguard.android.contentblocker.commons.io.IoUtils;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * LRU cache of the compiled filters files.
+ * <p>
+ * Entries are keyed by the fingerprints of all the compiled sources, so switching back
+ * to a recently used configuration (a filter toggled off and on again) restores the
+ * compiled file instead of compiling it again. The key also includes {@link RuleOptimizer#VERSION},
+ * so the files optimized by an older version of the passes are not restored after an upgrade,
+ * and {@link #KEY_VERSION}, so the keys of the older fingerprints are never matched.
+ * <p>
+ * An entry is written to a temporary file and renamed when it is complete,
+ * so a crash in the middle of a copy never leaves a truncated entry behind.
+ */
+class SnapshotCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SnapshotCache.class);
+
+    private static final String ENTRY_EXTENSION = ".txt";
+    private static final String TEMP_EXTENSION = ".tmp";
+    private static final char COUNT_SEPARATOR = '_';
+    /**
+     * Changes whenever the fingerprints of the sources change their meaning.
+     * The second version has replaced the size and modification time of the filter files with their content hash.
+     */
+    private static final int KEY_VERSION = 2;
+
+    private final File cacheDir;
+    private final int maxEntries;
+
+    /**
+     * Creates an instance of the snapshot cache
+     *
+     * @param cacheDir   Directory to keep the cached files in
+     * @param maxEntries Maximum number of the cached files
+     */
+    SnapshotCache(File cacheDir, int maxEntries) {
+        this.cacheDir = cacheDir;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Creates the cache key
+     *
+     * @param profile Compile profile
+     * @param sources Rule sources
+     * @return Cache key
+     * @throws IOException If a source fingerprint cannot be calculated
+     */
+    static String createKey(CompileProfile profile, List<RuleSource> sources) throws IOException {
+        List<String> values = new ArrayList<>(sources.size() + 3);
+        values.add(Integer.toString(KEY_VERSION));
+        values.add(profile.name());
+        values.add(Integer.toString(RuleOptimizer.VERSION));
+        for (RuleSource source : sources) {
+            values.add(source.getKey() + COUNT_SEPARATOR + source.getFingerprint());
+        }
+        return Fingerprint.of(values, Collections.<String>emptyList());
+    }
+
+    /**
+     * Copies the cached file to the output file
+     *
+     * @param key    Cache key
+     * @param output Output file, it is synced to disk when the method returns
+     * @return Count of the rules in the restored file or -1 if there is no such entry
+     */
+    int restore(String key, File output) {
+        File entry = findEntry(key);
+        if (entry == null) {
+            return -1;
+        }
+
+        try {
+            copy(entry, output);
+            if (!entry.setLastModified(System.currentTimeMillis())) {
+                LOG.debug("Cannot update access time of {}", entry.getName());
+            }
+            return getCount(entry);
+        } catch (Exception ex) {
+            LOG.warn("Cannot restore cached snapshot {}:\r\n", entry.getName(), ex);
+            FileUtils.deleteQuietly(entry);
+            return -1;
+        }
+    }
+
+    /**
+     * Puts the compiled file to the cache and evicts the least recently used entries
+     *
+     * @param key      Cache key
+     * @param compiled Compiled filters file
+     * @param count    Count of the rules in the file
+     */
+    void put(String key, File compiled, int count) {
+        File entry = new File(cacheDir, key + COUNT_SEPARATOR + count + ENTRY_EXTENSION);
+        // The temporary name does not start with the key, so it is never found by restore
+        File tempFile = new File(cacheDir, key + TEMP_EXTENSION);
+        try {
+            FileUtils.forceMkdir(cacheDir);
+            copy(compiled, tempFile);
+            if (!tempFile.renameTo(entry)) {
+                throw new IOException("Cannot rename " + tempFile.getName());
+            }
+        } catch (IOException ex) {
+            LOG.warn("Cannot cache snapshot {}:\r\n", entry.getName(), ex);
+            FileUtils.deleteQuietly(tempFile);
+            return;
+        }
+        evict();
+    }
+
+    /**
+     * Removes all the cached files
+     */
+    void clear() {
+        FileUtils.deleteQuietly(cacheDir);
+    }
+
+    private File findEntry(String key) {
+        File[] files = cacheDir.listFiles();
+        if (files == null) {
+            return null;
+        }
+        String prefix = key + COUNT_SEPARATOR;
+        for (File file : files) {
+            if (file.getName().startsWith(prefix) && file.getName().endsWith(ENTRY_EXTENSION)) {
+                return file;
+            }
+        }
+        return null;
+    }
+
+    private void evict() {
+        File[] files = cacheDir.listFiles();
+        if (files == null || files.length <= maxEntries) {
+            return;
+        }
+
+        List<File> entries = new ArrayList<>(Arrays.asList(files));
+        Collections.sort(entries, new Comparator<File>() {
+            @Override
+            public int compare(File left, File right) {
+                long leftModified = left.lastModified();
+                long rightModified = right.lastModified();
+                return leftModified < rightModified ? 1 : (leftModified == rightModified ? 0 : -1);
+            }
+        });
+        for (File entry : entries.subList(maxEntries, entries.size())) {
+            LOG.info("Evicting cached snapshot {}", entry.getName());
+            FileUtils.deleteQuietly(entry);
+        }
+    }
+
+    private static int getCount(File entry) {
+        String name = StringUtils.removeEnd(entry.getName(), ENTRY_EXTENSION);
+        return Integer.parseInt(name.substring(name.indexOf(COUNT_SEPARATOR) + 1));
+    }
+
+    private static void copy(File source, File target) throws IOException {
+        FileInputStream inputStream = null;
+        FileOutputStream outputStream = null;
+        try {
+            inputStream = new FileInputStream(source);
+            outputStream = new FileOutputStream(target);
+            FileChannel inputChannel = inputStream.getChannel();
+            FileChannel outputChannel = outputStream.getChannel();
+            long size = inputChannel.size();
+            long position = 0;
+            while (position < size) {
+                position += inputChannel.transferTo(position, size - position, outputChannel);
+            }
+            outputChannel.force(true);
+        } finally {
+            IoUtils.closeQuietly(inputStream);
+            IoUtils.closeQuietly(outputStream);
+        }
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ This file is part of AdGuard Content Blocker (https://github.com/AdguardTeam/ContentBlocker).
+ Copyright © 2018 AdGuard Content Blocker. All rights reserved.
+
+ AdGuard Content Blocker is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by the
+ Free Software Foundation, either version 3 of the License, or (at your option)
+ any later version.
+
+ AdGuard Content Blocker is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License along with
+ AdGuard Content Blocker.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.adguard.android.contentblocker.service.compiler;
+
+import com.adguard.android.contentblocker.commons.io.IoUtils;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps the differences between the consecutive snapshots, so that a browser which already has
+ * one of the recent generations reads only the changed rules.
+ * <p>
+ * The delta of the generation N contains the rules added to and removed from the generation N - 1,
+ * one per line with {@link #ADDED_PREFIX} or {@link #REMOVED_PREFIX}.
+ * Only the last {@link #MAX_GENERATIONS} deltas are kept.
+ */
+class SnapshotHistory {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SnapshotHistory.class);
+
+    /**
+     * Header of the merged delta, followed by the generations it is between
+     */
+    static final String DELTA_HEADER = "! Delta:";
+    static final char ADDED_PREFIX = '+';
+    static final char REMOVED_PREFIX = '-';
+
+    private static final int MAX_GENERATIONS = 10;
+    private static final String DELTA_EXTENSION = ".delta.";
+    private static final String TEMP_EXTENSION = ".tmp";
+    private static final String ENCODING = "UTF-8";
+    private static final String LINE_SEPARATOR = "\n";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final byte LINE_FEED = '\n';
+    private static final int PREFIX_LENGTH = 1;
+    private static final int OTHER_FILE = 0;
+    private static final int FILE = 1;
+
+    private final File filesDir;
+    private final String fileName;
+
+    /**
+     * Creates an instance of the history
+     *
+     * @param filesDir Directory to keep deltas in
+     * @param fileName Name of the snapshot file
+     */
+    SnapshotHistory(File filesDir, String fileName) {
+        this.filesDir = filesDir;
+        this.fileName = fileName;
+    }
+
+    /**
+     * Writes the delta between two snapshots into a temporary file.
+     * The compiled rules are unique, so the snapshots are compared as sets of lines.
+     * Only the hashes of the lines are kept in memory, see {@link SegmentDeduplicator}.
+     *
+     * @param previousSnapshot Snapshot of the previous generation
+     * @param snapshot         New snapshot
+     * @param generation       Generation of the new snapshot
+     * @return Temporary file to pass to {@link #commit(File, long)}
+     * @throws IOException If the snapshots cannot be read or the delta cannot be written
+     */
+    File prepare(File previousSnapshot, File snapshot, long generation) throws IOException {
+        File tempFile = new File(getDeltaFile(generation).getPath() + TEMP_EXTENSION);
+
+        FileOutputStream outputStream = null;
+        OutputStream out = null;
+        try {
+            outputStream = new FileOutputStream(tempFile);
+            out = new BufferedOutputStream(outputStream, BUFFER_SIZE);
+            writeMissingLines(snapshot, previousSnapshot, ADDED_PREFIX, out);
+            writeMissingLines(previousSnapshot, snapshot, REMOVED_PREFIX, out);
+            out.flush();
+            outputStream.getFD().sync();
+        } catch (IOException ex) {
+            IoUtils.closeQuietly(out);
+            FileUtils.deleteQuietly(tempFile);
+            throw ex;
+        } finally {
+            IoUtils.closeQuietly(out);
+            IoUtils.closeQuietly(outputStream);
+        }
+        return tempFile;
+    }
+
+    /**
+     * Saves the prepared delta and drops the deltas which are too old or left from another history
+     *
+     * @param tempFile   Delta prepared with {@link #prepare(File, File, long)} or null if there is none
+     * @param generation Generation of the published snapshot
+     */
+    void commit(File tempFile, long generation) {
+        if (tempFile != null && !tempFile.renameTo(getDeltaFile(generation))) {
+            FileUtils.deleteQuietly(tempFile);
+            LOG.warn("Cannot save delta {} of {}", generation, fileName);
+        }
+
+        File[] files = filesDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        String prefix = fileName + DELTA_EXTENSION;
+        for (File file : files) {
+            if (!file.getName().startsWith(prefix)) {
+                continue;
+            }
+            long deltaGeneration = parseGeneration(file.getName().substring(prefix.length()));
+            if (deltaGeneration <= generation - MAX_GENERATIONS || deltaGeneration > generation) {
+                FileUtils.deleteQuietly(file);
+            }
+        }
+    }
+
+    /**
+     * Merges the deltas since the specified generation into a single one.
+     * A rule which was added and then removed again (or vice versa) is dropped from the result.
+     * <p>
+     * Every rule is added and removed in turns, so it has changed since the generation only if
+     * its last change is the same as the first one. The deltas are read twice, first from the oldest
+     * to find the first changes of the rules, then from the newest to find the last ones.
+     * Only the hashes of the lines are kept in memory, see {@link SegmentDeduplicator}.
+     *
+     * @param sinceGeneration   Generation the browser has
+     * @param currentGeneration Generation of the current snapshot
+     * @param output            Output file
+     * @return true if the delta has been written, false if the history does not go that far back
+     * @throws IOException If the deltas cannot be read or the output cannot be written
+     */
+    boolean merge(long sinceGeneration, long currentGeneration, File output) throws IOException {
+        // Generations start with 1, zero is reported for the snapshots served from another profile
+        if (sinceGeneration < 1 || sinceGeneration > currentGeneration || sinceGeneration < currentGeneration - MAX_GENERATIONS + 1) {
+            return false;
+        }
+
+        List<FileChannel> channels = new ArrayList<>();
+        OutputStream out = null;
+        try {
+            for (long generation = sinceGeneration + 1; generation <= currentGeneration; generation++) {
+                File deltaFile = getDeltaFile(generation);
+                if (!deltaFile.isFile()) {
+                    return false;
+                }
+                channels.add(new FileInputStream(deltaFile).getChannel());
+            }
+
+            // Rules are compared without the change prefix, the first changes are compared with it
+            SegmentDeduplicator changedRules = new SegmentDeduplicator(channels, PREFIX_LENGTH);
+            SegmentDeduplicator firstChanges = new SegmentDeduplicator(channels);
+            for (int i = 0; i < channels.size(); i++) {
+                SegmentLineReader reader = openLines(channels.get(i));
+                while (reader.next()) {
+                    long ref = SegmentDeduplicator.ref(i, reader.getPosition());
+                    if (reader.getLength() >= PREFIX_LENGTH && changedRules.add(reader, ref)) {
+                        firstChanges.add(reader, ref);
+                    }
+                }
+            }
+
+            out = new BufferedOutputStream(new FileOutputStream(output), BUFFER_SIZE);
+            out.write((DELTA_HEADER + " " + sinceGeneration + " " + currentGeneration + LINE_SEPARATOR).getBytes(ENCODING));
+            SegmentDeduplicator lastChangedRules = new SegmentDeduplicator(channels, PREFIX_LENGTH);
+            for (int i = channels.size() - 1; i >= 0; i--) {
+                SegmentLineReader reader = openLines(channels.get(i));
+                while (reader.next()) {
+                    long ref = SegmentDeduplicator.ref(i, reader.getPosition());
+                    if (reader.getLength() >= PREFIX_LENGTH && lastChangedRules.add(reader, ref)
+                            && !firstChanges.add(reader, ref)) {
+                        out.write(reader.getBuffer(), reader.getStart(), reader.getLength());
+                        out.write(LINE_FEED);
+                    }
+                }
+            }
+            out.flush();
+        } finally {
+            IoUtils.closeQuietly(out);
+            for (FileChannel channel : channels) {
+                IoUtils.closeQuietly(channel);
+            }
+        }
+        return true;
+    }
+
+    private File getDeltaFile(long generation) {
+        return new File(filesDir, fileName + DELTA_EXTENSION + generation);
+    }
+
+    private static long parseGeneration(String value) {
+        return StringUtils.isNumeric(value) ? Long.parseLong(value) : -1;
+    }
+
+    /**
+     * Writes the lines of the file which are not in the other file, in the order of the file
+     *
+     * @param file      File to write the lines of
+     * @param otherFile File to look the lines up in
+     * @param prefix    Prefix of the written lines
+     * @param out       Stream to write to
+     */
+    private static void writeMissingLines(File file, File otherFile, char prefix, OutputStream out) throws IOException {
+        FileInputStream otherStream = null;
+        FileInputStream inputStream = null;
+        try {
+            otherStream = new FileInputStream(otherFile);
+            inputStream = new FileInputStream(file);
+            List<FileChannel> channels = Arrays.asList(otherStream.getChannel(), inputStream.getChannel());
+            SegmentDeduplicator deduplicator = new SegmentDeduplicator(channels);
+
+            SegmentLineReader reader = new SegmentLineReader(channels.get(OTHER_FILE), BUFFER_SIZE);
+            while (reader.next()) {
+                deduplicator.add(reader, SegmentDeduplicator.ref(OTHER_FILE, reader.getPosition()));
+            }
+
+            reader = new SegmentLineReader(channels.get(FILE), BUFFER_SIZE);
+            while (reader.next()) {
+                if (deduplicator.add(reader, SegmentDeduplicator.ref(FILE, reader.getPosition()))) {
+                    out.write(prefix);
+                    out.write(reader.getBuffer(), reader.getStart(), reader.getLength());
+                    out.write(LINE_FEED);
+                }
+            }
+        } finally {
+            IoUtils.closeQuietly(inputStream);
+            IoUtils.closeQuietly(otherStream);
+        }
+    }
+
+    /**
+     * Reads the delta lines from the beginning of the file
+     */
+    private static SegmentLineReader openLines(FileChannel channel) throws IOException {
+        channel.position(0);
+        return new SegmentLineReader(channel, BUFFER_SIZE);
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ This file is part of AdGuard Content Blocker (https://github.com/AdguardTeam/ContentBlocker).
+ Copyright © 2018 AdGuard Content Blocker. All rights reserved.
+
+ AdGuard Content Blocker is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by the
+ Free Software Foundation, either version 3 of the License, or (at your option)
+ any later version.
+
+ AdGuard Content Blocker is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License along with
+ AdGuard Content Blocker.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.adguard.android.contentblocker.service.compiler;
+
+/**
+ * Metadata of the published snapshot, it lets the browsers find out if the filters have changed
+ * without reading the whole file
+ */
+public class SnapshotMetadata {
+
+    private String hash;
+    private int ruleCount;
+    private long size;
+    private long generation;
+
+    public SnapshotMetadata() {
+    }
+
+    /**
+     * Creates snapshot metadata
+     *
+     * @param hash       Hex-encoded MD5 of the snapshot file
+     * @param ruleCount  Count of the rules in the snapshot
+     * @param size       Size of the snapshot file in bytes
+     * @param generation Number of the snapshot, it grows with every publish
+     */
+    public SnapshotMetadata(String hash, int ruleCount, long size, long generation) {
+        this.hash = hash;
+        this.ruleCount = ruleCount;
+        this.size = size;
+        this.generation = generation;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public int getRuleCount() {
+        return ruleCount;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ This file is part of AdGuard Content Blocker (https://github.com/AdguardTeam/ContentBlocker).
+ Copyright © 2018 AdGuard Content Blocker. All rights reserved.
+
+ AdGuard Content Blocker is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by the
+ Free Software Foundation, either version 3 of the License, or (at your option)
+ any later version.
+
+ AdGuard Content Blocker is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License along with
+ AdGuard Content Blocker.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.adguard.android.contentblocker.service.compiler;
+
+import org.apache.commons.io.FileUtils;
+import org.codehaus.jackson.annotate.JsonAutoDetect;
+import org.codehaus.jackson.annotate.JsonMethod;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Keeps the compiled filters file served to the browsers.
+ * <p>
+ * A new snapshot is compiled into a temporary file which is then swapped in with
+ * an atomic rename. The previous snapshot is kept, so a reader that comes in
+ * between the renames, or after a crash in the middle of the swap,
+ * still gets a complete file.
+ * <p>
+ * Every snapshot is published along with its {@link SnapshotMetadata} and the delta
+ * from the previous generation, see {@link SnapshotHistory}.
+ * <p>
+ * Swapping the snapshots in and reading the metadata and the deltas are synchronized on the instance,
+ * so there must be a single instance for every snapshot file, see
+ * {@link com.adguard.android.contentblocker.service.FilterService#getSnapshotStore}.
+ */
+public class SnapshotStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SnapshotStore.class);
+
+    private static final String PREVIOUS_EXTENSION = ".prev";
+    private static final String TEMP_EXTENSION = ".tmp";
+    private static final String METADATA_EXTENSION = ".meta";
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    static {
+        OBJECT_MAPPER.setVisibility(JsonMethod.ALL, JsonAutoDetect.Visibility.NONE);
+        OBJECT_MAPPER.setVisibility(JsonMethod.FIELD, JsonAutoDetect.Visibility.ANY);
+    }
+
+    private final File currentFile;
+    private final File previousFile;
+    private final File tempFile;
+    private final File metadataFile;
+    private final SnapshotHistory history;
+    private final Object publishLock = new Object();
+
+    /**
+     * Creates an instance of the snapshot store
+     *
+     * @param filesDir Directory to keep snapshots in
+     * @param fileName Name of the snapshot file
+     */
+    public SnapshotStore(File filesDir, String fileName) {
+        this.currentFile = new File(filesDir, fileName);
+        this.previousFile = new File(filesDir, fileName + PREVIOUS_EXTENSION);
+        this.tempFile = new File(filesDir, fileName + TEMP_EXTENSION);
+        this.metadataFile = new File(filesDir, fileName + METADATA_EXTENSION);
+        this.history = new SnapshotHistory(filesDir, fileName);
+    }
+
+    /**
+     * Creates an empty temporary file to compile a new snapshot into.
+     * Any leftovers of an interrupted compilation are dropped.
+     *
+     * @return Temporary file
+     */
+    public File createTempFile() {
+        FileUtils.deleteQuietly(tempFile);
+        return tempFile;
+    }
+
+    /**
+     * Publishes the compiled snapshot.
+     * The temporary file must be fully written and synced to disk at this point.
+     * If the snapshot is the same as the current one (restored from the cache, for instance),
+     * it is dropped and the generation stays the same.
+     * <p>
+     * The hash and the delta are calculated before the snapshot is swapped in, only the swap itself
+     * is done under the lock of the readers, so they are not blocked for long.
+     *
+     * @param compiledFile Temporary file returned by {@link #createTempFile()}
+     * @param ruleCount    Count of the rules in the compiled file
+     * @throws IOException If the snapshot cannot be swapped in
+     */
+    public void publish(File compiledFile, int ruleCount) throws IOException {
+        synchronized (publishLock) {
+            // The metadata is prepared first, so that it is swapped in right after the snapshot
+            SnapshotMetadata previousMetadata = getMetadata();
+            String hash = Fingerprint.ofFile(compiledFile);
+            if (previousMetadata != null && hash.equals(previousMetadata.getHash()) && currentFile.isFile()) {
+                LOG.info("Snapshot {} of {} has not changed", previousMetadata.getGeneration(), currentFile.getName());
+                FileUtils.deleteQuietly(compiledFile);
+                return;
+            }
+
+            long generation = previousMetadata == null ? 1 : previousMetadata.getGeneration() + 1;
+            SnapshotMetadata metadata = new SnapshotMetadata(hash, ruleCount, compiledFile.length(), generation);
+            File metadataTempFile = new File(metadataFile.getPath() + TEMP_EXTENSION);
+            OBJECT_MAPPER.writeValue(metadataTempFile, metadata);
+
+            // The delta is made only from the snapshot the metadata belongs to.
+            // The previous one is a generation older, so a delta from it would not match the generations.
+            File deltaTempFile = null;
+            if (previousMetadata != null && currentFile.isFile()) {
+                try {
+                    deltaTempFile = history.prepare(currentFile, compiledFile, generation);
+                } catch (IOException ex) {
+                    LOG.warn("Cannot calculate delta {} of {}:\r\n", generation, currentFile.getName(), ex);
+                }
+            }
+
+            synchronized (this) {
+                swap(compiledFile, metadataTempFile, deltaTempFile, generation);
+            }
+            LOG.info("Published snapshot {} of {}, {} bytes", generation, currentFile.getName(), currentFile.length());
+        }
+    }
+
+    /**
+     * Swaps in the snapshot along with its delta and metadata
+     */
+    private void swap(File compiledFile, File metadataTempFile, File deltaTempFile, long generation) throws IOException {
+        if (currentFile.exists()) {
+            FileUtils.deleteQuietly(previousFile);
+            if (!currentFile.renameTo(previousFile)) {
+                LOG.warn("Cannot keep the previous snapshot of {}", currentFile.getName());
+            }
+        }
+
+        if (!compiledFile.renameTo(currentFile)) {
+            FileUtils.deleteQuietly(metadataTempFile);
+            FileUtils.deleteQuietly(deltaTempFile);
+            throw new IOException("Cannot publish snapshot " + currentFile.getName());
+        }
+        // The delta goes before the metadata, so that the current generation always has one
+        history.commit(deltaTempFile, generation);
+        if (!metadataTempFile.renameTo(metadataFile)) {
+            LOG.warn("Cannot save metadata of {}", currentFile.getName());
+        }
+    }
+
+    /**
+     * Gets metadata of the current snapshot.
+     * It is read under the same lock the snapshot is swapped in with, so the hash, the rule count
+     * and the generation always describe the same published snapshot.
+     *
+     * @return Metadata or null if no snapshot has been published yet
+     */
+    public synchronized SnapshotMetadata getMetadata() {
+        if (!metadataFile.isFile()) {
+            return null;
+        }
+
+        try {
+            return OBJECT_MAPPER.readValue(metadataFile, SnapshotMetadata.class);
+        } catch (Exception ex) {
+            LOG.warn("Cannot read metadata of {}:\r\n", currentFile.getName(), ex);
+            return null;
+        }
+    }
+
+    /**
+     * Writes the rules added and removed since the specified generation.
+     * The output starts with the {@link SnapshotHistory#DELTA_HEADER} line followed by
+     * the rules prefixed with '+' or '-'.
+     *
+     * @param sinceGeneration Generation the browser has
+     * @param output          Output file
+     * @return true if the delta has been written, false if the full snapshot must be read instead
+     */
+    public synchronized boolean writeDelta(long sinceGeneration, File output) {
+        SnapshotMetadata metadata = getMetadata();
+        if (metadata == null) {
+            return false;
+        }
+
+        try {
+            return history.merge(sinceGeneration, metadata.getGeneration(), output);
+        } catch (IOException ex) {
+            LOG.warn("Cannot merge deltas of {} since {}:\r\n", currentFile.getName(), sinceGeneration, ex);
+            return false;
+        }
+    }
+
+    /**
+     * Gets the file with the latest complete snapshot
+     *
+     * @return Current snapshot, previous snapshot if the current one is being swapped, or null if there are none
+     */
+    public File getSnapshotFile() {
+        if (currentFile.isFile()) {
+            return currentFile;
+        }
+        if (previousFile.isFile()) {
+            return previousFile;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ This file is part of AdGuard Content Blocker (https://github.com/AdguardTeam/ContentBlocker).
+ Copyright © 2018 AdGuard Content Blocker. All rights reserved.
+
+ AdGuard Content Blocker is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by the
+ Free Software Foundation, either version 3 of the License, or (at your option)
+ any later version.
+
+ AdGuard Content Blocker is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License along with
+ AdGuard Content Blocker.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.adguard.android.contentblocker.service.compiler;
+
+import com.adguard.android.contentblocker.commons.rules.RuleValidator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Rule source with the user filter rules
+ */
+public class UserRulesSource implements RuleSource {
+
+    private static final Logger LOG = LoggerFactory.getLogger(UserRulesSource.class);
+
+    private static final String KEY = "user_rules";
+
+    private final List<String> userRules;
+    private final Set<String> disabledUserRules;
+
+    /**
+     * Creates an instance of the user rules source
+     *
+     * @param userRules         User rules
+     * @param disabledUserRules Disabled user rules
+     */
+    public UserRulesSource(List<String> userRules, Set<String> disabledUserRules) {
+        this.userRules = userRules;
+        this.disabledUserRules = disabledUserRules;
+    }
+
+    @Override
+    public String getKey() {
+        return KEY;
+    }
+
+    @Override
+    public String getFingerprint() {
+        return Fingerprint.of(userRules, disabledUserRules) + ":" + RuleValidator.VERSION;
+    }
+
+    @Override
+    public void compile(SegmentSink sink) throws IOException {
+        for (String userRule : userRules) {
+            if (disabledUserRules.contains(userRule)) {
+                continue;
+            }
+
+            RuleValidator.Reason reason = RuleValidator.USER_RULES.validate(userRule);
+            if (reason == RuleValidator.Reason.VALID) {
+                sink.add(userRule);
+            } else {
+                LOG.debug("Rejected user rule {}: {}", userRule, reason);
+                sink.reject();
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ This file is part of AdGuard Content Blocker (https://github.com/AdguardTeam/ContentBlocker).
+ Copyright © 2018 AdGuard Content Blocker. All rights reserved.
+
+ AdGuard Content Blocker is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by the
+ Free Software Foundation, either version 3 of the License, or (at your option)
+ any later version.
+
+ AdGuard Content Blocker is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License along with
+ AdGuard Content Blocker.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.adguard.android.contentblocker.service.compiler;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Rule source with the whitelisted domains
+ */
+public class WhitelistSource implements RuleSource {
+
+    private static final String KEY = "whitelist";
+
+    private final List<String> whitelist;
+    private final Set<String> disabledWhitelistRules;
+
+    /**
+     * Creates an instance of the whitelist source
+     *
+     * @param whitelist              Whitelisted domains
+     * @param disabledWhitelistRules Disabled whitelist items
+     */
+    public WhitelistSource(List<String> whitelist, Set<String> disabledWhitelistRules) {
+        this.whitelist = whitelist;
+        this.disabledWhitelistRules = disabledWhitelistRules;
+    }
+
+    @Override
+    public String getKey() {
+        return KEY;
+    }
+
+    @Override
+    public String getFingerprint() {
+        return Fingerprint.of(whitelist, disabledWhitelistRules);
+    }
+
+    @Override
+    public void compile(SegmentSink sink) throws IOException {
+        for (String whitelistRule : whitelist) {
+            if (!disabledWhitelistRules.contains(whitelistRule)) {
+                sink.add(createWhiteListRule(whitelistRule));
+            }
+        }
+    }
+
+    /**
+     * Creates whilelist rule from domain name
+     *
+     * @param domain Domain name
+     * @return Url filter rule text
+     */
+    private static String createWhiteListRule(String domain) {
+        return "@@{0}^$document".replace("{0}", domain);
+    }
+}
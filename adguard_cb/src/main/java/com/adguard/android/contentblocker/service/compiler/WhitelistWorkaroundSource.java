@@ -0,0 +1,95 @@
+/*
+ This file is part of AdGuard Content Blocker (https://github.com/AdguardTeam/ContentBlocker).
+ Copyright © 2018 AdGuard Content Blocker. All rights reserved.
+
+ AdGuard Content Blocker is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by the
+ Free Software Foundation, either version 3 of the License, or (at your option)
+ any later version.
+
+ AdGuard Content Blocker is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License along with
+ AdGuard Content Blocker.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.adguard.android.contentblocker.service.compiler;
+
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Additional whitelist rules for the browsers that do not support the $document modifier.
+ * <p>
+ * The {@code @@http*$domain=} rules of all the whitelisted domains are grouped into
+ * {@code @@http*$domain=a.com|b.com|c.com}, split when the rule gets longer than
+ * {@link RuleOptimizer#MAX_RULE_LENGTH}. {@code $elemhide} rules are kept one per domain,
+ * as their meaning depends on the URL of the page rather than on its domain.
+ */
+public class WhitelistWorkaroundSource implements RuleSource {
+
+    private static final String KEY = "whitelist_workaround";
+    // Changes when the compiled rules change, so that the old segment is recompiled
+    private static final int FORMAT_VERSION = 2;
+
+    private static final String DOMAIN_RULE_PREFIX = "@@http*$domain=";
+    private static final char DOMAINS_SEPARATOR = '|';
+
+    private final List<String> whitelist;
+    private final Set<String> disabledWhitelistRules;
+
+    /**
+     * Creates an instance of the whitelist workaround source
+     *
+     * @param whitelist              Whitelisted domains
+     * @param disabledWhitelistRules Disabled whitelist items
+     */
+    public WhitelistWorkaroundSource(List<String> whitelist, Set<String> disabledWhitelistRules) {
+        this.whitelist = whitelist;
+        this.disabledWhitelistRules = disabledWhitelistRules;
+    }
+
+    @Override
+    public String getKey() {
+        return KEY;
+    }
+
+    @Override
+    public String getFingerprint() {
+        return Fingerprint.of(whitelist, disabledWhitelistRules) + ":" + FORMAT_VERSION;
+    }
+
+    @Override
+    public void compile(SegmentSink sink) throws IOException {
+        Set<String> domains = new LinkedHashSet<>();
+        for (String whitelistRule : whitelist) {
+            if (!disabledWhitelistRules.contains(whitelistRule)) {
+                domains.add(whitelistRule);
+            }
+        }
+
+        // TODO Should remove this after the Ya Browser browser add support $document modifier
+        StringBuilder sb = new StringBuilder(DOMAIN_RULE_PREFIX);
+        for (String domain : domains) {
+            if (sb.length() > DOMAIN_RULE_PREFIX.length()
+                    && sb.length() + domain.length() + 1 > RuleOptimizer.MAX_RULE_LENGTH) {
+                sink.add(sb.toString());
+                sb.setLength(DOMAIN_RULE_PREFIX.length());
+            }
+            if (sb.length() > DOMAIN_RULE_PREFIX.length()) {
+                sb.append(DOMAINS_SEPARATOR);
+            }
+            sb.append(domain);
+        }
+        if (sb.length() > DOMAIN_RULE_PREFIX.length()) {
+            sink.add(sb.toString());
+        }
+
+        for (String domain : domains) {
+            sink.add(String.format("@@||%s^$elemhide", domain));
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ This file is part of AdGuard Content Blocker (https://github.com/AdguardTeam/ContentBlocker).
+ Copyright © 2018 AdGuard Content Blocker. All rights reserved.
+
+ AdGuard Content Blocker is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by the
+ Free Software Foundation, either version 3 of the License, or (at your option)
+ any later version.
+
+ AdGuard Content Blocker is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License along with
+ AdGuard Content Blocker.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.adguard.android.contentblocker.ui;
+
+import android.os.Bundle;
+import androidx.appcompat.app.ActionBar;
+import androidx.appcompat.app.AppCompatActivity;
+import android.widget.TextView;
+
+import com.adguard.android.contentblocker.R;
+import com.adguard.android.contentblocker.ServiceLocator;
+import com.adguard.android.contentblocker.commons.concurrent.DispatcherThreadPool;
+import com.adguard.android.contentblocker.service.FilterService;
+import com.adguard.android.contentblocker.service.compiler.CompileStats;
+
+import java.lang.ref.WeakReference;
+import java.text.DateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Hidden screen with the stats of the last filters compilations.
+ * It is opened by a long click on the "Clear filters cache" item of the settings.
+ */
+public class DiagnosticsActivity extends AppCompatActivity {
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_diagnostics);
+
+        ActionBar actionBar = getSupportActionBar();
+        if (actionBar != null) {
+            // Show the Up button in the action bar.
+            actionBar.setDisplayHomeAsUpEnabled(true);
+        }
+
+        TextView statsTextView = findViewById(R.id.compileStatsTextView);
+        statsTextView.setText(R.string.please_wait);
+
+        // Stats are kept in a JSON file, so they are read and formatted in the background
+        FilterService filterService = ServiceLocator.getInstance(getApplicationContext()).getFilterService();
+        String emptyText = getString(R.string.diagnostics_no_compilations);
+        WeakReference<DiagnosticsActivity> activityReference = new WeakReference<>(this);
+        DispatcherThreadPool.getInstance().submit(() -> {
+            String text = formatStats(filterService.getCompileStats(), emptyText);
+            DiagnosticsActivity activity = activityReference.get();
+            if (activity != null) {
+                activity.runOnUiThread(() -> activity.showStats(text));
+            }
+        });
+    }
+
+    private void showStats(String text) {
+        if (isFinishing() || isDestroyed()) {
+            return;
+        }
+        ((TextView) findViewById(R.id.compileStatsTextView)).setText(text);
+    }
+
+    private static String formatStats(List<CompileStats> records, String emptyText) {
+        if (records.isEmpty()) {
+            return emptyText;
+        }
+
+        DateFormat dateFormat = DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.MEDIUM);
+        StringBuilder sb = new StringBuilder();
+        for (CompileStats stats : records) {
+            sb.append(dateFormat.format(new Date(stats.getTimestamp())));
+            sb.append(String.format(Locale.US, ", %d ms\n", stats.getWallMillis()));
+
+            sb.append("stage: wall/cpu ms, rules in/out, bytes\n");
+            for (CompileStats.Stage stage : stats.getStages()) {
+                sb.append(String.format(Locale.US, "  %s: %d/%d, %d/%d, %d\n", stage.getName(),
+                        stage.getWallMillis(), stage.getCpuMillis(),
+                        stage.getRulesIn(), stage.getRulesOut(), stage.getBytes()));
+            }
+
+            sb.append("source: rules in, rejected, duplicates, rules out\n");
+            for (CompileStats.Source source : stats.getSources()) {
+                int duplicates = source.getRulesIn() - source.getRejected() - source.getRulesOut();
+                sb.append(String.format(Locale.US, "  %s%s: %d, %d, %d, %d\n", source.getKey(),
+                        source.isRecompiled() ? " (recompiled)" : "",
+                        source.getRulesIn(), source.getRejected(), duplicates, source.getRulesOut()));
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+}
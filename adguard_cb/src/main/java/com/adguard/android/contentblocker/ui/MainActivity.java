@@ -17,12 +17,10 @@
 package com.adguard.android.contentblocker.ui;
 
 import android.annotation.SuppressLint;
-import android.app.Activity;
 import android.app.AlertDialog;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.res.Configuration;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
 import androidx.annotation.NonNull;
@@ -54,6 +52,7 @@ import com.adguard.android.contentblocker.onboarding.OnboardingActivity;
 import com.adguard.android.contentblocker.service.FilterService;
 import com.adguard.android.contentblocker.service.PreferencesService;
 import com.adguard.android.contentblocker.ui.utils.ActivityUtils;
+import com.adguard.android.contentblocker.ui.utils.ApplySettingsUtils;
 import com.adguard.android.contentblocker.ui.utils.NavigationHelper;
 import com.adguard.android.contentblocker.ui.utils.ReportToolUtils;
 
@@ -340,10 +339,15 @@ public class MainActivity extends AppCompatActivity implements DrawerLayout.Draw
         ((TextView) findViewById(R.id.rulesCountTextView)).setText(String.format("%d", filterRuleCount));
 
         if (filterRuleCount == 0) {
-            new ApplyAndRefreshTask(filterService, this).execute();
+            filterService.scheduleApplyNewSettings(ApplySettingsUtils.onUiThread(this, MainActivity::refreshRulesCount));
         }
     }
 
+    @SuppressLint("DefaultLocale")
+    private void refreshRulesCount() {
+        ((TextView) findViewById(R.id.rulesCountTextView)).setText(String.format("%d", filterService.getFilterRuleCount()));
+    }
+
     @Override
     public void onDrawerSlide(@NonNull View drawerView, float slideOffset) {
         if (slideOffset > 0.5f && slideOffset < 0.7f) {
@@ -455,30 +459,6 @@ public class MainActivity extends AppCompatActivity implements DrawerLayout.Draw
         }).show();
     }
 
-    private static class ApplyAndRefreshTask extends AsyncTask<Void, Void, Integer> {
-
-        private final FilterService service;
-        @SuppressLint("StaticFieldLeak")
-        private final Activity activity;
-
-        ApplyAndRefreshTask(FilterService service, Activity activity) {
-            this.service = service;
-            this.activity = activity;
-        }
-
-        @Override
-        protected Integer doInBackground(Void... params) {
-            service.applyNewSettings();
-            return service.getFilterRuleCount();
-        }
-
-        @SuppressLint("DefaultLocale")
-        @Override
-        protected void onPostExecute(Integer filterRuleCount) {
-            ((TextView) activity.findViewById(R.id.rulesCountTextView)).setText(String.format("%d", filterRuleCount));
-        }
-    }
-
     private class FiltersMenuItemClickListener implements PopupMenu.OnMenuItemClickListener {
         @Override
         public boolean onMenuItemClick(MenuItem item) {
@@ -27,7 +27,7 @@ import com.adguard.android.contentblocker.ServiceLocator;
 import com.adguard.android.contentblocker.R;
 import com.adguard.android.contentblocker.service.FilterService;
 import com.adguard.android.contentblocker.service.PreferencesService;
-import com.adguard.android.contentblocker.ui.utils.ApplyAndRefreshTask;
+import com.adguard.android.contentblocker.ui.utils.ApplySettingsUtils;
 import com.adguard.android.contentblocker.ui.utils.NavigationHelper;
 import com.adguard.android.contentblocker.ui.utils.ProgressDialogUtils;
 
@@ -66,7 +66,7 @@ public class SettingsActivity extends AppCompatActivity {
         showUsefulAdsView.setChecked(filterService.isShowUsefulAds());
         showUsefulAdsView.setOnCheckedChangeListener((compoundButton, enable) -> {
             filterService.setShowUsefulAds(enable);
-            new ApplyAndRefreshTask(filterService, this).execute();
+            ApplySettingsUtils.applyWithProgress(this, filterService);
         });
 
         findViewById(R.id.show_useful_ads_wrapper).setOnClickListener(view ->
@@ -82,5 +82,10 @@ public class SettingsActivity extends AppCompatActivity {
 
             filterService.clearCacheAndUpdateFilters(progressDialog);
         });
+
+        findViewById(R.id.clear_filter_cache_wrapper).setOnLongClickListener(v -> {
+            NavigationHelper.redirectToActivity(SettingsActivity.this, DiagnosticsActivity.class);
+            return true;
+        });
     }
 }
@@ -44,7 +44,7 @@ import com.adguard.android.contentblocker.ServiceLocator;
 import com.adguard.android.contentblocker.R;
 import com.adguard.android.contentblocker.service.NotificationService;
 import com.adguard.android.contentblocker.ui.utils.AlertDialogUtils;
-import com.adguard.android.contentblocker.ui.utils.ApplyAndRefreshTask;
+import com.adguard.android.contentblocker.ui.utils.ApplySettingsUtils;
 import com.adguard.android.contentblocker.ui.utils.FilterRulesAdapter;
 import com.adguard.android.contentblocker.service.FilterService;
 import com.adguard.android.contentblocker.service.PreferencesService;
@@ -324,7 +324,7 @@ public class UserFilterActivity extends AppCompatActivity implements FilterServi
             filterService.enableUserRule(item, true);
             filterService.addUserRuleItem(item);
             updateFloatingButton();
-            new ApplyAndRefreshTask(filterService, UserFilterActivity.this).execute();
+            ApplySettingsUtils.applyWithProgress(UserFilterActivity.this, filterService);
         }
 
         @Override
@@ -334,7 +334,7 @@ public class UserFilterActivity extends AppCompatActivity implements FilterServi
             filterService.enableUserRule(item, true);
             filterService.setUserRules(getText());
             updateFloatingButton();
-            new ApplyAndRefreshTask(filterService, UserFilterActivity.this).execute();
+            ApplySettingsUtils.applyWithProgress(UserFilterActivity.this, filterService);
         }
 
         @Override
@@ -342,21 +342,21 @@ public class UserFilterActivity extends AppCompatActivity implements FilterServi
             super.replace(item, index);
             filterService.setUserRules(getText());
             updateFloatingButton();
-            new ApplyAndRefreshTask(filterService, UserFilterActivity.this).execute();
+            ApplySettingsUtils.applyWithProgress(UserFilterActivity.this, filterService);
         }
 
         @Override
         public void reload(List<String> values, Set<String> disabledItems) {
             super.reload(values, disabledItems);
             updateFloatingButton();
-            new ApplyAndRefreshTask(filterService, UserFilterActivity.this).execute();
+            ApplySettingsUtils.applyWithProgress(UserFilterActivity.this, filterService);
         }
 
         @Override
         protected void setItemChecked(String item, boolean checked) {
             super.setItemChecked(item, checked);
             filterService.enableUserRule(item, checked);
-            new ApplyAndRefreshTask(filterService, UserFilterActivity.this).execute();
+            ApplySettingsUtils.applyWithProgress(UserFilterActivity.this, filterService);
         }
     }
 }
@@ -36,7 +36,7 @@ import com.adguard.android.contentblocker.R;
 import com.adguard.android.contentblocker.ServiceLocator;
 import com.adguard.android.contentblocker.service.FilterService;
 import com.adguard.android.contentblocker.ui.utils.AlertDialogUtils;
-import com.adguard.android.contentblocker.ui.utils.ApplyAndRefreshTask;
+import com.adguard.android.contentblocker.ui.utils.ApplySettingsUtils;
 import com.adguard.android.contentblocker.ui.utils.FilterRulesAdapter;
 
 import org.apache.commons.lang3.StringUtils;
@@ -181,7 +181,7 @@ public class WhitelistActivity extends AppCompatActivity {
             // Make sure that the rule is not disabled
             filterService.enableWhitelistRule(item, true);
             filterService.addWhitelistItem(item);
-            new ApplyAndRefreshTask(filterService, WhitelistActivity.this).execute();
+            ApplySettingsUtils.applyWithProgress(WhitelistActivity.this, filterService);
             invalidateOptionsMenu();
         }
 
@@ -191,7 +191,7 @@ public class WhitelistActivity extends AppCompatActivity {
             // We do this just to make sure that there are no ghost records in the disabled rules list
             filterService.enableWhitelistRule(item, true);
             filterService.setWhiteList(getText());
-            new ApplyAndRefreshTask(filterService, WhitelistActivity.this).execute();
+            ApplySettingsUtils.applyWithProgress(WhitelistActivity.this, filterService);
             invalidateOptionsMenu();
         }
 
@@ -199,7 +199,7 @@ public class WhitelistActivity extends AppCompatActivity {
             super.remove(getItem(index));
             super.insert(item, index);
             filterService.setWhiteList(getText());
-            new ApplyAndRefreshTask(filterService, WhitelistActivity.this).execute();
+            ApplySettingsUtils.applyWithProgress(WhitelistActivity.this, filterService);
             invalidateOptionsMenu();
         }
 
@@ -207,7 +207,7 @@ public class WhitelistActivity extends AppCompatActivity {
         protected void setItemChecked(String item, boolean checked) {
             super.setItemChecked(item, checked);
             filterService.enableWhitelistRule(item, checked);
-            new ApplyAndRefreshTask(filterService, WhitelistActivity.this).execute();
+            ApplySettingsUtils.applyWithProgress(WhitelistActivity.this, filterService);
         }
     }
 }
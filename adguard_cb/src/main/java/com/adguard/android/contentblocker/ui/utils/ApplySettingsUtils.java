@@ -0,0 +1,83 @@
+/*
+ * This file is part of AdGuard Content Blocker (https://github.com/AdguardTeam/ContentBlocker).
+ * Copyright © 2018 AdGuard Content Blocker. All rights reserved.
+ * <p/>
+ * AdGuard Content Blocker is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by the
+ * Free Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ * <p/>
+ * AdGuard Content Blocker is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License along with
+ * AdGuard Content Blocker.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.adguard.android.contentblocker.ui.utils;
+
+import android.app.Activity;
+import android.app.ProgressDialog;
+
+import com.adguard.android.contentblocker.R;
+import com.adguard.android.contentblocker.service.FilterService;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * Helper class for applying the settings changed by the user.
+ * <p>
+ * The settings are applied in the background after a while, see {@link FilterService#scheduleApplyNewSettings(Runnable)},
+ * so the activity may be gone by then. It is held by a weak reference and the callbacks are skipped if it is finishing or destroyed.
+ */
+public class ApplySettingsUtils {
+
+    /**
+     * Schedules applying the new settings and shows the progress dialog until they are applied
+     *
+     * @param activity      Activity to show the dialog in
+     * @param filterService Filter service
+     */
+    public static void applyWithProgress(Activity activity, FilterService filterService) {
+        WeakReference<ProgressDialog> dialogReference = new WeakReference<>(ProgressDialogUtils.showProgressDialog(activity, -1, R.string.please_wait));
+        filterService.scheduleApplyNewSettings(onUiThread(activity, a -> ProgressDialogUtils.dismissProgressDialog(dialogReference.get())));
+    }
+
+    /**
+     * Creates a callback for {@link FilterService#scheduleApplyNewSettings(Runnable)} which runs on the UI thread of the activity.
+     * The action must not keep a reference to the activity itself, it gets the activity as an argument.
+     *
+     * @param activity Activity
+     * @param action   Action to run if the activity is still alive
+     * @param <T>      Type of the activity
+     * @return Callback to pass to the filter service
+     */
+    public static <T extends Activity> Runnable onUiThread(T activity, ActivityAction<T> action) {
+        WeakReference<T> activityReference = new WeakReference<>(activity);
+        return () -> {
+            T target = activityReference.get();
+            if (!isAlive(target)) {
+                return;
+            }
+            target.runOnUiThread(() -> {
+                // The activity may be destroyed while the action is waiting for the UI thread
+                if (isAlive(target)) {
+                    action.run(target);
+                }
+            });
+        };
+    }
+
+    private static boolean isAlive(Activity activity) {
+        return activity != null && !activity.isFinishing() && !activity.isDestroyed();
+    }
+
+    /**
+     * Action run with the activity which is still alive
+     *
+     * @param <T> Type of the activity
+     */
+    public interface ActivityAction<T extends Activity> {
+        void run(T activity);
+    }
+}
@@ -29,6 +29,7 @@ import android.widget.Filterable;
 import android.widget.TextView;
 
 import com.adguard.android.contentblocker.R;
+import com.adguard.android.contentblocker.commons.rules.RuleClassifier;
 
 import org.apache.commons.lang3.StringUtils;
 
@@ -251,17 +252,26 @@ public class FilterRulesAdapter extends BaseAdapter implements Filterable {
             return resources.getColor(R.color.ruleColorCommentLight);
         } else if (StringUtils.startsWith(rule, "@@")) {
             return resources.getColor(R.color.ruleColorWhitelistLight);
-        } else if (StringUtils.containsAny(rule, "#%#", "#@%#")) {
-            return resources.getColor(R.color.ruleColorJavaScriptLight);
-        } else if (StringUtils.containsAny(rule, "#$#", "#@$#")) {
-            return resources.getColor(R.color.ruleColorCssInjectLight);
-        } else if (StringUtils.containsAny(rule, "##", "#@#")) {
-            return resources.getColor(R.color.ruleColorCssLight);
-        } else if (StringUtils.containsAny(rule, "$$", "$@$")) {
-            return resources.getColor(R.color.ruleColorContentLight);
         }
 
-        return resources.getColor(R.color.ruleColorDefaultLight);
+        switch (RuleClassifier.classify(rule)) {
+            case SCRIPT:
+            case SCRIPT_EXCEPTION:
+                return resources.getColor(R.color.ruleColorJavaScriptLight);
+            case CSS_INJECT:
+            case CSS_INJECT_EXCEPTION:
+                return resources.getColor(R.color.ruleColorCssInjectLight);
+            case ELEMHIDE:
+            case ELEMHIDE_EXCEPTION:
+            case EXTENDED_CSS:
+            case EXTENDED_CSS_EXCEPTION:
+                return resources.getColor(R.color.ruleColorCssLight);
+            case CONTENT:
+            case CONTENT_EXCEPTION:
+                return resources.getColor(R.color.ruleColorContentLight);
+            default:
+                return resources.getColor(R.color.ruleColorDefaultLight);
+        }
     }
 
     /**
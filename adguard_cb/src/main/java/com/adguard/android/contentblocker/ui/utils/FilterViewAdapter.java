@@ -97,7 +97,7 @@ public class FilterViewAdapter extends BaseAdapter implements View.OnClickListen
         FilterList filterList = (FilterList) v.getTag();
         filterService.updateFilterEnabled(filterList, !filterList.isEnabled());
         ((CheckBox) v.findViewById(R.id.checkbox)).setChecked(filterList.isEnabled());
-        new ApplyAndRefreshTask(filterService, context).execute();
+        ApplySettingsUtils.applyWithProgress(context, filterService);
     }
 
     private CharSequence getFilterSummaryText(FilterList filter) {
@@ -14,4 +14,11 @@ filter_list_id INTEGER,
 language_code VARCHAR(2),
 filter_name VARCHAR(255),
 filter_description VARCHAR(1024)
+);
+
+CREATE TABLE http_cache (
+url VARCHAR(1024) PRIMARY KEY,
+etag VARCHAR(255),
+last_modified VARCHAR(255),
+content TEXT
 );
\ No newline at end of file
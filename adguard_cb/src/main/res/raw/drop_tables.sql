@@ -1,3 +1,4 @@
 DROP TABLE IF EXISTS filter_lists;
 DROP TABLE IF EXISTS filters_localization;
-DROP TABLE IF EXISTS traffic_stats;
\ No newline at end of file
+DROP TABLE IF EXISTS traffic_stats;
+DROP TABLE IF EXISTS http_cache;
\ No newline at end of file
@@ -0,0 +1,6 @@
+CREATE TABLE http_cache (
+url VARCHAR(1024) PRIMARY KEY,
+etag VARCHAR(255),
+last_modified VARCHAR(255),
+content TEXT
+);
\ No newline at end of file
@@ -0,0 +1,224 @@
+/*
+ This file is part of AdGuard Content Blocker (https://github.com/AdguardTeam/ContentBlocker).
+ Copyright © 2018 AdGuard Content Blocker. All rights reserved.
+
+ AdGuard Content Blocker is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by the
+ Free Software Foundation, either version 3 of the License, or (at your option)
+ any later version.
+
+ AdGuard Content Blocker is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License along with
+ AdGuard Content Blocker.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.adguard.android.contentblocker;
+
+import com.adguard.android.contentblocker.commons.ProductVersion;
+import com.adguard.android.contentblocker.db.FilterRuleDao;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Follows the patch chain against a local stand-in of the filters server
+ */
+public class ServiceApiClientPatchTest {
+
+    private static final String V1 = "! Title: Test\n! Version: 1.0.0\n! Diff-Path: patches/1.patch\n\n||a.com^\n";
+    private static final String V2 = "! Title: Test\n! Version: 1.0.1\n! Diff-Path: patches/2.patch\n\n||a.com^\n  ||b.com^\n";
+    private static final String V3 = "! Title: Test\n! Version: 1.0.2\n! Diff-Path: patches/3.patch\n\n  ||b.com^\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Map<String, String> responses = new HashMap<>();
+    private HttpServer server;
+    private String filterUrl;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String response = responses.get(exchange.getRequestURI().getPath());
+                if (response == null) {
+                    exchange.sendResponseHeaders(404, -1);
+                } else {
+                    byte[] bytes = response.getBytes(Charset.forName("UTF-8"));
+                    exchange.sendResponseHeaders(200, bytes.length);
+                    OutputStream outputStream = exchange.getResponseBody();
+                    outputStream.write(bytes);
+                    outputStream.close();
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+        filterUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/filters/1.txt";
+
+        responses.put("/filters/patches/1.patch", diff(V2, "d2 2", "a3 2", "! Version: 1.0.1", "! Diff-Path: patches/2.patch", "a5 1", "  ||b.com^"));
+        responses.put("/filters/patches/2.patch", diff(V3, "d2 2", "a3 2", "! Version: 1.0.2", "! Diff-Path: patches/3.patch", "d5 1"));
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testPatchChain() throws IOException {
+        RecordingWriter writer = new RecordingWriter();
+        assertTrue(download(V1, new ProductVersion("1.0.2"), writer));
+
+        assertEquals(Arrays.asList("! Title: Test", "! Version: 1.0.2", "! Diff-Path: patches/3.patch", "||b.com^"), writer.rules);
+        // The patched list is kept as it is for the next patch
+        assertEquals(V3, writer.rawText.toString());
+    }
+
+    @Test
+    public void testPatchChainLongList() throws IOException {
+        // The rules span several read buffers and the last one is not terminated
+        StringBuilder sb = new StringBuilder();
+        List<String> rules = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            String rule = "||rule" + i + ".example.org^";
+            sb.append(i == 0 ? "" : "\r\n").append(rule);
+            rules.add(rule);
+        }
+        String suffix = sb.toString();
+        String v2 = V2.replace("  ||b.com^\n", "  ||b.com^\n" + suffix);
+        String v3 = V3 + suffix;
+        responses.put("/filters/patches/1.patch", diff(v2, "d2 2", "a3 2", "! Version: 1.0.1", "! Diff-Path: patches/2.patch", "a5 1", "  ||b.com^"));
+        responses.put("/filters/patches/2.patch", diff(v3, "d2 2", "a3 2", "! Version: 1.0.2", "! Diff-Path: patches/3.patch", "d5 1"));
+
+        RecordingWriter writer = new RecordingWriter();
+        assertTrue(download(V1 + suffix, new ProductVersion("1.0.2"), writer));
+
+        List<String> expected = new ArrayList<>(Arrays.asList("! Title: Test", "! Version: 1.0.2", "! Diff-Path: patches/3.patch", "||b.com^"));
+        expected.addAll(rules);
+        assertEquals(expected, writer.rules);
+        assertEquals(v3, writer.rawText.toString());
+    }
+
+    @Test
+    public void testVersionFallsShort() throws IOException {
+        RecordingWriter writer = new RecordingWriter();
+        assertFalse(download(V1, new ProductVersion("1.0.3"), writer));
+        assertTrue(writer.isEmpty());
+    }
+
+    @Test
+    public void testChecksumMismatch() throws IOException {
+        responses.put("/filters/patches/2.patch", diff(V3 + "\n", "d2 2", "a3 2", "! Version: 1.0.2", "! Diff-Path: patches/3.patch", "d5 1"));
+
+        RecordingWriter writer = new RecordingWriter();
+        assertFalse(download(V1, new ProductVersion("1.0.2"), writer));
+        assertTrue(writer.isEmpty());
+    }
+
+    @Test
+    public void testPatchDoesNotFit() throws IOException {
+        RecordingWriter writer = new RecordingWriter();
+        // The stored list has lost the blank line, so the line numbers are off
+        String base = V1.replace("\n\n", "\n");
+        assertFalse(download(base, new ProductVersion("1.0.2"), writer));
+        assertTrue(writer.isEmpty());
+    }
+
+    @Test
+    public void testNoPatch() throws IOException {
+        responses.clear();
+
+        RecordingWriter writer = new RecordingWriter();
+        assertFalse(download(V1, new ProductVersion("1.0.0"), writer));
+        assertTrue(writer.isEmpty());
+    }
+
+    /**
+     * Patches the list, the temporary files are expected to be deleted afterwards
+     */
+    private boolean download(String base, ProductVersion expectedVersion, FilterRuleDao.FilterRulesWriter writer) throws IOException {
+        InputStream patchBase = new ByteArrayInputStream(base.getBytes(Charset.forName("UTF-8")));
+        boolean patched = ServiceApiClient.downloadPatchedFilterRules(filterUrl, patchBase, folder.getRoot(), expectedVersion, writer);
+        assertEquals(0, folder.getRoot().list().length);
+        return patched;
+    }
+
+    private static String diff(String patched, String... commands) {
+        StringBuilder sb = new StringBuilder("diff checksum:").append(sha1(patched))
+                .append(" lines:").append(commands.length).append('\n');
+        for (String command : commands) {
+            sb.append(command).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String sha1(String text) {
+        try {
+            byte[] bytes = MessageDigest.getInstance("SHA-1").digest(text.getBytes(Charset.forName("UTF-8")));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : bytes) {
+                sb.append(String.format("%02x", b & 0xff));
+            }
+            return sb.toString();
+        } catch (Exception ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static class RecordingWriter implements FilterRuleDao.FilterRulesWriter {
+
+        private final List<String> rules = new ArrayList<>();
+        private final StringBuilder rawText = new StringBuilder();
+
+        @Override
+        public void onRawText(String text) {
+            rawText.append(text);
+        }
+
+        @Override
+        public void onRuleText(String ruleText) {
+            rules.add(ruleText);
+        }
+
+        @Override
+        public void commit() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        boolean isEmpty() {
+            return rules.isEmpty() && rawText.length() == 0;
+        }
+    }
+}
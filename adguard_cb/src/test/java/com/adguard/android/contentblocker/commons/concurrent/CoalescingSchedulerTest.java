@@ -0,0 +1,143 @@
+/*
+ This file is part of AdGuard Content Blocker (https://github.com/AdguardTeam/ContentBlocker).
+ Copyright © 2018 AdGuard Content Blocker. All rights reserved.
+
+ AdGuard Content Blocker is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by the
+ Free Software Foundation, either version 3 of the License, or (at your option)
+ any later version.
+
+ AdGuard Content Blocker is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License along with
+ AdGuard Content Blocker.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.adguard.android.contentblocker.commons.concurrent;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CoalescingSchedulerTest {
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private ScheduledExecutorService scheduledExecutorService;
+    private ExecutorService executorService;
+
+    @Before
+    public void setUp() {
+        scheduledExecutorService = Executors.newSingleThreadScheduledExecutor();
+        executorService = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        scheduledExecutorService.shutdownNow();
+        executorService.shutdownNow();
+    }
+
+    @Test
+    public void testDebounce() throws Exception {
+        long delayMillis = 200;
+        AtomicInteger runs = new AtomicInteger();
+        List<Long> runTimes = new CopyOnWriteArrayList<>();
+        CoalescingScheduler scheduler = new CoalescingScheduler(() -> {
+            runs.incrementAndGet();
+            runTimes.add(System.nanoTime());
+        }, delayMillis, scheduledExecutorService, executorService);
+
+        CountDownLatch callbacks = new CountDownLatch(5);
+        long lastRequestTime = 0;
+        for (int i = 0; i < 5; i++) {
+            lastRequestTime = System.nanoTime();
+            scheduler.schedule(callbacks::countDown);
+            Thread.sleep(20);
+        }
+
+        assertTrue(callbacks.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(1, runs.get());
+        // Every request has postponed the run
+        assertTrue(runTimes.get(0) - lastRequestTime >= TimeUnit.MILLISECONDS.toNanos(delayMillis));
+    }
+
+    @Test
+    public void testSingleFlight() throws Exception {
+        CountDownLatch firstRunStarted = new CountDownLatch(1);
+        CountDownLatch firstRunReleased = new CountDownLatch(1);
+        AtomicInteger runs = new AtomicInteger();
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        CoalescingScheduler scheduler = new CoalescingScheduler(() -> {
+            maxRunning.set(Math.max(maxRunning.get(), running.incrementAndGet()));
+            try {
+                if (runs.incrementAndGet() == 1) {
+                    firstRunStarted.countDown();
+                    firstRunReleased.await();
+                }
+            } finally {
+                running.decrementAndGet();
+            }
+        }, 10, scheduledExecutorService, executorService);
+
+        List<Integer> callbackRuns = new CopyOnWriteArrayList<>();
+        CountDownLatch callbacks = new CountDownLatch(4);
+        Runnable callback = () -> {
+            callbackRuns.add(runs.get());
+            callbacks.countDown();
+        };
+
+        scheduler.schedule(callback);
+        assertTrue(firstRunStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        // Requests coming in during the run are coalesced into a single follow-up run
+        for (int i = 0; i < 3; i++) {
+            scheduler.schedule(callback);
+            Thread.sleep(30);
+        }
+        firstRunReleased.countDown();
+
+        assertTrue(callbacks.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertEquals(2, runs.get());
+        assertEquals(1, maxRunning.get());
+        assertEquals(4, callbackRuns.size());
+        assertEquals(1, (int) callbackRuns.get(0));
+        for (int i = 1; i < callbackRuns.size(); i++) {
+            assertEquals(2, (int) callbackRuns.get(i));
+        }
+    }
+
+    @Test
+    public void testTaskFailure() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        CoalescingScheduler scheduler = new CoalescingScheduler(() -> {
+            if (runs.incrementAndGet() == 1) {
+                throw new IllegalStateException("Failure");
+            }
+        }, 10, scheduledExecutorService, executorService);
+
+        // Callbacks are called even if the task fails, and the next request runs it again
+        CountDownLatch first = new CountDownLatch(1);
+        scheduler.schedule(first::countDown);
+        assertTrue(first.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        CountDownLatch second = new CountDownLatch(1);
+        scheduler.schedule(second::countDown);
+        assertTrue(second.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(2, runs.get());
+    }
+}
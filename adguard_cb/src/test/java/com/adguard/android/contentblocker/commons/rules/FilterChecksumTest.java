@@ -0,0 +1,118 @@
+/*
+ This file is part of AdGuard Content Blocker (https://github.com/AdguardTeam/ContentBlocker).
+ Copyright © 2018 AdGuard Content Blocker. All rights reserved.
+
+ AdGuard Content Blocker is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by the
+ Free Software Foundation, either version 3 of the License, or (at your option)
+ any later version.
+
+ AdGuard Content Blocker is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License along with
+ AdGuard Content Blocker.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.adguard.android.contentblocker.commons.rules;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class FilterChecksumTest {
+
+    /**
+     * Checksums below are calculated with the Adblock Plus validateChecksum algorithm
+     */
+    private static final String LIST = "[Adblock Plus 2.0]\n! Checksum: bLJGbYTZ8uAcxS4T45AErg\n! Title: Test\n||example.org^\nexample.com##.banner\n";
+
+    @Test
+    public void testValidChecksum() throws Exception {
+        verify(LIST);
+    }
+
+    @Test
+    public void testCrLf() throws Exception {
+        verify(LIST.replace("\n", "\r\n"));
+    }
+
+    @Test
+    public void testBlankLines() throws Exception {
+        verify("[Adblock Plus 2.0]\n\n! Checksum: bLJGbYTZ8uAcxS4T45AErg\n! Title: Test\n\n\n||example.org^\nexample.com##.banner\n\n");
+        verify("[Adblock Plus 2.0]\r\n\r\n! Checksum: bLJGbYTZ8uAcxS4T45AErg\r\n! Title: Test\r\n\r\n||example.org^\r\nexample.com##.banner\r\n");
+    }
+
+    @Test
+    public void testUnterminatedLastLine() throws Exception {
+        verify("[Adblock Plus 2.0]\n! Checksum: IiCMIiDqFNpfhmLmbouvzA\n! Title: Test\n||example.org^\nexample.com##.banner");
+    }
+
+    @Test
+    public void testPaddingAndNonAscii() throws Exception {
+        verify("! checksum: lr9FtwHol6fRUgxyK/ZKnA==\n||пример.рф^\n");
+    }
+
+    @Test
+    public void testMissingChecksum() throws Exception {
+        FilterChecksum checksum = verify("[Adblock Plus 2.0]\n! Title: Test\n||example.org^\n");
+        assertNull(checksum.getExpected());
+    }
+
+    @Test
+    public void testOnlyFirstChecksumLineIsSkipped() throws Exception {
+        // The second checksum line is a part of the list
+        assertMismatch(LIST + "! Checksum: bLJGbYTZ8uAcxS4T45AErg\n");
+    }
+
+    @Test
+    public void testMismatch() {
+        assertMismatch(LIST.replace("banner", "banneR"));
+        assertMismatch(LIST.replace("example.com##.banner\n", ""));
+        assertMismatch(LIST.replace("||example.org^\n", "||example.org^\n\n\t\n"));
+    }
+
+    @Test
+    public void testEncodeBase64() {
+        Charset ascii = Charset.forName("US-ASCII");
+        assertEquals("", FilterChecksum.encodeBase64("".getBytes(ascii)));
+        assertEquals("Zg", FilterChecksum.encodeBase64("f".getBytes(ascii)));
+        assertEquals("Zm8", FilterChecksum.encodeBase64("fo".getBytes(ascii)));
+        assertEquals("Zm9v", FilterChecksum.encodeBase64("foo".getBytes(ascii)));
+        assertEquals("Zm9vYg", FilterChecksum.encodeBase64("foob".getBytes(ascii)));
+        assertEquals("Zm9vYmE", FilterChecksum.encodeBase64("fooba".getBytes(ascii)));
+        assertEquals("Zm9vYmFy", FilterChecksum.encodeBase64("foobar".getBytes(ascii)));
+        assertEquals("+/8", FilterChecksum.encodeBase64(new byte[]{(byte) 0xfb, (byte) 0xff}));
+    }
+
+    private static void assertMismatch(String list) {
+        try {
+            verify(list);
+            fail("Checksum mismatch is not detected");
+        } catch (FilterChecksum.MismatchException ex) {
+            // Expected
+        }
+    }
+
+    /**
+     * Splits the list into lines the same way as the filter download does
+     */
+    private static FilterChecksum verify(String list) throws FilterChecksum.MismatchException {
+        FilterChecksum checksum = new FilterChecksum();
+        int start = 0;
+        int end;
+        while ((end = list.indexOf('\n', start)) >= 0) {
+            checksum.update(list.substring(start, end).replace("\r", ""), true);
+            start = end + 1;
+        }
+        if (start < list.length()) {
+            checksum.update(list.substring(start).replace("\r", ""), false);
+        }
+        checksum.verify("test");
+        return checksum;
+    }
+}
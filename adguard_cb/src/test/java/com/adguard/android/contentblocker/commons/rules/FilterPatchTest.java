@@ -0,0 +1,181 @@
+/*
+ This file is part of AdGuard Content Blocker (https://github.com/AdguardTeam/ContentBlocker).
+ Copyright © 2018 AdGuard Content Blocker. All rights reserved.
+
+ AdGuard Content Blocker is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by the
+ Free Software Foundation, either version 3 of the License, or (at your option)
+ any later version.
+
+ AdGuard Content Blocker is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License along with
+ AdGuard Content Blocker.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.adguard.android.contentblocker.commons.rules;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class FilterPatchTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String LIST = "! Title: Test\n! Version: 1.0.0\n\n  ||a.com^  \n||b.com^\n\n||c.com^\n";
+
+    @Test
+    public void testApplyKeepsBlankLinesAndWhitespace() throws IOException {
+        // Line numbers count the blank lines, the rules are not trimmed
+        String expected = "! Title: Test\n! Version: 1.0.1\n\n  ||a.com^  \n||d.com^\n\n||c.com^\n||e.com^\n";
+        FilterPatch patch = FilterPatch.parse(diff(expected, "d2 1", "a2 1", "! Version: 1.0.1", "d5 1", "a5 1", "||d.com^", "a7 1", "||e.com^"), null);
+
+        assertEquals(expected, apply(patch, LIST, true));
+    }
+
+    @Test
+    public void testApplyWithoutTrailingLineFeed() throws IOException {
+        String list = "||a.com^\n||b.com^";
+        String expected = "||a.com^\n||c.com^";
+        FilterPatch patch = FilterPatch.parse(diff(expected, "d2 1", "a2 1", "||c.com^"), null);
+
+        assertEquals(expected, apply(patch, list, true));
+        assertEquals(expected + "\n", apply(patch, list + "\n", false));
+    }
+
+    @Test
+    public void testApplyKeepsCarriageReturns() throws IOException {
+        String list = "||a.com^\r\n||b.com^\r\n";
+        String expected = "||a.com^\r\n||c.com^\r\n";
+        // The commands and the diff line may end with CR as well
+        String patchText = "diff checksum:" + sha1(expected) + " lines:3\r\nd2 1\r\na2 1\r\n||c.com^\r\n";
+
+        FilterPatch patch = FilterPatch.parse(patchText, null);
+        assertEquals(expected, apply(patch, list, true));
+    }
+
+    @Test
+    public void testApplyLongLines() throws IOException {
+        // The lines are longer than the read buffer
+        String longRule = "||" + StringUtils.repeat("a", 20000) + ".com^";
+        String list = longRule + "\n||b.com^\n" + longRule + "\n";
+        String expected = longRule + "\n||c.com^\n" + longRule + "\n";
+        FilterPatch patch = FilterPatch.parse(diff(expected, "d2 1", "a2 1", "||c.com^"), null);
+
+        assertEquals(expected, apply(patch, list, true));
+    }
+
+    @Test
+    public void testVerifyRejectsOtherList() throws IOException {
+        FilterPatch patch = FilterPatch.parse(diff("||x.com^\n", "d1 1", "a1 1", "||x.com^"), null);
+        apply(patch, "||a.com^\n||b.com^\n", false);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testApplyRejectsCommandOutOfRange() throws IOException {
+        apply(FilterPatch.parse(diff("", "d10 1"), null), LIST, false);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testApplyRejectsAddAfterEnd() throws IOException {
+        apply(FilterPatch.parse(diff("", "a8 1", "||x.com^"), null), LIST, false);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testApplyRejectsOverlappingCommands() throws IOException {
+        apply(FilterPatch.parse(diff("", "d3 2", "d4 1"), null), LIST, false);
+    }
+
+    @Test
+    public void testParseSelectsNamedSection() throws IOException {
+        String first = "diff name:first checksum:" + sha1("||first.com^\n") + " lines:3\nd1 1\na1 1\n||first.com^\n";
+        String second = "diff name:second checksum:" + sha1("||second.com^\n") + " lines:3\nd1 1\na1 1\n||second.com^\n";
+
+        FilterPatch patch = FilterPatch.parse(first + second, "second");
+        assertEquals("||second.com^\n", apply(patch, "||a.com^\n", true));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseRejectsMissingSection() {
+        FilterPatch.parse(diff("", "d1 1"), "other");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseRejectsPatchWithoutChecksum() {
+        FilterPatch.parse("diff lines:1\nd1 1\n", null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseRejectsTruncatedPatch() {
+        FilterPatch.parse("diff checksum:0 lines:3\nd1 1\n", null);
+    }
+
+    @Test
+    public void testGetHeader() throws IOException {
+        assertEquals("1.0.0", FilterPatch.getHeader(stream(LIST), FilterPatch.VERSION_HEADER));
+        assertEquals("patches/1.patch", FilterPatch.getHeader(stream("! Title\r\n! Diff-Path: patches/1.patch\r\n"), FilterPatch.DIFF_PATH_HEADER));
+        assertNull(FilterPatch.getHeader(stream(LIST), FilterPatch.DIFF_PATH_HEADER));
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < FilterPatch.MAX_HEADER_LINES; i++) {
+            sb.append("||rule").append(i).append(".com^\n");
+        }
+        sb.append("! Version: 2.0\n");
+        assertNull(FilterPatch.getHeader(stream(sb.toString()), FilterPatch.VERSION_HEADER));
+    }
+
+    /**
+     * Applies the patch to the list
+     *
+     * @param verified Expected result of the checksum verification
+     * @return Patched list
+     */
+    private static String apply(FilterPatch patch, String list, boolean verified) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        assertEquals(verified, patch.apply(stream(list), output));
+        return new String(output.toByteArray(), UTF_8);
+    }
+
+    private static InputStream stream(String text) {
+        return new ByteArrayInputStream(text.getBytes(UTF_8));
+    }
+
+    /**
+     * Creates the patch for the single list
+     *
+     * @param patched  Patched list, the checksum is calculated over it
+     * @param commands Commands with the added lines
+     * @return Patch text
+     */
+    static String diff(String patched, String... commands) {
+        StringBuilder sb = new StringBuilder("diff checksum:").append(sha1(patched))
+                .append(" lines:").append(commands.length).append('\n');
+        for (String command : commands) {
+            sb.append(command).append('\n');
+        }
+        return sb.toString();
+    }
+
+    static String sha1(String text) {
+        try {
+            byte[] bytes = MessageDigest.getInstance("SHA-1").digest(text.getBytes(UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : bytes) {
+                sb.append(String.format("%02x", b & 0xff));
+            }
+            return sb.toString();
+        } catch (Exception ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
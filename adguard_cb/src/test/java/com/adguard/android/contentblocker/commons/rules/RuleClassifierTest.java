@@ -0,0 +1,154 @@
+/*
+ This file is part of AdGuard Content Blocker (https://github.com/AdguardTeam/ContentBlocker).
+ Copyright © 2018 AdGuard Content Blocker. All rights reserved.
+
+ AdGuard Content Blocker is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by the
+ Free Software Foundation, either version 3 of the License, or (at your option)
+ any later version.
+
+ AdGuard Content Blocker is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License along with
+ AdGuard Content Blocker.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.adguard.android.contentblocker.commons.rules;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RuleClassifierTest {
+
+    private static final String[] MARKERS = {
+            "##", "#@#", "#?#", "#@?#", "#$#", "#$?#", "#@$#", "#@$?#", "#%#", "#@%#", "$$", "$@$"
+    };
+    private static final RuleType[] MARKER_TYPES = {
+            RuleType.ELEMHIDE, RuleType.ELEMHIDE_EXCEPTION,
+            RuleType.EXTENDED_CSS, RuleType.EXTENDED_CSS_EXCEPTION,
+            RuleType.CSS_INJECT, RuleType.CSS_INJECT, RuleType.CSS_INJECT_EXCEPTION, RuleType.CSS_INJECT_EXCEPTION,
+            RuleType.SCRIPT, RuleType.SCRIPT_EXCEPTION,
+            RuleType.CONTENT, RuleType.CONTENT_EXCEPTION
+    };
+
+    @Test
+    public void testOrdinals() {
+        // Ordinals are stored in the filter rules files
+        RuleType[] expected = {
+                RuleType.COMMENT, RuleType.NETWORK, RuleType.NETWORK_EXCEPTION,
+                RuleType.ELEMHIDE, RuleType.ELEMHIDE_EXCEPTION,
+                RuleType.EXTENDED_CSS, RuleType.EXTENDED_CSS_EXCEPTION,
+                RuleType.CSS_INJECT, RuleType.CSS_INJECT_EXCEPTION,
+                RuleType.SCRIPT, RuleType.SCRIPT_EXCEPTION,
+                RuleType.CONTENT, RuleType.CONTENT_EXCEPTION
+        };
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(i, expected[i].ordinal());
+        }
+        assertEquals(expected.length, RuleType.values().length);
+    }
+
+    @Test
+    public void testMarkers() {
+        for (int i = 0; i < MARKERS.length; i++) {
+            assertEquals(MARKERS[i], MARKER_TYPES[i], RuleClassifier.classify("example.org" + MARKERS[i] + "body"));
+            assertEquals(MARKERS[i], MARKER_TYPES[i], RuleClassifier.classify(MARKERS[i] + "body"));
+            assertEquals(MARKERS[i], MARKER_TYPES[i], RuleClassifier.classify("a.com,~b.com" + MARKERS[i]));
+        }
+    }
+
+    @Test
+    public void testRulesWithoutMarkers() {
+        assertEquals(RuleType.COMMENT, RuleClassifier.classify(null));
+        assertEquals(RuleType.COMMENT, RuleClassifier.classify(""));
+        assertEquals(RuleType.COMMENT, RuleClassifier.classify("! Title: ##"));
+        assertEquals(RuleType.COMMENT, RuleClassifier.classify("[Adblock Plus 2.0]"));
+        assertEquals(RuleType.NETWORK, RuleClassifier.classify("||example.org^$script"));
+        assertEquals(RuleType.NETWORK, RuleClassifier.classify("/banner#/"));
+        assertEquals(RuleType.NETWORK, RuleClassifier.classify("||example.org^$domain=a.com|b.com,~third-party"));
+        assertEquals(RuleType.NETWORK_EXCEPTION, RuleClassifier.classify("@@||example.org^$document"));
+        assertEquals(RuleType.NETWORK_EXCEPTION, RuleClassifier.classify("@@||example.org/#@"));
+    }
+
+    @Test
+    public void testCosmeticTypes() {
+        // Script and content exceptions are kept together with the network rules, as before the classifier
+        assertTrue(RuleClassifier.classify("example.org##.banner").isCosmetic());
+        assertTrue(RuleClassifier.classify("example.org#?#.banner:has(a)").isCosmetic());
+        assertTrue(RuleClassifier.classify("example.org#%#window.x = 1;").isCosmetic());
+        assertTrue(RuleClassifier.classify("example.org$$script[tag-content=\"ads\"]").isCosmetic());
+        assertFalse(RuleClassifier.classify("example.org#@%#window.x = 1;").isCosmetic());
+        assertFalse(RuleClassifier.classify("example.org$@$script[tag-content=\"ads\"]").isCosmetic());
+        assertFalse(RuleClassifier.classify("@@||example.org^").isCosmetic());
+    }
+
+    @Test
+    public void testLeftmostMarkerWins() {
+        assertEquals(RuleType.ELEMHIDE, RuleClassifier.classify("##a[href$=\"$$\"]"));
+        assertEquals(RuleType.ELEMHIDE, RuleClassifier.classify("example.org##a[title=\"#%#\"]"));
+        assertEquals(RuleType.CONTENT, RuleClassifier.classify("example.org$$script[tag-content=\"##\"]"));
+        assertEquals(RuleType.SCRIPT, RuleClassifier.classify("example.org#%#var a = '#@#';"));
+    }
+
+    @Test
+    public void testOverlappingMarkers() {
+        // A marker starts inside an unfinished longer one, the one that ends first wins
+        assertEquals(RuleType.CSS_INJECT, RuleClassifier.classify("a$#$#b"));
+        assertEquals(RuleType.ELEMHIDE_EXCEPTION, RuleClassifier.classify("a#@##b"));
+        assertEquals(RuleType.ELEMHIDE, RuleClassifier.classify("a##@#b"));
+        assertEquals(RuleType.CSS_INJECT_EXCEPTION, RuleClassifier.classify("a#@$#@#b"));
+        assertEquals(RuleType.CSS_INJECT_EXCEPTION, RuleClassifier.classify("a#@$?##b"));
+        assertEquals(RuleType.CONTENT, RuleClassifier.classify("a#$$b"));
+        assertEquals(RuleType.CONTENT, RuleClassifier.classify("a$$@$b"));
+        assertEquals(RuleType.CONTENT_EXCEPTION, RuleClassifier.classify("a#$@$b"));
+        assertEquals(RuleType.SCRIPT, RuleClassifier.classify("a%#%#b"));
+        // Unfinished markers interrupted by another character
+        assertEquals(RuleType.NETWORK, RuleClassifier.classify("a#@$?x#b"));
+        assertEquals(RuleType.ELEMHIDE, RuleClassifier.classify("a#@x##b"));
+        assertEquals(RuleType.NETWORK, RuleClassifier.classify("a#@b$@c#?d%#"));
+    }
+
+    @Test
+    public void testMatchesNaiveSearch() {
+        // Random strings over the alphabet of the markers
+        Random random = new Random(42);
+        String alphabet = "#@$?%a";
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            sb.setLength(0);
+            sb.append('x');
+            int length = random.nextInt(12);
+            for (int j = 0; j < length; j++) {
+                sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            String rule = sb.toString();
+            assertEquals(rule, classifyNaive(rule), RuleClassifier.classify(rule));
+        }
+    }
+
+    /**
+     * Takes the marker that ends first, the longest one if several markers end at the same character
+     */
+    private static RuleType classifyNaive(String rule) {
+        for (int end = 1; end <= rule.length(); end++) {
+            int found = -1;
+            for (int i = 0; i < MARKERS.length; i++) {
+                int start = end - MARKERS[i].length();
+                if (start >= 0 && rule.startsWith(MARKERS[i], start)
+                        && (found < 0 || MARKERS[i].length() > MARKERS[found].length())) {
+                    found = i;
+                }
+            }
+            if (found >= 0) {
+                return MARKER_TYPES[found];
+            }
+        }
+        return rule.startsWith("@@") ? RuleType.NETWORK_EXCEPTION : RuleType.NETWORK;
+    }
+}
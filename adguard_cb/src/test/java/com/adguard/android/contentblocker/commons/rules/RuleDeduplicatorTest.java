@@ -0,0 +1,127 @@
+/*
+ This file is part of AdGuard Content Blocker (https://github.com/AdguardTeam/ContentBlocker).
+ Copyright © 2018 AdGuard Content Blocker. All rights reserved.
+
+ AdGuard Content Blocker is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by the
+ Free Software Foundation, either version 3 of the License, or (at your option)
+ any later version.
+
+ AdGuard Content Blocker is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License along with
+ AdGuard Content Blocker.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.adguard.android.contentblocker.commons.rules;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RuleDeduplicatorTest {
+
+    @Test
+    public void testDeduplicate() throws Exception {
+        List<String> rules = Arrays.asList("||example.org^", "example.com##.banner", "||example.org^", "||example.org^$third-party", "example.com##.banner");
+        assertEquals(Arrays.asList("||example.org^", "example.com##.banner", "||example.org^$third-party"),
+                deduplicate(new ListDeduplicator(rules), rules));
+    }
+
+    @Test
+    public void testHashCollisions() throws Exception {
+        // Every rule has the same hash, so only the comparison tells them apart
+        List<String> rules = Arrays.asList("a", "b", "a", "c", "b", "d");
+        ListDeduplicator deduplicator = new ListDeduplicator(rules) {
+            @Override
+            protected long hash(String rule) {
+                return 42;
+            }
+        };
+        assertEquals(Arrays.asList("a", "b", "c", "d"), deduplicate(deduplicator, rules));
+    }
+
+    @Test
+    public void testZeroHash() throws Exception {
+        // Zero marks an empty slot, it must not be taken for one
+        List<String> rules = Arrays.asList("a", "b", "a", "b");
+        ListDeduplicator deduplicator = new ListDeduplicator(rules) {
+            @Override
+            protected long hash(String rule) {
+                return rule.equals("a") ? 0 : 1;
+            }
+        };
+        assertEquals(Arrays.asList("a", "b"), deduplicate(deduplicator, rules));
+    }
+
+    @Test
+    public void testGrowth() throws Exception {
+        Random random = new Random(42);
+        List<String> rules = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            rules.add("||host" + random.nextInt(5000) + ".example^");
+        }
+
+        // A few hash values for many rules, collisions are resolved while the table grows
+        ListDeduplicator deduplicator = new ListDeduplicator(rules) {
+            @Override
+            protected long hash(String rule) {
+                return rule.hashCode() & 0xff;
+            }
+        };
+        List<String> unique = deduplicate(deduplicator, rules);
+        assertEquals(new ArrayList<>(new LinkedHashSet<>(rules)), unique);
+        assertEquals(unique.size(), deduplicator.size());
+    }
+
+    @Test
+    public void testAddReturnsFalseForDuplicates() throws Exception {
+        List<String> rules = Arrays.asList("a", "a");
+        ListDeduplicator deduplicator = new ListDeduplicator(rules);
+        assertTrue(deduplicator.add(rules.get(0), 0));
+        assertFalse(deduplicator.add(rules.get(1), 1));
+        assertEquals(1, deduplicator.size());
+    }
+
+    private static List<String> deduplicate(ListDeduplicator deduplicator, List<String> rules) throws Exception {
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < rules.size(); i++) {
+            if (deduplicator.add(rules.get(i), i)) {
+                result.add(rules.get(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Refers to the rules by their index in the list
+     */
+    private static class ListDeduplicator extends RuleDeduplicator<String> {
+
+        private final List<String> rules;
+
+        ListDeduplicator(List<String> rules) {
+            super(4);
+            this.rules = rules;
+        }
+
+        @Override
+        protected long hash(String rule) {
+            return RuleHash.hash(rule);
+        }
+
+        @Override
+        protected boolean isSameRule(String rule, long ref) {
+            return rules.get((int) ref).equals(rule);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ This file is part of AdGuard Content Blocker (https://github.com/AdguardTeam/ContentBlocker).
+ Copyright © 2018 AdGuard Content Blocker. All rights reserved.
+
+ AdGuard Content Blocker is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by the
+ Free Software Foundation, either version 3 of the License, or (at your option)
+ any later version.
+
+ AdGuard Content Blocker is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License along with
+ AdGuard Content Blocker.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.adguard.android.contentblocker.commons.rules;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+
+public class RuleValidatorTest {
+
+    private static final String[] RULES = {
+            "||example.org^",
+            "example.org##.banner",
+            "||example.org^\t$script",
+            "||example.org^\u007f",
+            "||example.org^\u0001",
+            "\t||example.org^",
+            "||пример.рф^",
+            "пример.рф##.баннер",
+            "! Comment",
+            "!",
+            "[Adblock Plus 2.0]",
+            "[$domain=example.org]##.banner",
+            "example.org###adg_start_script_inject",
+            "example.org###adg_start_style_inject",
+            "example.org###adg_start_other",
+            "/ad/",
+            "/ads/",
+            "abcd",
+            "abcde",
+            "",
+            " ",
+            "\u2003\u2003",
+            "\t \t",
+            "\r\n",
+            "     ",
+            "a b c",
+            "\u2003x",
+            "  !comment",
+    };
+
+    @Test
+    public void testUserRulesMatchBaseline() {
+        // The user rules are accepted exactly as they were before the validator
+        for (String rule : RULES) {
+            assertEquals(rule, isValidBaselineUserRule(rule), RuleValidator.USER_RULES.isValid(rule));
+        }
+    }
+
+    @Test
+    public void testUserRulesReasons() {
+        assertEquals(RuleValidator.Reason.VALID, RuleValidator.USER_RULES.validate("||example.org^\t$script"));
+        assertEquals(RuleValidator.Reason.VALID, RuleValidator.USER_RULES.validate("||example.org^\u007f"));
+        assertEquals(RuleValidator.Reason.BLANK, RuleValidator.USER_RULES.validate(null));
+        assertEquals(RuleValidator.Reason.BLANK, RuleValidator.USER_RULES.validate("\t \t"));
+        assertEquals(RuleValidator.Reason.BLANK, RuleValidator.USER_RULES.validate("     "));
+        assertEquals(RuleValidator.Reason.TOO_SHORT, RuleValidator.USER_RULES.validate("abcd"));
+        assertEquals(RuleValidator.Reason.COMMENT, RuleValidator.USER_RULES.validate("! Comment"));
+        assertEquals(RuleValidator.Reason.METADATA, RuleValidator.USER_RULES.validate("[Adblock Plus 2.0]"));
+        assertEquals(RuleValidator.Reason.NON_ASCII, RuleValidator.USER_RULES.validate("||пример.рф^"));
+        assertEquals(RuleValidator.Reason.OBSOLETE_INJECTION, RuleValidator.USER_RULES.validate("example.org###adg_start_style_inject"));
+    }
+
+    @Test
+    public void testFilterRules() {
+        // Everything but the comments, metadata and obsolete injections is kept as it has been downloaded
+        for (String rule : RULES) {
+            boolean expected = StringUtils.isNotBlank(rule)
+                    && !rule.startsWith("!")
+                    && !rule.startsWith("[Adblock")
+                    && !rule.contains("###adg_start_script_inject")
+                    && !rule.contains("###adg_start_style_inject");
+            assertEquals(rule, expected, RuleValidator.FILTER_RULES.isValid(rule));
+        }
+        assertEquals(RuleValidator.Reason.VALID, RuleValidator.FILTER_RULES.validate("/ad/"));
+        assertEquals(RuleValidator.Reason.VALID, RuleValidator.FILTER_RULES.validate("пример.рф##.баннер"));
+        assertEquals(RuleValidator.Reason.VALID, RuleValidator.FILTER_RULES.validate("||example.org^\u0001"));
+    }
+
+    @Test
+    public void testBytesMatchText() {
+        Charset utf8 = Charset.forName("UTF-8");
+        String[] extra = {"[Adblock", "[Adbl", "a###adg_start_", "x###adg_start_style_inject", "\u2003!", "\u00a0abcde"};
+        for (RuleValidator validator : new RuleValidator[]{RuleValidator.USER_RULES, RuleValidator.FILTER_RULES}) {
+            for (String[] rules : new String[][]{RULES, extra}) {
+                for (String rule : rules) {
+                    byte[] encoded = rule.getBytes(utf8);
+                    int length = encoded.length;
+                    // The rule is surrounded by other bytes, as it is in the buffer of the filter file
+                    byte[] bytes = new byte[length + 4];
+                    System.arraycopy(encoded, 0, bytes, 2, length);
+                    bytes[0] = '#';
+                    bytes[1] = '#';
+                    bytes[length + 2] = '#';
+                    bytes[length + 3] = '#';
+                    assertEquals(rule, validator.validate(rule), validator.validate(bytes, 2, length));
+                }
+            }
+        }
+    }
+
+    /**
+     * Validation of the user rules before {@link RuleValidator}
+     */
+    private static boolean isValidBaselineUserRule(String userRule) {
+        return StringUtils.isNotBlank(userRule) &&
+                userRule.matches("\\p{ASCII}+") &&
+                StringUtils.length(userRule) > 4 &&
+                !StringUtils.startsWith(userRule, "!") &&
+                !StringUtils.startsWith(userRule, "[Adblock") &&
+                !StringUtils.contains(userRule, "###adg_start_script_inject") &&
+                !StringUtils.contains(userRule, "###adg_start_style_inject");
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ This file is part of AdGuard Content Blocker (https://github.com/AdguardTeam/ContentBlocker).
+ Copyright © 2018 AdGuard Content Blocker. All rights reserved.
+
+ AdGuard Content Blocker is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by the
+ Free Software Foundation, either version 3 of the License, or (at your option)
+ any later version.
+
+ AdGuard Content Blocker is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License along with
+ AdGuard Content Blocker.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.adguard.android.contentblocker.db;
+
+import com.adguard.android.contentblocker.commons.rules.RuleClassifier;
+import com.adguard.android.contentblocker.commons.rules.RuleHash;
+import com.adguard.android.contentblocker.commons.rules.RuleType;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class FilterRulesFileTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final List<String> RULES = Arrays.asList("||example.org^", "example.com##.banner", "", "@@||example.org^$document", "||пример.рф^");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        assertRules(RULES, write(RULES));
+    }
+
+    @Test
+    public void testRoundTripLongRules() throws IOException {
+        // Rules longer than the read buffer
+        List<String> rules = new ArrayList<>(RULES);
+        StringBuilder longRule = new StringBuilder("||long.example^$domain=");
+        while (longRule.length() < 64 * 1024) {
+            longRule.append("a.example|");
+        }
+        rules.add(longRule.toString());
+        for (int i = 0; i < 5000; i++) {
+            rules.add("||host" + i + ".example^");
+        }
+        assertRules(rules, write(rules));
+    }
+
+    @Test
+    public void testReadsUncompressedVersion2() throws IOException {
+        File file = folder.newFile("filter.v2");
+        writeVersion2(RULES, file, 0);
+        assertRules(RULES, file);
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsCompressedVersion2() throws IOException {
+        File file = folder.newFile("filter.v2");
+        writeVersion2(RULES, file, 16 * 1024);
+        FilterRulesFile.open(file);
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsTruncatedFile() throws IOException {
+        File file = write(RULES);
+        byte[] bytes = FileUtils.readFileToByteArray(file);
+        FileUtils.writeByteArrayToFile(file, Arrays.copyOf(bytes, bytes.length - 1));
+        FilterRulesFile.open(file);
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsUnknownType() throws IOException {
+        File file = write(RULES);
+        byte[] bytes = FileUtils.readFileToByteArray(file);
+        // Type of the first rule follows the header, the hashes and the offsets
+        bytes[16 + RULES.size() * 12 + 4] = (byte) RuleType.values().length;
+        FileUtils.writeByteArrayToFile(file, bytes);
+        FilterRulesFile.open(file);
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsNegativeType() throws IOException {
+        File file = write(RULES);
+        byte[] bytes = FileUtils.readFileToByteArray(file);
+        bytes[16 + RULES.size() * 12 + 4 + 1] = (byte) 0x80;
+        FileUtils.writeByteArrayToFile(file, bytes);
+        FilterRulesFile.open(file);
+    }
+
+    @Test
+    public void testContentHash() throws IOException {
+        long hash = getContentHash(RULES);
+        // Written again, the same rules have the same hash, even though the file is not the same
+        assertEquals(hash, getContentHash(RULES));
+        assertNotEquals(hash, getContentHash(Arrays.asList("||example.org^", "example.com##.banneR", "", "@@||example.org^$document", "||пример.рф^")));
+        assertNotEquals(hash, getContentHash(Arrays.asList("example.com##.banner", "||example.org^", "", "@@||example.org^$document", "||пример.рф^")));
+        assertNotEquals(hash, getContentHash(RULES.subList(0, RULES.size() - 1)));
+    }
+
+    private long getContentHash(List<String> rules) throws IOException {
+        FilterRulesFile file = FilterRulesFile.open(write(rules));
+        try {
+            return file.getContentHash();
+        } finally {
+            file.close();
+        }
+    }
+
+    private File write(List<String> rules) throws IOException {
+        File file = folder.newFile();
+        FilterRulesFile.Writer writer = new FilterRulesFile.Writer(folder.newFile());
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            for (String rule : rules) {
+                writer.add(rule);
+            }
+            writer.finish(outputStream);
+        } finally {
+            outputStream.close();
+            writer.close();
+        }
+        return file;
+    }
+
+    private static void assertRules(List<String> expected, File file) throws IOException {
+        FilterRulesFile rulesFile = FilterRulesFile.open(file);
+        try {
+            assertEquals(expected.size(), rulesFile.getCount());
+            for (int i = 0; i < expected.size(); i++) {
+                String rule = expected.get(i);
+                int length = rulesFile.readRule(i);
+                assertEquals(rule, new String(rulesFile.getRuleBuffer(), 0, length, UTF_8));
+                assertEquals(RuleHash.hash(rulesFile.getRuleBuffer(), 0, length), rulesFile.getHash(i));
+                assertEquals(RuleClassifier.classify(rule), rulesFile.getType(i));
+                assertEquals(rule.getBytes(UTF_8).length, rulesFile.getLength(i));
+            }
+        } finally {
+            rulesFile.close();
+        }
+    }
+
+    /**
+     * Writes the layout of the second version: the blocks fields in the header, the data is not actually compressed
+     */
+    private static void writeVersion2(List<String> rules, File file, int blockSize) throws IOException {
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        try {
+            int dataLength = 0;
+            for (String rule : rules) {
+                dataLength += rule.getBytes(UTF_8).length;
+            }
+            out.writeInt(0x41474652);
+            out.writeInt(2);
+            out.writeInt(rules.size());
+            out.writeInt(dataLength);
+            out.writeInt(blockSize);
+            out.writeInt(blockSize == 0 ? 0 : (dataLength + blockSize - 1) / blockSize);
+            for (String rule : rules) {
+                out.writeLong(RuleHash.hash(rule));
+            }
+            int offset = 0;
+            for (String rule : rules) {
+                out.writeInt(offset);
+                offset += rule.getBytes(UTF_8).length;
+            }
+            out.writeInt(offset);
+            for (String rule : rules) {
+                out.writeByte(RuleClassifier.classify(rule).ordinal());
+            }
+            for (String rule : rules) {
+                out.write(rule.getBytes(UTF_8));
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ This file is part of AdGuard Content Blocker (https://github.com/AdguardTeam/ContentBlocker).
+ Copyright © 2018 AdGuard Content Blocker. All rights reserved.
+
+ AdGuard Content Blocker is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by the
+ Free Software Foundation, either version 3 of the License, or (at your option)
+ any later version.
+
+ AdGuard Content Blocker is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License along with
+ AdGuard Content Blocker.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.adguard.android.contentblocker.service.compiler;
+
+import com.adguard.android.contentblocker.commons.rules.RuleHash;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FiltersCompilerTest {
+
+    private static final String ENCODING = "UTF-8";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ExecutorService executorService;
+    private FiltersCompiler compiler;
+    private File output;
+
+    @Before
+    public void setUp() throws IOException {
+        executorService = Executors.newFixedThreadPool(2);
+        compiler = new FiltersCompiler(folder.newFolder("compiler"), executorService);
+        output = new File(folder.getRoot(), "filters.txt");
+    }
+
+    @After
+    public void tearDown() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    public void testDeduplicateAcrossSources() throws IOException {
+        TestSource first = new TestSource("first", "1", "||a.example^", "||b.example^", "example.com##.banner");
+        TestSource second = new TestSource("second", "1", "||b.example^", "||c.example^", "example.com##.banner");
+
+        assertEquals(4, compiler.compile(Arrays.<RuleSource>asList(first, second), CompileProfile.GENERIC, output));
+        assertOutput("||a.example^", "||b.example^", "||c.example^", "example.com##.banner");
+    }
+
+    @Test
+    public void testDeduplicateStoredRules() throws IOException {
+        // Rules passed as the stored bytes and hashes are deduplicated with the rule texts
+        TestSource first = new TestSource("first", "1", "||a.example^", "||b.example^");
+        RuleSource second = new TestSource("second", "1") {
+            @Override
+            public void compile(SegmentSink sink) throws IOException {
+                byte[] bytes = "##||b.example^||c.example^||пример.рф^".getBytes(ENCODING);
+                sink.add(bytes, 2, 12, RuleHash.hash("||b.example^"));
+                sink.add(bytes, 14, 12, RuleHash.hash("||c.example^"));
+                sink.add(bytes, 26, 20, RuleHash.hash("||пример.рф^"));
+                sink.reject();
+            }
+        };
+
+        CompileStats stats = CompileStats.start();
+        assertEquals(4, compiler.compile(Arrays.asList(first, second), CompileProfile.GENERIC, output, stats));
+        assertOutput("||a.example^", "||b.example^", "||c.example^", "||пример.рф^");
+        assertEquals(1, stats.getSources().get(1).getRejected());
+        assertEquals(2, stats.getSources().get(1).getRulesOut());
+    }
+
+    @Test
+    public void testIncrementalRecompile() throws IOException {
+        TestSource first = new TestSource("first", "1", "||a.example^", "||b.example^");
+        TestSource second = new TestSource("second", "1", "||c.example^");
+        List<RuleSource> sources = Arrays.<RuleSource>asList(first, second);
+        compiler.compile(sources, CompileProfile.GENERIC, output);
+        assertEquals(1, first.compiled);
+        assertEquals(1, second.compiled);
+
+        // Only the changed source is recompiled, the segment of the other one is reused
+        second.update("2", "||c.example^", "||d.example^");
+        CompileStats stats = CompileStats.start();
+        assertEquals(4, compiler.compile(sources, CompileProfile.GENERIC, output, stats));
+        assertEquals(1, first.compiled);
+        assertEquals(2, second.compiled);
+        assertOutput("||a.example^", "||b.example^", "||c.example^", "||d.example^");
+
+        List<CompileStats.Source> sourceStats = stats.getSources();
+        assertEquals(2, sourceStats.size());
+        assertEquals("generic/first", sourceStats.get(0).getKey());
+        assertFalse(sourceStats.get(0).isRecompiled());
+        assertEquals(2, sourceStats.get(0).getRulesOut());
+        assertTrue(sourceStats.get(1).isRecompiled());
+        assertEquals(2, sourceStats.get(1).getRulesOut());
+    }
+
+    @Test
+    public void testSnapshotCache() throws IOException {
+        TestSource source = new TestSource("first", "1", "||a.example^");
+        List<RuleSource> sources = Arrays.<RuleSource>asList(source);
+        compiler.compile(sources, CompileProfile.GENERIC, output);
+        source.update("2", "||b.example^");
+        compiler.compile(sources, CompileProfile.GENERIC, output);
+
+        // The first configuration is restored without compiling
+        source.update("1", "||a.example^");
+        assertEquals(1, compiler.compile(sources, CompileProfile.GENERIC, output));
+        assertEquals(2, source.compiled);
+        assertOutput("||a.example^");
+    }
+
+    @Test
+    public void testSourceChangedDuringCompilation() throws IOException {
+        TestSource source = new TestSource("first", "1", "||a.example^") {
+            @Override
+            public void compile(SegmentSink sink) throws IOException {
+                if (compiled == 0) {
+                    // The rules are updated after the cache key has been calculated
+                    update("2", "||b.example^");
+                }
+                super.compile(sink);
+            }
+        };
+        List<RuleSource> sources = Arrays.<RuleSource>asList(source);
+        // The segment is compiled again with the new fingerprint
+        compiler.compile(sources, CompileProfile.GENERIC, output);
+        assertEquals(2, source.compiled);
+        assertOutput("||b.example^");
+
+        // The rules of the second version have been kept neither in the segment nor in the snapshot of the first one
+        source.update("1", "||a.example^");
+        assertEquals(1, compiler.compile(sources, CompileProfile.GENERIC, output));
+        assertEquals(3, source.compiled);
+        assertOutput("||a.example^");
+    }
+
+    @Test
+    public void testBrokenSegment() throws IOException {
+        TestSource source = new TestSource("first", "1", "||a.example^");
+        List<RuleSource> sources = Arrays.<RuleSource>asList(source);
+        compiler.compile(sources, CompileProfile.GENERIC, output);
+
+        File segment = new File(folder.getRoot(), "compiler/segments/first.txt");
+        assertTrue(segment.isFile());
+        // The segment has lost its fingerprint, the snapshot cache is dropped so that it is read
+        compiler.invalidate();
+        FileUtils.forceMkdir(segment.getParentFile());
+        FileUtils.writeStringToFile(segment, "||broken.example^\n", ENCODING);
+
+        assertEquals(1, compiler.compile(sources, CompileProfile.GENERIC, output));
+        assertEquals(2, source.compiled);
+        assertOutput("||a.example^");
+    }
+
+    @Test
+    public void testBrokenSegmentHashes() throws IOException {
+        TestSource first = new TestSource("first", "1", "||a.example^", "||b.example^");
+        TestSource second = new TestSource("second", "1", "||c.example^");
+        List<RuleSource> sources = Arrays.<RuleSource>asList(first, second);
+        compiler.compile(sources, CompileProfile.GENERIC, output);
+
+        // The segment keeps its fingerprint, but has lost the end of the hashes
+        File segment = new File(folder.getRoot(), "compiler/segments/first.txt");
+        byte[] bytes = FileUtils.readFileToByteArray(segment);
+        FileUtils.writeByteArrayToFile(segment, Arrays.copyOf(bytes, bytes.length - 4));
+        second.update("2", "||d.example^");
+
+        assertEquals(3, compiler.compile(sources, CompileProfile.GENERIC, output));
+        assertEquals(2, first.compiled);
+        assertOutput("||a.example^", "||b.example^", "||d.example^");
+    }
+
+    @Test
+    public void testSourceFailure() throws IOException {
+        TestSource first = new TestSource("first", "1", "||a.example^");
+        TestSource second = new TestSource("second", "1", "||b.example^") {
+            @Override
+            public void compile(SegmentSink sink) throws IOException {
+                throw new IOException("Cannot read");
+            }
+        };
+
+        assertEquals(1, compiler.compile(Arrays.<RuleSource>asList(first, second), CompileProfile.GENERIC, output));
+        assertOutput("||a.example^");
+    }
+
+    private void assertOutput(String... rules) throws IOException {
+        assertEquals(new HashSet<>(Arrays.asList(rules)), new HashSet<>(FileUtils.readLines(output, ENCODING)));
+    }
+
+    private static class TestSource implements RuleSource {
+
+        private final String key;
+        private String fingerprint;
+        private List<String> rules;
+        volatile int compiled;
+
+        TestSource(String key, String fingerprint, String... rules) {
+            this.key = key;
+            update(fingerprint, rules);
+        }
+
+        void update(String fingerprint, String... rules) {
+            this.fingerprint = fingerprint;
+            this.rules = Arrays.asList(rules);
+        }
+
+        @Override
+        public String getKey() {
+            return key;
+        }
+
+        @Override
+        public String getFingerprint() {
+            return fingerprint;
+        }
+
+        @Override
+        public void compile(SegmentSink sink) throws IOException {
+            compiled++;
+            for (String rule : rules) {
+                sink.add(rule);
+            }
+        }
+    }
+}
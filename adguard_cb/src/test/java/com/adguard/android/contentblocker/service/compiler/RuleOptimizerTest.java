@@ -0,0 +1,109 @@
+/*
+ This file is part of AdGuard Content Blocker (https://github.com/AdguardTeam/ContentBlocker).
+ Copyright © 2018 AdGuard Content Blocker. All rights reserved.
+
+ AdGuard Content Blocker is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by the
+ Free Software Foundation, either version 3 of the License, or (at your option)
+ any later version.
+
+ AdGuard Content Blocker is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License along with
+ AdGuard Content Blocker.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.adguard.android.contentblocker.service.compiler;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RuleOptimizerTest {
+
+    private static final String ENCODING = "UTF-8";
+
+    private static final List<String> RULES = Arrays.asList(
+            "||example.org^",
+            "||ads.example.org^",
+            "||tracker.example.org^$third-party",
+            "@@||cdn.example.org^",
+            "||banner.net^$script,domain=a.com",
+            "||banner.net^$script,domain=b.com",
+            "||popup.net^$badfilter",
+            "||popup.net^",
+            "||sub.popup.net^",
+            "a.com##.ad",
+            "b.com##.ad",
+            "~c.com##.ad",
+            "##.generic",
+            "/regexp-ads/");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testOptimize() throws IOException {
+        assertOptimized(RULES);
+    }
+
+    @Test
+    public void testOptimizeAcrossPartitions() throws IOException {
+        List<String> rules = new ArrayList<>(RULES);
+        for (int i = 0; rules.size() * 20 < RuleOptimizer.PARTITION_SIZE * 4; i++) {
+            rules.add("||host" + i + ".filler.example^");
+        }
+        Set<String> output = assertOptimized(rules);
+        assertTrue(output.contains("||host0.filler.example^"));
+    }
+
+    private Set<String> assertOptimized(List<String> rules) throws IOException {
+        File input = folder.newFile("spliced.out");
+        File output = folder.newFile("output.txt");
+        FileUtils.writeLines(input, ENCODING, rules, "\n");
+
+        RuleOptimizer optimizer = new RuleOptimizer(() -> Arrays.<OptimizationPass>asList(new RedundantRulesPass(), new CosmeticGroupingPass()));
+        int count = optimizer.optimize(input, output);
+
+        List<String> lines = FileUtils.readLines(output, ENCODING);
+        Set<String> result = new HashSet<>(lines);
+        assertEquals(count, lines.size());
+        assertEquals(lines.size(), result.size());
+        assertEquals(rules.size() - count, optimizer.getRemovedCount());
+
+        // Covered by the parent domain rule with the same options
+        assertFalse(result.contains("||ads.example.org^"));
+        assertTrue(result.contains("||example.org^"));
+        assertTrue(result.contains("||tracker.example.org^$third-party"));
+        assertTrue(result.contains("@@||cdn.example.org^"));
+        // Merged domain lists
+        assertTrue(result.contains("||banner.net^$script,domain=a.com|b.com"));
+        // The disabled rule covers nothing
+        assertTrue(result.contains("||sub.popup.net^"));
+        assertTrue(result.contains("||popup.net^"));
+        assertTrue(result.contains("||popup.net^$badfilter"));
+        // Grouped by selector, the exclusions and generic rules are kept as they are
+        assertTrue(result.contains("a.com,b.com##.ad"));
+        assertTrue(result.contains("~c.com##.ad"));
+        assertTrue(result.contains("##.generic"));
+        assertTrue(result.contains("/regexp-ads/"));
+
+        // Partitions are deleted
+        assertEquals(new HashSet<>(Arrays.asList("spliced.out", "output.txt")), new HashSet<>(Arrays.asList(folder.getRoot().list())));
+        return result;
+    }
+}
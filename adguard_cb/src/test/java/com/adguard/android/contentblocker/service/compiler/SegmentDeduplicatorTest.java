@@ -0,0 +1,121 @@
+/*
+ This file is part of AdGuard Content Blocker (https://github.com/AdguardTeam/ContentBlocker).
+ Copyright © 2018 AdGuard Content Blocker. All rights reserved.
+
+ AdGuard Content Blocker is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by the
+ Free Software Foundation, either version 3 of the License, or (at your option)
+ any later version.
+
+ AdGuard Content Blocker is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License along with
+ AdGuard Content Blocker.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.adguard.android.contentblocker.service.compiler;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class SegmentDeduplicatorTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testDeduplicateAcrossSegments() throws IOException {
+        List<String> unique = deduplicate(false,
+                "||example.org^\nexample.com##.banner\n||example.org^\n",
+                "example.com##.banner\n||example.net^\n||example.org^");
+        assertEquals(Arrays.asList("||example.org^", "example.com##.banner", "||example.net^"), unique);
+    }
+
+    @Test
+    public void testHashCollisions() throws IOException {
+        // Rules that are prefixes of each other, the last ones have no line feed after them
+        List<String> unique = deduplicate(true,
+                "abc\nab\nabc\nabcd",
+                "abcd\na\nab\nabcde\n\nabc",
+                "abcde\nb");
+        assertEquals(Arrays.asList("abc", "ab", "abcd", "a", "abcde", "", "b"), unique);
+    }
+
+    @Test
+    public void testLongRules() throws IOException {
+        // Rules longer than the comparison buffer
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 5000) {
+            sb.append("||long.example^");
+        }
+        String rule = sb.toString();
+        List<String> unique = deduplicate(true, rule + "\n" + rule + "x\n", rule + "\n" + rule + "x");
+        assertEquals(Arrays.asList(rule, rule + "x"), unique);
+    }
+
+    /**
+     * Deduplicates the segments the same way as the compiler splices them
+     *
+     * @param collide  If true, all rules get the same hash
+     * @param segments Texts of the segments
+     * @return Unique rules
+     */
+    private List<String> deduplicate(boolean collide, String... segments) throws IOException {
+        List<FileInputStream> streams = new ArrayList<>();
+        List<FileChannel> channels = new ArrayList<>();
+        try {
+            for (String segment : segments) {
+                File file = folder.newFile();
+                FileUtils.writeStringToFile(file, segment, UTF_8);
+                FileInputStream inputStream = new FileInputStream(file);
+                streams.add(inputStream);
+                channels.add(inputStream.getChannel());
+            }
+
+            SegmentDeduplicator deduplicator = collide ? new CollidingDeduplicator(channels) : new SegmentDeduplicator(channels);
+            List<String> unique = new ArrayList<>();
+            for (int i = 0; i < channels.size(); i++) {
+                SegmentLineReader reader = new SegmentLineReader(channels.get(i), 16);
+                while (reader.next()) {
+                    if (deduplicator.add(reader, SegmentDeduplicator.ref(i, reader.getPosition()))) {
+                        unique.add(new String(reader.getBuffer(), reader.getStart(), reader.getLength(), UTF_8));
+                    }
+                }
+            }
+            assertEquals(unique.size(), deduplicator.size());
+            return unique;
+        } finally {
+            for (FileInputStream inputStream : streams) {
+                inputStream.close();
+            }
+        }
+    }
+
+    private static class CollidingDeduplicator extends SegmentDeduplicator {
+
+        CollidingDeduplicator(List<FileChannel> segments) {
+            super(segments);
+        }
+
+        @Override
+        protected long hash(SegmentLineReader line) {
+            return 42;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ This file is part of AdGuard Content Blocker (https://github.com/AdguardTeam/ContentBlocker).
+ Copyright © 2018 AdGuard Content Blocker. All rights reserved.
+
+ AdGuard Content Blocker is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by the
+ Free Software Foundation, either version 3 of the License, or (at your option)
+ any later version.
+
+ AdGuard Content Blocker is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License along with
+ AdGuard Content Blocker.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.adguard.android.contentblocker.service.compiler;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SegmentLineReaderTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testLines() throws IOException {
+        assertLines("||example.org^\n\nexample.com##.banner\n||пример.рф^\n", 1024,
+                "||example.org^", "", "example.com##.banner", "||пример.рф^");
+    }
+
+    @Test
+    public void testLastLineWithoutLineFeed() throws IOException {
+        assertLines("a\nb", 1024, "a", "b");
+        assertLines("a\n", 1024, "a");
+        assertLines("", 1024);
+    }
+
+    @Test
+    public void testLinesLongerThanBuffer() throws IOException {
+        // The buffer grows for the long lines and is reused for the short ones
+        assertLines("a\nbcdefghijklmnop\nq\nrstuvwxyz", 2, "a", "bcdefghijklmnop", "q", "rstuvwxyz");
+    }
+
+    @Test
+    public void testLinesLength() throws IOException {
+        // The bytes after the lines are not read, whatever the buffer size is
+        for (int bufferSize : new int[]{2, 5, 1024}) {
+            File file = folder.newFile();
+            FileUtils.writeStringToFile(file, "a\nbcd\n\u0000\n\u0001\u0002", UTF_8);
+            FileInputStream inputStream = new FileInputStream(file);
+            try {
+                SegmentLineReader reader = new SegmentLineReader(inputStream.getChannel(), 6, bufferSize);
+                assertTrue(reader.next());
+                assertEquals("a", new String(reader.getBuffer(), reader.getStart(), reader.getLength(), UTF_8));
+                assertTrue(reader.next());
+                assertEquals("bcd", new String(reader.getBuffer(), reader.getStart(), reader.getLength(), UTF_8));
+                assertFalse(reader.next());
+            } finally {
+                inputStream.close();
+            }
+        }
+    }
+
+    @Test
+    public void testStartsWith() throws IOException {
+        File file = folder.newFile();
+        FileUtils.writeStringToFile(file, "! Fingerprint: 1\n!\n", UTF_8);
+        FileInputStream inputStream = new FileInputStream(file);
+        try {
+            SegmentLineReader reader = new SegmentLineReader(inputStream.getChannel(), 4);
+            assertTrue(reader.next());
+            assertTrue(reader.startsWith("! Fingerprint: ".getBytes(UTF_8)));
+            assertTrue(reader.next());
+            assertFalse(reader.startsWith("! Fingerprint: ".getBytes(UTF_8)));
+            assertFalse(reader.next());
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private void assertLines(String text, int bufferSize, String... expected) throws IOException {
+        File file = folder.newFile();
+        FileUtils.writeStringToFile(file, text, UTF_8);
+
+        List<String> lines = new ArrayList<>();
+        FileInputStream inputStream = new FileInputStream(file);
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            SegmentLineReader reader = new SegmentLineReader(inputStream.getChannel(), bufferSize);
+            while (reader.next()) {
+                String line = new String(reader.getBuffer(), reader.getStart(), reader.getLength(), UTF_8);
+                lines.add(line);
+
+                // The position points to the line in the file
+                byte[] bytes = new byte[reader.getLength()];
+                randomAccessFile.seek(reader.getPosition());
+                randomAccessFile.readFully(bytes);
+                assertEquals(line, new String(bytes, UTF_8));
+            }
+            assertFalse(reader.next());
+        } finally {
+            inputStream.close();
+            randomAccessFile.close();
+        }
+        assertEquals(Arrays.asList(expected), lines);
+    }
+}
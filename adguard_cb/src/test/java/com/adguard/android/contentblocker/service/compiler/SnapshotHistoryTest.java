@@ -0,0 +1,152 @@
+/*
+ This file is part of AdGuard Content Blocker (https://github.com/AdguardTeam/ContentBlocker).
+ Copyright © 2018 AdGuard Content Blocker. All rights reserved.
+
+ AdGuard Content Blocker is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by the
+ Free Software Foundation, either version 3 of the License, or (at your option)
+ any later version.
+
+ AdGuard Content Blocker is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License along with
+ AdGuard Content Blocker.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.adguard.android.contentblocker.service.compiler;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SnapshotHistoryTest {
+
+    private static final String ENCODING = "UTF-8";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SnapshotHistory history;
+    private List<List<String>> snapshots;
+
+    @Before
+    public void setUp() throws IOException {
+        history = new SnapshotHistory(folder.newFolder("history"), "filters.txt");
+        snapshots = new ArrayList<>();
+        // Generations start with 1
+        snapshots.add(null);
+    }
+
+    @Test
+    public void testDeltaRoundTrip() throws IOException {
+        publish(Arrays.asList("||a.example^", "||b.example^", "example.com##.banner", "||пример.рф^"));
+        publish(Arrays.asList("||a.example^", "example.com##.banner", "||c.example^", "||пример.рф^"));
+        // A removed rule comes back and an added one is removed again
+        publish(Arrays.asList("||b.example^", "||a.example^", "example.com##.banner", "||пример.рф^"));
+        publish(Arrays.asList("||b.example^", "||d.example^", "||пример.рф^"));
+
+        for (long since = 1; since <= 4; since++) {
+            assertMerged(since, 4);
+        }
+    }
+
+    @Test
+    public void testRandomDeltas() throws IOException {
+        Random random = new Random(42);
+        for (int generation = 1; generation <= 8; generation++) {
+            Set<String> rules = new LinkedHashSet<>();
+            for (int i = 0; i < 500; i++) {
+                rules.add("||host" + random.nextInt(1000) + ".example^");
+            }
+            publish(new ArrayList<>(rules));
+        }
+
+        for (long since = 1; since <= 8; since++) {
+            assertMerged(since, 8);
+        }
+    }
+
+    @Test
+    public void testOldGenerationsAreDropped() throws IOException {
+        for (int generation = 1; generation <= 12; generation++) {
+            publish(Arrays.asList("||example.org^", "||host" + generation + ".example^"));
+        }
+
+        File output = folder.newFile();
+        assertFalse(history.merge(2, 12, output));
+        assertFalse(history.merge(0, 12, output));
+        assertFalse(history.merge(13, 12, output));
+        assertMerged(3, 12);
+    }
+
+    @Test
+    public void testMissingDelta() throws IOException {
+        publish(Arrays.asList("||a.example^"));
+        publish(Arrays.asList("||b.example^"));
+        // The second delta could not be prepared
+        snapshots.add(Arrays.asList("||c.example^"));
+        history.commit(null, 3);
+
+        assertMerged(1, 2);
+        assertFalse(history.merge(1, 3, folder.newFile()));
+        assertFalse(history.merge(2, 3, folder.newFile()));
+    }
+
+    /**
+     * Saves the snapshot of the next generation and its delta the same way as {@link SnapshotStore} does
+     */
+    private void publish(List<String> rules) throws IOException {
+        long generation = snapshots.size();
+        snapshots.add(rules);
+
+        File tempFile = null;
+        if (generation > 1) {
+            File previous = write(snapshots.get((int) generation - 1));
+            File current = write(rules);
+            tempFile = history.prepare(previous, current, generation);
+        }
+        history.commit(tempFile, generation);
+    }
+
+    private void assertMerged(long sinceGeneration, long currentGeneration) throws IOException {
+        File output = folder.newFile();
+        assertTrue(history.merge(sinceGeneration, currentGeneration, output));
+
+        List<String> lines = FileUtils.readLines(output, ENCODING);
+        assertEquals(SnapshotHistory.DELTA_HEADER + " " + sinceGeneration + " " + currentGeneration, lines.get(0));
+
+        Set<String> rules = new LinkedHashSet<>(snapshots.get((int) sinceGeneration));
+        for (String line : lines.subList(1, lines.size())) {
+            String rule = line.substring(1);
+            if (line.charAt(0) == SnapshotHistory.ADDED_PREFIX) {
+                assertTrue("Added twice: " + rule, rules.add(rule));
+            } else {
+                assertEquals(SnapshotHistory.REMOVED_PREFIX, line.charAt(0));
+                assertTrue("Removed missing: " + rule, rules.remove(rule));
+            }
+        }
+        assertEquals(new LinkedHashSet<>(snapshots.get((int) currentGeneration)), rules);
+    }
+
+    private File write(List<String> rules) throws IOException {
+        File file = folder.newFile();
+        FileUtils.writeLines(file, ENCODING, rules, "\n");
+        return file;
+    }
+}